@@ -18,10 +18,11 @@ import org.apache.log4j.Logger;
 
 import edu.cmu.ml.praprolog.graph.GraphWriter;
 import edu.cmu.ml.praprolog.learn.tools.PosNegRWExample;
-import edu.cmu.ml.praprolog.prove.Component;
 import edu.cmu.ml.praprolog.prove.Goal;
 import edu.cmu.ml.praprolog.prove.LogicProgram;
 import edu.cmu.ml.praprolog.prove.LogicProgramState;
+import edu.cmu.ml.praprolog.prove.ProofMetrics;
+import edu.cmu.ml.praprolog.prove.ProofResult;
 import edu.cmu.ml.praprolog.prove.Prover;
 import edu.cmu.ml.praprolog.prove.RawPosNegExample;
 import edu.cmu.ml.praprolog.prove.RawPosNegExampleStreamer;
@@ -44,6 +45,8 @@ public class ExampleCooker extends ExampleThawing {
 	public static final String COOKED_SUFFIX = ".cooked";
 	protected File graphKeyFile=null;
 	protected Writer graphKeyWriter=null;
+	protected File metricsFile=null;
+	protected Writer metricsWriter=null;
 	protected CookingStatistics statistics=null;
 	public ExampleCooker(Prover p, LogicProgram program) {
 		super.init(p,program);
@@ -56,6 +59,8 @@ public class ExampleCooker extends ExampleThawing {
 		RawPosNegExample worstX = null;
 		double smallestFractionCovered = 1.0;
 		int nwritten=0;
+		// queries whose proofs stopped at a prover limit
+		List<String> truncated = new ArrayList<String>();
 		
 		protected synchronized void updateStatistics(RawPosNegExample rawX,int npos,int nneg,int covpos,int covneg) {
 			// keep track of some statistics - synchronized for multithreading
@@ -69,6 +74,10 @@ public class ExampleCooker extends ExampleThawing {
 				smallestFractionCovered = fractionCovered;
 			}
 		}
+
+		protected synchronized void recordTruncated(RawPosNegExample rawX, ProofResult result) {
+			truncated.add(rawX.getQuery().toSaveString()+"\t"+result.getStoppedBy());
+		}
 	}
 
 	public void cookExamples(File dataFile, String outputFile) {
@@ -76,9 +85,14 @@ public class ExampleCooker extends ExampleThawing {
 		try {
 			writer = new BufferedWriter(new FileWriter(outputFile));
 			if (this.graphKeyFile != null) this.graphKeyWriter = new BufferedWriter(new FileWriter(this.graphKeyFile));
+			if (this.metricsFile != null) {
+				this.metricsWriter = new BufferedWriter(new FileWriter(this.metricsFile));
+				this.metricsWriter.write(ProofMetrics.HEADER+"\n");
+			}
 			cookExamples(dataFile,writer); 
 			writer.close();
 			if (this.graphKeyFile != null) this.graphKeyWriter.close();
+			if (this.metricsFile != null) this.metricsWriter.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -118,6 +132,7 @@ public class ExampleCooker extends ExampleThawing {
 			}
 		}
 		if (empty>0) log.info("Skipped "+empty+" of "+k+" examples due to empty graphs");
+		reportTruncated();
 	}
 
 	long lastPrint = System.currentTimeMillis();
@@ -175,6 +190,14 @@ public class ExampleCooker extends ExampleThawing {
 		}
 	}
 
+	protected synchronized void saveMetrics(ProofMetrics metrics) {
+		try {
+			this.metricsWriter.write(metrics.toString()+"\n");
+		} catch (IOException e) {
+			throw new IllegalStateException("Couldn't write to metrics file "+this.metricsFile.getName(),e);
+		}
+	}
+
 	protected Prover getProver() {
 		return this.prover;
 	}
@@ -193,7 +216,23 @@ public class ExampleCooker extends ExampleThawing {
 					+Dictionary.buildString(x.getPosSet(), new StringBuilder(), " -", false).toString()
 					+Dictionary.buildString(x.getPosSet(), new StringBuilder(), " +", false).toString());
 		GraphWriter writer = new GraphWriter();
-		Map<LogicProgramState,Double> ans = this.getProver().proveState(program, x.getQueryState(), writer);
+		Prover prover = this.getProver();
+		ProofMetrics metrics = null;
+		if (this.metricsWriter != null) {
+			metrics = new ProofMetrics(program, rawX.getQuery().toSaveString());
+			prover.setListener(metrics);
+		}
+		ProofResult result = prover.prove(program, x.getQueryState(), writer, 0);
+		if (metrics != null) {
+			prover.setListener(null);
+			saveMetrics(metrics);
+		}
+		if (result.hitLimit()) {
+			log.warn("Proof stopped at "+result.getStoppedBy()+" limit with residual "+result.getResidualMass()
+					+"; cooking partial graph for "+rawX.getQuery());
+			statistics.recordTruncated(rawX, result);
+		}
+		Map<LogicProgramState,Double> ans = result.getScores();
 		if (log.isTraceEnabled()) {
 			new TracingDfsProver().proveState(new LogicProgram(program), x.getQueryState());
 		}
@@ -231,6 +270,13 @@ public class ExampleCooker extends ExampleThawing {
 		if (statistics.worstX!=null) 
 			log.info("Example with fewest ["+100.0*statistics.smallestFractionCovered+"%] pos examples covered: "
 					+ statistics.worstX.getQuery());
+		reportTruncated();
+	}
+
+	protected void reportTruncated() {
+		if (statistics.truncated.isEmpty()) return;
+		log.warn(statistics.truncated.size()+" examples were cooked from partial proofs after reaching a prover limit:");
+		for (String q : statistics.truncated) log.warn("truncated: "+q);
 	}
 
 	public static class ExampleCookerConfiguration extends CustomConfiguration {
@@ -269,11 +315,12 @@ public class ExampleCooker extends ExampleThawing {
 		if (c.programFiles == null) Configuration.missing(Configuration.USE_PROGRAMFILES,flags);
 
 		ExampleCooker cooker = null;
-		if (c.nthreads < 0) cooker = new ExampleCooker(c.prover,new LogicProgram(Component.loadComponents(c.programFiles,c.alpha,c)));
-		else cooker = new ModularMultiExampleCooker(c.prover, new LogicProgram(Component.loadComponents(c.programFiles,c.alpha,c)), c.nthreads); 
+		if (c.nthreads < 0) cooker = new ExampleCooker(c.prover,LogicProgram.load(c.programFiles,c.alpha,c));
+		else cooker = new ModularMultiExampleCooker(c.prover, LogicProgram.load(c.programFiles,c.alpha,c), c.nthreads); 
 		//MultithreadedExampleCooker(c.prover,c.programFiles,c.nthreads);
 		long start = System.currentTimeMillis();
 		if (c.getCustomSetting("graphKey") != null) cooker.useGraphKeyFile((File) c.getCustomSetting("graphKey"));
+		if (c.metrics) cooker.useMetricsFile(new File(c.outputFile + Configuration.METRICS_SUFFIX));
 		cooker.cookExamples(c.dataFile, c.outputFile);
 		System.out.println("Time "+(System.currentTimeMillis()-start) + " msec");
 		System.out.println("Done.");
@@ -284,4 +331,13 @@ public class ExampleCooker extends ExampleThawing {
 		log.info("Using graph key file "+keyFile.getName());
 		this.graphKeyFile = keyFile;
 	}
+
+	/**
+	 * Save the metrics of each proof to this file, one line per example,
+	 * in the format described in ProofMetrics.
+	 */
+	public void useMetricsFile(File file) {
+		log.info("Using metrics file "+file.getName());
+		this.metricsFile = file;
+	}
 }
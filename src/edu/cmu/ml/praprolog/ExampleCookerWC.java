@@ -20,7 +20,6 @@ import org.apache.log4j.Logger;
 
 import edu.cmu.ml.praprolog.graph.GraphWriter;
 import edu.cmu.ml.praprolog.learn.tools.PosNegRWExample;
-import edu.cmu.ml.praprolog.prove.Component;
 import edu.cmu.ml.praprolog.prove.Goal;
 import edu.cmu.ml.praprolog.prove.LogicProgram;
 import edu.cmu.ml.praprolog.prove.LogicProgramState;
@@ -325,7 +324,7 @@ public class ExampleCookerWC extends ExampleThawing {
 	ExampleCookerConfiguration c = new ExampleCookerConfiguration(args, flags);
 	if (c.programFiles == null) Configuration.missing(Configuration.USE_PROGRAMFILES,flags);
 				
-	ExampleCookerWC cooker = new ExampleCookerWC(c.prover, new LogicProgram(Component.loadComponents(c.programFiles,c.alpha,c)));
+	ExampleCookerWC cooker = new ExampleCookerWC(c.prover, LogicProgram.load(c.programFiles,c.alpha,c));
 	long start = System.currentTimeMillis();
 	Writer outputWriter = new BufferedWriter(new FileWriter(c.outputFile));
 	cooker.cookExamples(c.dataFile, outputWriter, c.nthreads >= 1 ? c.nthreads : 1);
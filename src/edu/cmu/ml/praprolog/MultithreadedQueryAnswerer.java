@@ -97,6 +97,14 @@ public class MultithreadedQueryAnswerer {
 	public Map<LogicProgramState,Double> getSolutions(Prover prover,Goal query,LogicProgram program) {
 		return prover.proveState(program, new ProPPRLogicProgramState(query));
 	}
+	public ProofResult getProofResult(Prover prover,Goal query,LogicProgram program) {
+		return prover.prove(program, new ProPPRLogicProgramState(query), null, 0);
+	}
+	// queries whose proofs stopped at a prover limit
+	protected int truncated = 0;
+	protected synchronized void recordTruncated() {
+		truncated++;
+	}
 	
 	public void addParams(LogicProgram program, ParamVector params, WeightingScheme wScheme) {
 		program.setFeatureDictWeighter(InnerProductWeighter.fromParamVec(params, wScheme));
@@ -137,6 +145,7 @@ public class MultithreadedQueryAnswerer {
 			//	}
 			}, 
 			this.throttle);
+		if (truncated>0) log.warn(truncated+" of "+queryStrings.size()+" queries were truncated at a prover limit");
 		
 		try {
 			int querynum=0;
@@ -195,9 +204,9 @@ public class MultithreadedQueryAnswerer {
 				query.compile(in.program.getSymbolTable());
 				log.info("Querying: "+query);
 				long start = System.currentTimeMillis();
-				Map<LogicProgramState,Double> dist = getSolutions(in.prover,query,in.program);
+				ProofResult result = getProofResult(in.prover,query,in.program);
 				long end = System.currentTimeMillis();
-				Map<String,Double> solutions = Prover.filterSolutions(dist);
+				Map<String,Double> solutions = result.getSolutions();
 				if (in.normalize) {
 					log.debug("normalizing");
 					solutions = Dictionary.normalize(solutions);
@@ -207,6 +216,10 @@ public class MultithreadedQueryAnswerer {
 				List<Map.Entry<String,Double>> solutionDist = Dictionary.sort(solutions);
 				StringBuilder sb = new StringBuilder();
 	            sb.append("# proved ").append("1").append("\t").append(query.toSaveString()).append("\t").append((end - start) + " msec");
+	            if (result.hitLimit()) {
+	            	sb.append("\ttruncated:").append(result.getStoppedBy());
+	            	recordTruncated();
+	            }
 	            sb.append(System.getProperty("line.separator"));
                 int rank = 0;
                 for (Map.Entry<String, Double> soln : solutionDist) {
@@ -22,6 +22,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +35,18 @@ import java.util.Map;
  * file is one line for each query, in the format '# proved Q# <TAB>
  * QUERY <TAB> TIME-IN-MILLISEC msec', followed by one line for each
  * solution, in the format 'RANK <TAB> SCORE <TAB> VARIABLE-BINDINGS'.
+ *
+ * With --topk K, only the first K solutions are written, and the
+ * prover may stop as soon as their order is certain; each solution line
+ * then also gives the certified bounds on its unnormalized score, as
+ * 'RANK <TAB> SCORE <TAB> VARIABLE-BINDINGS <TAB> LOWER <TAB> UPPER'.
+ *
+ * If the prover gave up on a query at one of its limits, the solutions
+ * written are those of the partial proof, and the query line ends with
+ * '<TAB> truncated:LIMIT'.
+ *
+ * With --metrics, the cost of each proof is saved to OUTPUT.metrics,
+ * in the format described in ProofMetrics.
  */
 
 public class QueryAnswerer {
@@ -42,6 +55,7 @@ public class QueryAnswerer {
     static class QueryAnswererConfiguration extends ExperimentConfiguration {
         boolean normalize;
         boolean rerank;
+        int topk;
 
         public QueryAnswererConfiguration(String[] args, int flags) {
             super(args, flags);
@@ -60,6 +74,13 @@ public class QueryAnswerer {
                             .withLongOpt("reranked")
                             .withDescription("Cook with unit weights and rerank solutions, instead of cooking with trained weights")
                             .create());
+            options.addOption(
+                    OptionBuilder
+                            .withLongOpt("topk")
+                            .withArgName("k")
+                            .hasArg()
+                            .withDescription("Only find the top k solutions, and stop proving once their order is certain")
+                            .create());
         }
 
         @Override
@@ -69,6 +90,8 @@ public class QueryAnswerer {
             if (line.hasOption("unnormalized")) this.normalize = false;
             this.rerank = false;
             if (line.hasOption("reranked")) this.rerank = true;
+            this.topk = 0;
+            if (line.hasOption("topk")) this.topk = Integer.parseInt(line.getOptionValue("topk"));
             if (!line.hasOption("queries")) {
             	usageOptions(options, flags,"Missing required option: queries");
             }
@@ -76,9 +99,38 @@ public class QueryAnswerer {
     }
 
 
+	protected int topk = 0;
+	protected File metricsFile = null;
+
 	public Map<LogicProgramState,Double> getSolutions(Prover prover,Goal query,LogicProgram program) {
 		return prover.proveState(program, new ProPPRLogicProgramState(query));
 	}
+	/**
+	 * Prove the query, stopping early if we only want the top k solutions
+	 * or if the prover reaches one of its limits.
+	 * @param prover
+	 * @param query
+	 * @param program
+	 * @return
+	 */
+	public ProofResult getProofResult(Prover prover,Goal query,LogicProgram program) {
+		return prover.prove(program, new ProPPRLogicProgramState(query), null, this.topk);
+	}
+	/**
+	 * Write only the top k solutions for each query, with score bounds,
+	 * and let the prover stop as soon as their order is certain.
+	 * @param k number of solutions; 0 to write them all
+	 */
+	public void setTopK(int k) {
+		this.topk = k;
+	}
+	/**
+	 * Save the metrics of each proof to this file, one line per query.
+	 * @param file null to save nothing
+	 */
+	public void setMetricsFile(File file) {
+		this.metricsFile = file;
+	}
 	public void addParams(LogicProgram program, ParamVector params, WeightingScheme wScheme) {
 		program.setFeatureDictWeighter(InnerProductWeighter.fromParamVec(params, wScheme));
 	}
@@ -87,8 +139,14 @@ public class QueryAnswerer {
 
 		ParsedFile reader = new ParsedFile(queryFile);
 		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+		BufferedWriter metricsWriter = null;
+		if (this.metricsFile != null) {
+			metricsWriter = new BufferedWriter(new FileWriter(this.metricsFile));
+			metricsWriter.write(ProofMetrics.HEADER);
+			metricsWriter.newLine();
+		}
 		try {
-			int querynum=0;
+			int querynum=0, truncated=0;
 			for (String line : reader) {
 				querynum++;
 				String queryString = line.split("\t")[0];
@@ -96,10 +154,22 @@ public class QueryAnswerer {
 				Goal query = Goal.parseGoal(queryString, ",");
 				query.compile(program.getSymbolTable());
 				log.info("Querying: "+query);
+				ProofMetrics metrics = null;
+				if (metricsWriter != null) {
+					metrics = new ProofMetrics(program, query.toSaveString());
+					prover.setListener(metrics);
+				}
 				long start = System.currentTimeMillis();
-				Map<LogicProgramState,Double> dist = getSolutions(prover,query,program);
+				ProofResult result = getProofResult(prover,query,program);
 				long end = System.currentTimeMillis();
-				Map<String,Double> solutions = Prover.filterSolutions(dist);
+				if (metrics != null) {
+					prover.setListener(null);
+					metricsWriter.write(metrics.toString());
+					metricsWriter.newLine();
+				}
+				Map<String,Double> solutions = result.getSolutions();
+				// keep the unnormalized scores for the bounds
+				Map<String,Double> raw = new HashMap<String,Double>(solutions);
 				if (normalize) {
 					log.debug("normalizing");
 					solutions = Dictionary.normalize(solutions);
@@ -112,19 +182,31 @@ public class QueryAnswerer {
 
                 writer.append("# proved ").append(String.valueOf(querynum)).append("\t").append(query.toSaveString())
                       .append("\t").append((end - start) + " msec");
-
+                if (result.hitLimit()) {
+                    writer.append("\ttruncated:").append(result.getStoppedBy());
+                    truncated++;
+                }
                 writer.newLine();
                 int rank = 0;
                 for (Map.Entry<String, Double> soln : solutionDist) {
                     ++rank;
+                    if (topk > 0 && rank > topk) break;
                     writer.append(rank + "\t").append(soln.getValue().toString()).append("\t").append(soln.getKey());
+                    if (topk > 0) {
+                    	double score = raw.get(soln.getKey());
+                    	writer.append("\t").append(String.valueOf(result.lowerBound(score)))
+                    	      .append("\t").append(String.valueOf(result.upperBound(score)));
+                    }
                     writer.newLine();
                 }
                 writer.flush();
             }
+            if (truncated>0) log.warn(truncated+" of "+querynum+" queries were truncated at a prover limit");
+            log.info(program.outlinkCacheStatistics());
         } finally {
             reader.close();
             writer.close();
+            if (metricsWriter != null) metricsWriter.close();
         }
     }
 
@@ -137,6 +219,8 @@ public class QueryAnswerer {
         QueryAnswerer qa = c.rerank ?
                            new RerankingQueryAnswerer((SRW<PosNegRWExample<String>>) c.srw) :
                            new QueryAnswerer();
+        qa.setTopK(c.topk);
+        if (c.metrics) qa.setMetricsFile(new File(c.outputFile + Configuration.METRICS_SUFFIX));
         log.info("Running queries from " + c.queryFile + "; saving results to " + c.outputFile);
         if (c.paramsFile != null) {
         	ParamsFile file = new ParamsFile(c.paramsFile);
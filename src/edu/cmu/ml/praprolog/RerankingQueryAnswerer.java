@@ -1,6 +1,5 @@
 package edu.cmu.ml.praprolog;
 
-import edu.cmu.ml.praprolog.graph.GraphWriter;
 import edu.cmu.ml.praprolog.learn.SRW;
 import edu.cmu.ml.praprolog.learn.tools.PosNegRWExample;
 import edu.cmu.ml.praprolog.learn.tools.WeightingScheme;
@@ -9,20 +8,23 @@ import edu.cmu.ml.praprolog.prove.InnerProductWeighter;
 import edu.cmu.ml.praprolog.prove.LogicProgram;
 import edu.cmu.ml.praprolog.prove.LogicProgramState;
 import edu.cmu.ml.praprolog.prove.ProPPRLogicProgramState;
+import edu.cmu.ml.praprolog.prove.ProofCache;
+import edu.cmu.ml.praprolog.prove.ProofResult;
 import edu.cmu.ml.praprolog.prove.Prover;
 import edu.cmu.ml.praprolog.util.Dictionary;
 import edu.cmu.ml.praprolog.util.ParamVector;
 
 import org.apache.log4j.Logger;
 
-import java.util.HashMap;
 import java.util.Map;
 
 public class RerankingQueryAnswerer extends QueryAnswerer {
 	private static final Logger log = Logger.getLogger(RerankingQueryAnswerer.class);
 
-	protected ParamVector params = null;
+	protected ParamVector<?> params = null;
 	protected SRW<PosNegRWExample<String>> srw;
+	// queries are proved once, then only re-weighted
+	protected ProofCache proofs = new ProofCache();
 	public RerankingQueryAnswerer(SRW<PosNegRWExample<String>> walker) {
 		this.srw = walker;
 	}
@@ -31,32 +33,16 @@ public class RerankingQueryAnswerer extends QueryAnswerer {
 		// weightingScheme is only used by the SRW, which got a copy during configuration
 		this.params = params;
 	}
+	/** Reranking needs the whole proof graph, so we always prove in full */
+	@Override
+	public ProofResult getProofResult(Prover prover,Goal query,LogicProgram program) {
+		return new ProofResult(getSolutions(prover,query,program));
+	}
 	@Override
 	public Map<LogicProgramState,Double> getSolutions(Prover prover,Goal query,LogicProgram program) {
-		// FIXME: this is copypasta from RerankingTester
-		GraphWriter writer = new GraphWriter();
-		Map<LogicProgramState,Double> ans = prover.proveState(program, new ProPPRLogicProgramState(query), writer);
-		if (this.params == null) return ans;
-		
-		HashMap<String,LogicProgramState> graphIds = new HashMap<String,LogicProgramState>();
-		for (Map.Entry<LogicProgramState,Double> e : ans.entrySet()) {
-			if (e.getKey().isSolution()) {
-				graphIds.put(writer.getId(e.getKey()),e.getKey());
-			}
-		}
-		
-		Map<String,Double> start = new HashMap<String,Double>(); start.put(writer.getId(new ProPPRLogicProgramState(query)),1.0);
-		Map<String,Double> result = this.srw.rwrUsingFeatures(writer.getGraph(), start, this.params);
-		for (Map.Entry<String,LogicProgramState> e : graphIds.entrySet()) {
-			if (!result.containsKey(e.getKey())) {
-				log.warn("RWR did not retrieve baseline solution "+e.getValue()+"; removing");
-				ans.remove(e.getValue());
-			} else {
-				ans.put(e.getValue(), result.get(e.getKey()));
-			}
-		}
-		
-		return ans;
+		ProofCache.CachedProof proof = this.proofs.get(prover, program, new ProPPRLogicProgramState(query));
+		if (this.params == null) return proof.getScores();
+		return proof.rescore(this.params, this.srw.getWeightingScheme(), this.srw.getMaxT());
 	}
 
 }
@@ -1,24 +1,25 @@
 package edu.cmu.ml.praprolog;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 
-import edu.cmu.ml.praprolog.graph.GraphWriter;
 import edu.cmu.ml.praprolog.learn.SRW;
 import edu.cmu.ml.praprolog.learn.tools.PosNegRWExample;
 import edu.cmu.ml.praprolog.learn.tools.WeightingScheme;
 import edu.cmu.ml.praprolog.prove.LogicProgram;
 import edu.cmu.ml.praprolog.prove.LogicProgramState;
+import edu.cmu.ml.praprolog.prove.ProofCache;
 import edu.cmu.ml.praprolog.prove.Prover;
 import edu.cmu.ml.praprolog.prove.ThawedPosNegExample;
 import edu.cmu.ml.praprolog.util.ParamVector;
 
 public class RerankingTester extends Tester {
 	private static final Logger log = Logger.getLogger(RerankingTester.class);
-	protected ParamVector params = null;
+	protected ParamVector<?> params = null;
 	protected SRW<PosNegRWExample<String>> srw;
+	// examples are proved once, then only re-weighted
+	protected ProofCache proofs = new ProofCache();
 	public RerankingTester(Prover p, LogicProgram lp, SRW<PosNegRWExample<String>> walker) {
 		super(p, lp);
 		this.srw = walker;
@@ -32,29 +33,9 @@ public class RerankingTester extends Tester {
 	
 	@Override
 	public Map<LogicProgramState,Double> getSolutions(ThawedPosNegExample x,LogicProgram program) {
-		GraphWriter writer = new GraphWriter();
-		Map<LogicProgramState,Double> ans = this.prover.proveState(program, x.getQueryState(), writer);
-		if (this.params == null) return ans;
-		
-		HashMap<String,LogicProgramState> graphIds = new HashMap<String,LogicProgramState>();
-		for (Map.Entry<LogicProgramState,Double> e : ans.entrySet()) {
-			if (e.getKey().isSolution()) {
-				graphIds.put(writer.getId(e.getKey()),e.getKey());
-			}
-		}
-		
-		Map<String,Double> start = new HashMap<String,Double>(); start.put(writer.getId(x.getQueryState()),1.0);
-		Map<String,Double> result = this.srw.rwrUsingFeatures(writer.getGraph(), start, this.params);
-		for (Map.Entry<String,LogicProgramState> e : graphIds.entrySet()) {
-			if (!result.containsKey(e.getKey())) {
-				log.warn("RWR did not retrieve baseline solution "+e.getValue()+"; removing");
-				ans.remove(e.getValue());
-			} else {
-				ans.put(e.getValue(), result.get(e.getKey()));
-			}
-		}
-		
-		return ans;
+		ProofCache.CachedProof proof = this.proofs.get(this.prover, program, x.getQueryState());
+		if (this.params == null) return proof.getScores();
+		return proof.rescore(this.params, this.srw.getWeightingScheme(), this.srw.getMaxT());
 	}
 
 }
@@ -0,0 +1,142 @@
+package edu.cmu.ml.praprolog.graph;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.ml.praprolog.learn.tools.WeightingScheme;
+import edu.cmu.ml.praprolog.util.Dictionary;
+
+/**
+ * A frozen, compact copy of the graph a GraphWriter recorded during a
+ * proof, for walking it again under different parameters without
+ * re-proving.
+ *
+ * Nodes keep their GraphWriter ids 1..N.  Edges are stored in compressed
+ * sparse rows, and each edge's features as feature ids with values, so
+ * re-weighting the graph looks up each parameter once rather than once
+ * per edge.
+ */
+public class ProofGraph {
+	protected final int numNodes;
+	// the edges out of node u are edgeStart[u] .. edgeStart[u+1]-1
+	protected final int[] edgeStart;
+	protected final int[] edgeDst;
+	// the features of edge e are featureStart[e] .. featureStart[e+1]-1
+	protected final int[] featureStart;
+	protected final int[] featureId;
+	protected final double[] featureValue;
+	protected final String[] featureNames;
+
+	public ProofGraph(GraphWriter writer) {
+		AnnotatedGraph<String> g = writer.getGraph();
+		this.numNodes = writer.getNumNodes();
+		this.edgeStart = new int[numNodes+2];
+		int numEdges=0, numFeatures=0;
+		for (int u=1; u<=numNodes; u++) {
+			Map<String,Double> near = g.nearNative(String.valueOf(u));
+			numEdges += near.size();
+			for (String v : near.keySet()) numFeatures += g.phi(String.valueOf(u), v).size();
+		}
+		this.edgeDst = new int[numEdges];
+		this.featureStart = new int[numEdges+1];
+		this.featureId = new int[numFeatures];
+		this.featureValue = new double[numFeatures];
+		Map<String,Integer> ids = new HashMap<String,Integer>();
+		int e=0, f=0;
+		for (int u=1; u<=numNodes; u++) {
+			this.edgeStart[u] = e;
+			String uid = String.valueOf(u);
+			for (String v : g.nearNative(uid).keySet()) {
+				this.edgeDst[e] = Integer.parseInt(v);
+				this.featureStart[e] = f;
+				for (Feature phi : g.phi(uid, v)) {
+					Integer id = ids.get(phi.featureName);
+					if (id == null) {
+						id = ids.size();
+						ids.put(phi.featureName, id);
+					}
+					this.featureId[f] = id;
+					this.featureValue[f++] = phi.weight;
+				}
+				e++;
+			}
+		}
+		this.edgeStart[numNodes+1] = e;
+		this.featureStart[e] = f;
+		this.featureNames = new String[ids.size()];
+		for (Map.Entry<String,Integer> n : ids.entrySet()) this.featureNames[n.getValue()] = n.getKey();
+	}
+
+	public int getNumNodes() { return numNodes; }
+	public int getNumEdges() { return edgeDst.length; }
+	public int getNumFeatures() { return featureNames.length; }
+
+	/**
+	 * The weight of every edge under params, as SRW.edgeWeight computes it.
+	 */
+	protected double[] edgeWeights(Map<String,Double> params, WeightingScheme scheme) {
+		double[] theta = new double[featureNames.length];
+		for (int i=0; i<theta.length; i++) theta[i] = Dictionary.safeGet(params, featureNames[i], scheme.defaultWeight());
+		double[] w = new double[edgeDst.length];
+		for (int e=0; e<w.length; e++) {
+			double sum = 0.0;
+			for (int f=featureStart[e]; f<featureStart[e+1]; f++) sum += theta[featureId[f]] * featureValue[f];
+			w[e] = scheme.edgeWeightFunction(sum);
+			if (Double.isInfinite(w[e])) w[e] = Double.MAX_VALUE;
+		}
+		return w;
+	}
+
+	/**
+	 * Walk maxT steps from node start, weighting edges with params, as
+	 * SRW.rwrUsingFeatures does over the same graph.
+	 * @param start GraphWriter id of the start node
+	 * @param params
+	 * @param scheme
+	 * @param maxT
+	 * @return the probability of each node after maxT steps, indexed by
+	 * GraphWriter id; nodes which the last step did not reach are NaN.
+	 */
+	public double[] walk(int start, Map<String,Double> params, WeightingScheme scheme, int maxT) {
+		double[] w = edgeWeights(params, scheme);
+		double[] z = new double[numNodes+1];
+		for (int u=1; u<=numNodes; u++) {
+			double sum = 0.0;
+			for (int e=edgeStart[u]; e<edgeStart[u+1]; e++) sum += w[e];
+			z[u] = Double.isInfinite(sum) ? Double.MAX_VALUE : sum;
+		}
+		double[] vec = new double[numNodes+1];
+		BitSet support = new BitSet(numNodes+1);
+		vec[start] = 1.0;
+		support.set(start);
+		for (int t=0; t<maxT; t++) {
+			double[] next = new double[numNodes+1];
+			BitSet nextSupport = new BitSet(numNodes+1);
+			for (int u = support.nextSetBit(0); u >= 0; u = support.nextSetBit(u+1)) {
+				if (vec[u] == 0 || z[u] == 0) continue;
+				for (int e=edgeStart[u]; e<edgeStart[u+1]; e++) {
+					next[edgeDst[e]] += vec[u] * w[e] / z[u];
+					nextSupport.set(edgeDst[e]);
+				}
+			}
+			vec = next;
+			support = nextSupport;
+		}
+		for (int u=0; u<=numNodes; u++) if (!support.get(u)) vec[u] = Double.NaN;
+		return vec;
+	}
+
+	/** @return the features of the edge from u to v, or null if there is no such edge */
+	public List<Feature> phi(int u, int v) {
+		for (int e=edgeStart[u]; e<edgeStart[u+1]; e++) {
+			if (edgeDst[e] != v) continue;
+			List<Feature> result = new ArrayList<Feature>(featureStart[e+1]-featureStart[e]);
+			for (int f=featureStart[e]; f<featureStart[e+1]; f++) result.add(new Feature(featureNames[featureId[f]], featureValue[f]));
+			return result;
+		}
+		return null;
+	}
+}
@@ -6,7 +6,7 @@ public abstract class Argument implements Comparable<Argument> {
 	public String getName() { return String.valueOf(this.getValue()); }
 	public int getValue() { return 0; }
 	public static Argument fromString(String s) {
-		return new ConstantArgument(s);
+		return ConstantArgument.intern(s);
 	}
 	public Argument getRenamed(int offset) {
 		return this;
@@ -0,0 +1,216 @@
+package edu.cmu.ml.praprolog.prove;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A LogicProgram wrapper which memoizes the weighted outlinks and the
+ * degree of every state it is asked about, so that a prover expands
+ * each state at most once instead of once for the degree and again for
+ * every push.
+ *
+ * Restart links are memoized too.  Every state of a query restarts to
+ * the same state, so that state is built once per query; its weighted
+ * restart link depends only on the claiming component and the state's
+ * degree (through the alphaBooster feature), so one link is built for
+ * each such pair.
+ *
+ * Meant to be scoped to a single proof: nothing is ever evicted, and the
+ * cached outlinks keep the weights they had when they were computed.
+ * Outlinks returned by lpOutlinks and lpRestartWeight are shared and must
+ * not be modified.
+ */
+public class CachingLogicProgram extends LogicProgram {
+	protected LogicProgram program;
+	// one map for each combination of the trueLoop and restart flags
+	protected List<Map<LogicProgramState,List<LogicProgramOutlink>>> outlinks;
+	protected List<Map<LogicProgramState,Integer>> degrees;
+	// the restart state of each query, keyed on its original goals
+	protected Map<Goal[],ProPPRLogicProgramState> restartStates = new IdentityHashMap<Goal[],ProPPRLogicProgramState>();
+	protected Map<RestartKey,LogicProgramOutlink> restarts = new HashMap<RestartKey,LogicProgramOutlink>();
+	protected int hits=0, misses=0;
+	protected ProverListener listener=null;
+
+	public CachingLogicProgram(LogicProgram p) {
+		super(p);
+		this.program = p;
+		this.weighter = p.weighter;
+		this.outlinks = new ArrayList<Map<LogicProgramState,List<LogicProgramOutlink>>>(4);
+		this.degrees = new ArrayList<Map<LogicProgramState,Integer>>(4);
+		for (int i=0; i<4; i++) {
+			this.outlinks.add(new HashMap<LogicProgramState,List<LogicProgramOutlink>>());
+			this.degrees.add(new HashMap<LogicProgramState,Integer>());
+		}
+	}
+
+	private static int flags(boolean trueLoop, boolean restart) {
+		return (trueLoop ? 1 : 0) + (restart ? 2 : 0);
+	}
+
+	@Override
+	public List<LogicProgramOutlink> lpOutlinks(LogicProgramState state, boolean trueloop,
+			boolean restart) throws LogicProgramException {
+		Map<LogicProgramState,List<LogicProgramOutlink>> cache = this.outlinks.get(flags(trueloop,restart));
+		List<LogicProgramOutlink> result = cache.get(state);
+		if (result != null) {
+			hits++;
+			return result;
+		}
+		misses++;
+		if (this.listener == null) {
+			result = this.program.lpOutlinks(state, trueloop, restart);
+		} else {
+			Component c = state.isSolution() ? null : this.claimant(state);
+			long start = System.nanoTime();
+			result = this.program.lpOutlinks(state, trueloop, restart);
+			this.listener.expand(state, c, result.size(), System.nanoTime() - start);
+		}
+		cache.put(state, result);
+		return result;
+	}
+
+	/**
+	 * The degree is the number of outlinks, plus one for the restart
+	 * link if requested, so if we've already expanded the state we count
+	 * the cached outlinks.  Otherwise, we ask the program directly only if
+	 * the claiming component can count children cheaply; if not, we
+	 * expand the state now, since a prover will probably want its
+	 * outlinks later anyway.
+	 */
+	@Override
+	public int lpDegree(LogicProgramState state, boolean trueLoop, boolean restart) throws LogicProgramException {
+		if (state.isSolution()) return this.program.lpDegree(state, trueLoop, restart);
+		Map<LogicProgramState,Integer> cache = this.degrees.get(flags(trueLoop,restart));
+		Integer d = cache.get(state);
+		if (d != null) {
+			hits++;
+			return d;
+		}
+		List<LogicProgramOutlink> outs = this.outlinks.get(flags(trueLoop,false)).get(state);
+		if (outs != null) {
+			hits++;
+			d = outs.size() + (restart ? 1 : 0);
+		} else if (this.claimant(state).hasCheapDegree()) {
+			misses++;
+			d = this.program.lpDegree(state, trueLoop, restart);
+		} else {
+			d = this.lpOutlinks(state, trueLoop, false).size() + (restart ? 1 : 0);
+		}
+		cache.put(state, d);
+		return d;
+	}
+
+	/**
+	 * As LogicProgram.lpRestartWeight, but hands the claiming component
+	 * our cached degree instead of letting it count the state's children
+	 * again, and reuses the restart link of any earlier state with the
+	 * same claimant and degree.
+	 */
+	@Override
+	public LogicProgramOutlink lpRestartWeight(LogicProgramState state, boolean trueLoop) throws LogicProgramException {
+		if (state.isSolution() && !trueLoop) return this.program.lpRestartWeight(state, trueLoop);
+		// solutions restart along the trueLoop link, which has no claimant
+		Component c = state.isSolution() ? null : this.claimant(state);
+		int n = c == null ? 0 : this.lpDegree(state, trueLoop, false);
+		ProPPRLogicProgramState r = this.restartState(state);
+		RestartKey key = new RestartKey(r, c, n);
+		LogicProgramOutlink result = this.restarts.get(key);
+		if (result == null) {
+			Map<Goal,Double> fd = c == null ? this.trueLoopRestartFeatureDict : c.restartFeatureDict(state, n);
+			result = new LogicProgramOutlink(this.weighter.w(fd), r, fd);
+			this.restarts.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * As state.restart(), but returns the same restart state for every
+	 * state of a query.
+	 * @param state
+	 * @return
+	 */
+	public ProPPRLogicProgramState restartState(LogicProgramState state) {
+		if (!(state instanceof ProPPRLogicProgramState)) return state.restart();
+		// children share their parent's original goals, so this is one lookup per state
+		Goal[] goals = ((ProPPRLogicProgramState) state).getOriginalGoals();
+		ProPPRLogicProgramState r = this.restartStates.get(goals);
+		if (r == null) {
+			r = state.restart();
+			this.restartStates.put(goals, r);
+			// the restart state copies the goals, and restarts to itself
+			this.restartStates.put(r.getOriginalGoals(), r);
+		}
+		return r;
+	}
+
+	/**
+	 * A restart link is determined by the restart state, claimant, and
+	 * degree.  Restart states are compared by value: states which aren't
+	 * ProPPR states get a new restart state every time.
+	 */
+	protected static class RestartKey {
+		final LogicProgramState restart;
+		final Component claimant;
+		final int degree;
+		RestartKey(LogicProgramState restart, Component claimant, int degree) {
+			this.restart = restart; this.claimant = claimant; this.degree = degree;
+		}
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof RestartKey)) return false;
+			RestartKey k = (RestartKey) o;
+			return this.claimant == k.claimant && this.degree == k.degree
+					&& (this.restart == k.restart || this.restart.equals(k.restart));
+		}
+		@Override
+		public int hashCode() {
+			return 31 * (31 * restart.hashCode() + System.identityHashCode(claimant)) + degree;
+		}
+	}
+
+	@Override
+	public Component claimant(LogicProgramState state) throws LogicProgramException {
+		return this.program.claimant(state);
+	}
+
+	/**
+	 * Changes the weighter of the wrapped program, and forgets
+	 * everything cached under the old weights.
+	 */
+	@Override
+	public void setFeatureDictWeighter(FeatureDictWeighter w) {
+		this.program.setFeatureDictWeighter(w);
+		this.weighter = w;
+		for (Map<LogicProgramState,List<LogicProgramOutlink>> m : this.outlinks) m.clear();
+		for (Map<LogicProgramState,Integer> m : this.degrees) m.clear();
+		this.restarts.clear();
+	}
+
+	/**
+	 * Report each expansion of a state to l, with the component that
+	 * claimed it (null for a solution) and the time it took.
+	 */
+	public void setListener(ProverListener l) {
+		this.listener = l;
+	}
+
+	public int getHits() {
+		return hits;
+	}
+	public int getMisses() {
+		return misses;
+	}
+	/**
+	 * @return fraction of outlink and degree requests answered from the cache
+	 */
+	public double getHitRate() {
+		if (hits+misses == 0) return 0;
+		return ((double) hits) / (hits+misses);
+	}
+	public String cacheStatistics() {
+		return "outlink cache: "+hits+" hits "+misses+" misses ("+String.format("%.1f",100*getHitRate())+"% hit rate)";
+	}
+}
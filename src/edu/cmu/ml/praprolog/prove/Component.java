@@ -1,13 +1,21 @@
 package edu.cmu.ml.praprolog.prove;
 
+import edu.cmu.ml.praprolog.prove.feat.ComplexFeatureLibrary;
 import edu.cmu.ml.praprolog.util.Configuration;
 import edu.cmu.ml.praprolog.util.Dictionary;
 import edu.cmu.ml.praprolog.util.SymbolTable;
 import org.apache.log4j.Logger;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public abstract class Component {
     private static final Logger log = Logger.getLogger(Component.class);
@@ -16,6 +24,8 @@ public abstract class Component {
     protected Goal restartFeature = new Goal("id", "defaultRestart");
     protected double alpha = ALPHA_DEFAULT;//0.2;
     protected Goal boostedRestartFeature = new Goal("id", "alphaBooster");
+    // counts the times this component started claiming a new signature; LogicProgram re-indexes claims when it moves
+    private volatile int signatureChanges = 0;
 
     public Component() {}
 
@@ -33,6 +43,12 @@ public abstract class Component {
      */
     public void setAlpha(double a) { this.alpha = a; }
 
+    /**
+     * Compute complex (escape__) features with this library.  Components
+     * without complex features ignore it.
+     */
+    public void setComplexFeatureLibrary(ComplexFeatureLibrary library) {}
+
     /**
      * Declare that you have interest in this state - Must be overridden.
      *
@@ -64,7 +80,18 @@ public abstract class Component {
      * @throws LogicProgramException
      */
     public Map<Goal, Double> restartFeatureDict(LogicProgramState state) throws LogicProgramException {
-        int n = degree(state);
+        return restartFeatureDict(state, degree(state));
+    }
+
+    /**
+     * As restartFeatureDict(state), for callers which already know
+     * degree(state).
+     *
+     * @param state
+     * @param n the degree of state
+     * @return
+     */
+    public Map<Goal, Double> restartFeatureDict(LogicProgramState state, int n) {
         Map<Goal, Double> featureDict = new HashMap<Goal, Double>();
 //		featureDict.putAll(this.restartFD);
         featureDict.put(restartFeature, 1.0);
@@ -85,6 +112,79 @@ public abstract class Component {
         return this.outlinks(state).size();
     }
 
+    /**
+     * True if degree(state) is answered without generating
+     * outlinks(state).  Callers which will probably need the outlinks
+     * anyway (see CachingLogicProgram) use this to decide whether to
+     * expand a state just to count its children.
+     *
+     * @return
+     */
+    public boolean hasCheapDegree() {
+        return false;
+    }
+
+    /**
+     * True if outlinks(state) depends only on the goals of the state,
+     * and builds every child with state.child(...).  The outlinks of
+     * such a component can be shared between states with the same goal
+     * list (see LogicProgram.setOutlinkCacheCapacity).
+     *
+     * @return
+     */
+    public boolean isCacheable() {
+        return true;
+    }
+
+    /**
+     * The feature dict of every outlink of this component, if they all
+     * carry the same one (the same object, not just an equal one); null
+     * otherwise.  LogicProgram compiles a shared dict for the weighter
+     * once, instead of weighting it again for every edge.
+     *
+     * @return
+     */
+    public Map<Goal, Double> sharedFeatureDict() {
+        return null;
+    }
+
+    /**
+     * The functor/arity pairs of every head goal this component might
+     * claim, so that LogicProgram can dispatch a state straight to the
+     * components that might claim it.  Return null (the default) if the
+     * component decides claims some other way; such a component is asked
+     * about every state.
+     *
+     * @return
+     */
+    public Collection<GoalComponent.FunctorArityKey> claimedSignatures() {
+        return null;
+    }
+
+    /**
+     * Call when this component starts claiming a signature it didn't
+     * before, so that programs using it rebuild their claim index.
+     */
+    protected synchronized void signaturesChanged() {
+        this.signatureChanges++;
+    }
+
+    int getSignatureChanges() {
+        return this.signatureChanges;
+    }
+
+    /**
+     * As claim(state), for a non-solution state whose head goal has one
+     * of claimedSignatures().  Override to skip whatever claim(state)
+     * would check again.
+     *
+     * @param state
+     * @return
+     */
+    public boolean claimMatched(LogicProgramState state) {
+        return this.claim(state);
+    }
+
     public static Component[] loadComponents(String[] programFiles, double alpha, Configuration c) {
         HashMap<String, List<String>> args = new HashMap<String, List<String>>();
 
@@ -106,53 +206,84 @@ public abstract class Component {
             }
         }
 
-        // determine final Component[] size
-        int nComponents = args.size();
-        if (args.containsKey(SparseGraphComponent.FILE_EXTENSION)) {
-            nComponents += args.get(SparseGraphComponent.FILE_EXTENSION).size() - 1;
-        }
-        Component[] result = new Component[nComponents];
-
-        // instantiate each type
-        int i = 0;
-        for (Map.Entry<String, List<String>> arg : args.entrySet()) {
-        	// one component for each sparsegraph
-            if (arg.getKey().equals(SparseGraphComponent.FILE_EXTENSION)) {
-                for (String fileName : arg.getValue()) {
-                    log.info("Loading from file '" + fileName + "' with alpha=" + alpha + " ...");
-                    result[i++] = SparseGraphComponent.load(fileName);
-                    result[i - 1].setAlpha(alpha);
-                }
-            } else {
-            	if (arg.getValue().size() > 1) {
-            		log.info("Consolidating all "+arg.getKey()+" components together");
-            	}
-            	
-            	// consolidate all other multiples in a single component of that type
-                if (arg.getKey().equals(GoalComponent.FILE_EXTENSION)) {
-                	if (c != null && c.ternaryIndex != null) result[i++] = GoalComponent.loadCompiled(arg.getValue(), c.ternaryIndex);
-                	else result[i++] = GoalComponent.loadCompiled(arg.getValue());
-                } else if (arg.getKey().equals(RuleComponent.FILE_EXTENSION)) {
-                    result[i++] = RuleComponent.loadCompiled(arg.getValue());
-                } else if (arg.getKey().equals(GraphComponent.FILE_EXTENSION)) {
-                    result[i++] = GraphComponent.load(arg.getValue());
-                } else if (arg.getKey().equals(TuprologComponent.UNCOMPILED_EXTENSION)) {
-                    // catches both compiled and uncompiled files,
-                    // which are separated inside the load method
-                    result[i++] = TuprologComponent.load(arg.getValue());
-                } else {
-                    throw new IllegalArgumentException("Bad programmer: added a file extension entry to Component without adding handling code");
-                }
-                result[i - 1].setAlpha(alpha);
+        Component[] result = new Component[args.size()];
 
-            	if (arg.getValue().size() > 1) {
-		    log.info("Consolidation complete");
-            	}
+        // instantiate each type, several at once
+        final int nthreads = (c != null && c.nthreads > 0) ? c.nthreads : Runtime.getRuntime().availableProcessors();
+        final Boolean ternaryIndex = c != null ? c.ternaryIndex : null;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nthreads, args.size())));
+        // one set of fact parsers for the whole load, kept apart from the loaders that wait on them
+        final ExecutorService parsers = nthreads > 1 ? Prover.newWorkerPool(nthreads, "Component-parser") : null;
+        List<Future<Component>> loading = new ArrayList<Future<Component>>();
+        for (final Map.Entry<String, List<String>> arg : args.entrySet()) {
+            loading.add(pool.submit(new Callable<Component>() {
+                @Override
+                public Component call() {
+                    return loadComponent(arg.getKey(), arg.getValue(), ternaryIndex, parsers, nthreads);
+                }
+            }));
+        }
+        // components keep the order of args, whichever finishes loading first
+        try {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = get(loading.get(i));
+                result[i].setAlpha(alpha);
             }
+        } finally {
+            pool.shutdownNow();
+            if (parsers != null) parsers.shutdownNow();
+        }
+        return result;
+    }
+
+    private static Component loadComponent(String extension, List<String> files, Boolean ternaryIndex, ExecutorService parsers, int nthreads) {
+        long start = System.currentTimeMillis();
+        if (files.size() > 1) {
+            log.info("Consolidating all "+extension+" components together");
+        }
+
+        Component result;
+        // consolidate all multiples in a single component of that type
+        if (extension.equals(GoalComponent.FILE_EXTENSION)) {
+            boolean useTernaryIndex = ternaryIndex != null ? ternaryIndex : GoalComponent.DEFAULT_INDICES;
+            if (parsers != null) result = GoalComponent.loadCompiled(files, useTernaryIndex, parsers, nthreads);
+            else result = GoalComponent.loadCompiled(files, useTernaryIndex);
+        } else if (extension.equals(RuleComponent.FILE_EXTENSION)) {
+            result = RuleComponent.loadCompiled(files);
+        } else if (extension.equals(GraphComponent.FILE_EXTENSION)) {
+            result = GraphComponent.load(files);
+        } else if (extension.equals(SparseGraphComponent.FILE_EXTENSION)) {
+            result = SparseGraphComponent.load(files);
+        } else if (extension.equals(TuprologComponent.UNCOMPILED_EXTENSION)) {
+            // catches both compiled and uncompiled files,
+            // which are separated inside the load method
+            result = TuprologComponent.load(files);
+        } else {
+            throw new IllegalArgumentException("Bad programmer: added a file extension entry to Component without adding handling code");
+        }
+
+        if (files.size() > 1) {
+            log.info("Consolidation complete");
         }
+        // other components may be loading too, so this is the whole heap, not just ours
+        Runtime rt = Runtime.getRuntime();
+        log.info("Loaded " + files.size() + " " + extension + " file(s) in " + (System.currentTimeMillis() - start)
+                + " ms; heap in use " + ((rt.totalMemory() - rt.freeMemory()) >> 20) + " MB");
         return result;
     }
 
+    private static Component get(Future<Component> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
     public String listing() {
         return "component <no string available>";
     }
@@ -1,12 +1,54 @@
 package edu.cmu.ml.praprolog.prove;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A constant. Every name gets one canonical ConstantArgument, with an id,
+ * from a pool shared by all components and threads; use intern() to get
+ * it. Constants compare equal by id, and hash as their names do.
+ */
 public class ConstantArgument extends Argument {
-    private String name;
+    private static final ConcurrentMap<String, ConstantArgument> pool = new ConcurrentHashMap<String, ConstantArgument>();
+    private static final AtomicInteger nextId = new AtomicInteger(0);
+    private final String name;
+    private final int id;
+    private final int hash;
 
-    public ConstantArgument(String s) {
+    /**
+     * @param s
+     * @return the canonical constant named s
+     */
+    public static ConstantArgument intern(String s) {
         if (s == null)
             throw new NullPointerException("name cannot be null");
+        ConstantArgument c = pool.get(s);
+        if (c != null) return c;
+        c = new ConstantArgument(s, nextId.getAndIncrement());
+        ConstantArgument first = pool.putIfAbsent(s, c);
+        return first == null ? c : first;
+    }
+
+    /**
+     * A copy of the canonical constant named s; intern(s) is cheaper.
+     *
+     * @param s
+     */
+    public ConstantArgument(String s) {
+        this(intern(s));
+    }
+
+    private ConstantArgument(ConstantArgument canonical) {
+        this.name = canonical.name;
+        this.id = canonical.id;
+        this.hash = canonical.hash;
+    }
+
+    private ConstantArgument(String s, int id) {
         this.name = s;
+        this.id = id;
+        this.hash = s.hashCode();
     }
 
     @Override
@@ -17,6 +59,29 @@ public class ConstantArgument extends Argument {
     @Override
     public String getName() { return name; }
 
+    /**
+     * @return the id of this constant's name in the pool
+     */
+    public int getId() { return id; }
+
+    @Override
+    public int compareTo(Argument a) {
+        if (a instanceof ConstantArgument && ((ConstantArgument) a).id == this.id) return 0;
+        return super.compareTo(a);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ConstantArgument)) return false;
+        return ((ConstantArgument) o).id == this.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     public String toString() {
         return "c[" + this.name + "]";
     }
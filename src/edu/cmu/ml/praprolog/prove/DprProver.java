@@ -1,9 +1,14 @@
 package edu.cmu.ml.praprolog.prove;
 
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 
 import org.apache.log4j.Logger;
 
@@ -24,6 +29,12 @@ public class DprProver extends Prover {
 	public static int BOOST_ALPHA = 2;
 	public static int THROW_ALPHA_ERRORS = 3;
 	public static final int STRATEGY_DEFAULT=THROW_ALPHA_ERRORS;
+	// push order
+	public static final int SCHEDULE_DFS = 1;
+	public static final int SCHEDULE_FIFO = 2;
+	public static final int SCHEDULE_PRIORITY = 3;
+	public static final int SCHEDULE_DEFAULT=SCHEDULE_DFS;
+	public static final String[] SCHEDULE_NAMES = {"dfs","fifo","priority"};
 	public static final double STAYPROB_DEFAULT = 0.0;
 	public static final double STAYPROB_LAZY = 0.5;
 	private final double epsilon;
@@ -32,6 +43,10 @@ public class DprProver extends Prover {
 	private final double stayProbability;
 	private final double moveProbability;
 	private final int minAlphaErrorStrategy;
+	private final int schedule;
+	// per-proof limits; 0 means no limit
+	private int maxPushes=0, maxStates=0;
+	private long maxMillis=0;
 	// for timing traces
 	private long start, last;
 	// for debug
@@ -39,7 +54,9 @@ public class DprProver extends Prover {
 
 	@Override
 	public String toString() { 
-		return String.format("dpr:%.6g:%g:%s", this.epsilon, this.minAlpha, new String[]{"adjust","boost","throw"}[minAlphaErrorStrategy-1]);
+		String s = String.format("dpr:%.6g:%g:%s", this.epsilon, this.minAlpha, new String[]{"adjust","boost","throw"}[minAlphaErrorStrategy-1]);
+		if (schedule != SCHEDULE_DEFAULT) s = s+":"+SCHEDULE_NAMES[schedule-1];
+		return s;
 		//return "dprprover(eps="+this.epsilon+", minAlpha="+this.minAlpha+", strat="+minAlphaErrorStrategy+")"; 
 	}
 
@@ -54,6 +71,9 @@ public class DprProver extends Prover {
 	public DprProver(double epsilon, double minalpha,int strat) {
 		this(false, epsilon, minalpha,strat);
 	}
+	public DprProver(double epsilon, double minalpha,int strat,int schedule) {
+		this(STAYPROB_DEFAULT, epsilon, minalpha, strat, schedule);
+	}
 	public DprProver(boolean lazyWalk, double epsilon, double minalpha) {
 		this( (lazyWalk?STAYPROB_LAZY:STAYPROB_DEFAULT),epsilon,minalpha,STRATEGY_DEFAULT);
 	}
@@ -64,6 +84,11 @@ public class DprProver extends Prover {
 		this( stayP,eps,mina,STRATEGY_DEFAULT);
 	}
 	protected DprProver(double stayP, double eps, double mina,int strat) {
+		this(stayP,eps,mina,strat,SCHEDULE_DEFAULT);
+	}
+	protected DprProver(double stayP, double eps, double mina,int strat,int schedule) {
+		if (schedule < SCHEDULE_DFS || schedule > SCHEDULE_PRIORITY) throw new IllegalArgumentException("Unknown push schedule "+schedule);
+		this.schedule = schedule;
 		this.epsilon = eps;
 		this.minAlpha = mina;
 		this.stayProbability = stayP;
@@ -72,16 +97,48 @@ public class DprProver extends Prover {
 	}
 
 	public Prover copy() {
-		return new DprProver(this.stayProbability, this.epsilon, this.minAlpha, this.minAlphaErrorStrategy);
+		DprProver copy = new DprProver(this.stayProbability, this.epsilon, this.minAlpha, this.minAlphaErrorStrategy, this.schedule);
+		copy.setLimits(this.maxPushes, this.maxStates, this.maxMillis);
+		return copy;
+	}
+
+	/**
+	 * Bound the work done for each query.  A proof that reaches any of
+	 * these limits stops pushing and returns the scores it has so far,
+	 * flagged as truncated.
+	 * @param maxPushes maximum number of pushes; 0 for no limit
+	 * @param maxStates stop once this many states have been reached; 0 for no limit
+	 * @param maxMillis wall-clock time allowed per query, in msec; 0 for no limit
+	 */
+	public void setLimits(int maxPushes, int maxStates, long maxMillis) {
+		this.maxPushes = maxPushes;
+		this.maxStates = maxStates;
+		this.maxMillis = maxMillis;
+	}
+	public int getMaxPushes() {
+		return this.maxPushes;
+	}
+	public int getMaxStates() {
+		return this.maxStates;
+	}
+	public long getMaxMillis() {
+		return this.maxMillis;
 	}
 
 	@Override
-	public Map<LogicProgramState, Double> proveState(LogicProgram lp, LogicProgramState state0, GraphWriter gw) {
+	public Map<LogicProgramState, Double> proveState(LogicProgram program, LogicProgramState state0, GraphWriter gw) {
+		return this.prove(program, state0, gw, 0).getScores();
+	}
 
-		Map<LogicProgramState,Double> p = new HashMap<LogicProgramState,Double>();
-		Map<LogicProgramState,Double> r = new HashMap<LogicProgramState,Double>();
-		r.put(state0, 1.0);
-		Map<LogicProgramState,Integer> deg = new HashMap<LogicProgramState,Integer>();
+	@Override
+	public ProofResult prove(LogicProgram program, LogicProgramState state0, GraphWriter gw, int topk) {
+		// expand each state at most once per query
+		CachingLogicProgram lp = new CachingLogicProgram(program);
+		lp.setListener(this.listener);
+		if (this.listener != null) this.listener.startProof(state0);
+		StateTable table = new StateTable();
+		int id0 = table.intern(state0);
+		table.setResidual(id0, 1.0);
 		boolean trueLoop=true, restart=false;
 		int d=-1;
 		try {
@@ -89,121 +146,369 @@ public class DprProver extends Prover {
 		} catch (LogicProgramException e) {
 			throw new IllegalStateException(e);
 		}
-		deg.put(state0,d);
+		table.setDegree(id0,d);
+		Budget budget = new Budget(topk > 0 ? new TopK(topk) : null);
 		backtrace.start();
 		int numPushes = 0;
 		int numIterations = 0;
 		for(int pushCounter = 0; ;) {
 			start = last = System.currentTimeMillis();
-			pushCounter = this.dfsPushes(lp,p,r,deg,state0,gw,0);
+			if (schedule == SCHEDULE_DFS) pushCounter = this.dfsPushes(lp,table,id0,gw,budget);
+			else pushCounter = this.queuePushes(lp,table,id0,gw,budget);
 			numIterations++;
-			if(log.isInfoEnabled()) log.info("Iteration: "+numIterations+" pushes: "+pushCounter+" r-states: "+r.size()+" p-states: "+p.size());
-			if(pushCounter==0) break;
+			if(log.isInfoEnabled()) log.info("Iteration: "+numIterations+" pushes: "+pushCounter+" r-states: "+table.size()+" p-states: "+table.numScored());
 			numPushes+=pushCounter;
+			if(pushCounter==0) break;
+			if (ProofResult.TOPK.equals(budget.stoppedBy)) {
+				if(log.isInfoEnabled()) log.info("top "+topk+" solutions certified after "+numPushes+" pushes");
+				break;
+			} else if (budget.stoppedBy != null) {
+				log.warn("Proof of "+state0+" truncated at "+budget.stoppedBy+" limit after "+numPushes+" pushes, "
+						+table.size()+" states; residual "+table.totalResidual());
+				break;
+			}
 		}
-		if(log.isInfoEnabled()) log.info("total iterations "+numIterations+" total pushes "+numPushes);
-		return p;
+		if(log.isInfoEnabled()) log.info("total iterations "+numIterations+" total pushes "+numPushes+"; "+lp.cacheStatistics());
+		ProofResult result = new ProofResult(table.scoreMap(), table.totalResidual(), budget.stoppedBy, numPushes);
+		if (this.listener != null) this.listener.endProof(result, table.size(), table.peakResidual());
+		return result;
 	}
 
-	private int dfsPushes(LogicProgram lp, Map<LogicProgramState,Double> p, Map<LogicProgramState, Double> r,
-			Map<LogicProgramState, Integer> deg, LogicProgramState u, GraphWriter gw, int pushCounter) {
-		if (r.get(u) / deg.get(u) > epsilon) {
-			backtrace.push(u);
-			if (log.isInfoEnabled()) {
-				long now = System.currentTimeMillis(); 
-				if (now - last > 1000) {
-					log.info("push "+pushCounter+"->"+(pushCounter+1)+" "+r.size()+" r-states u "+u);
-					last = now;
+	/**
+	 * The reasons a single proof may stop before the residual is
+	 * exhausted: the top-k solutions are certain, or one of the
+	 * configured limits has been hit.  Counts pushes across iterations.
+	 */
+	private class Budget {
+		final TopK top;
+		final long deadline;
+		int pushes=0;
+		/** why we stopped, one of the ProofResult constants; null if we haven't */
+		String stoppedBy=null;
+		Budget(TopK top) {
+			this.top = top;
+			this.deadline = maxMillis > 0 ? System.currentTimeMillis() + maxMillis : 0;
+		}
+
+		/** Count a push, and @return true if we must stop pushing */
+		boolean push(StateTable table) {
+			pushes++;
+			if (maxPushes > 0 && pushes >= maxPushes) stoppedBy = ProofResult.MAX_PUSHES;
+			else if (maxStates > 0 && table.size() >= maxStates) stoppedBy = ProofResult.MAX_STATES;
+			else if (deadline > 0 && System.currentTimeMillis() >= deadline) stoppedBy = ProofResult.DEADLINE;
+			else if (top != null && top.push(table)) stoppedBy = ProofResult.TOPK;
+			return stoppedBy != null;
+		}
+	}
+
+	/**
+	 * Tracks whether the order of the top k solutions can still change.
+	 *
+	 * No state's score can grow by more than the total residual R, so
+	 * the order of the k best solutions found so far is final once each
+	 * of them leads the next by at least R, the k-th leading the
+	 * (k+1)-th, or any solution not found yet.  Checking means scanning
+	 * the whole table, so we check after a number of pushes proportional
+	 * to its size.
+	 */
+	static class TopK {
+		static final int MIN_CHECK_INTERVAL = 100;
+		final int k;
+		int pushesToCheck = MIN_CHECK_INTERVAL;
+		boolean certified = false;
+		TopK(int k) { this.k = k; }
+
+		/** Count a push, and @return true if we can stop pushing */
+		boolean push(StateTable table) {
+			if (--pushesToCheck > 0) return false;
+			pushesToCheck = Math.max(MIN_CHECK_INTERVAL, table.size());
+			Map<String,Double> solutions = new HashMap<String,Double>();
+			for (int i=0; i<table.size(); i++) {
+				LogicProgramState s = table.getState(i);
+				if (s.isSolution() && table.getScore(i) > 0) Dictionary.increment(solutions, s.description(), table.getScore(i), "(elided)");
+			}
+			this.certified = certain(solutions.values(), k, table.totalResidual());
+			return this.certified;
+		}
+
+		/** @return true if the order of the k best of these solution scores can't change with this much residual left */
+		static boolean certain(Collection<Double> solutionScores, int k, double residual) {
+			if (solutionScores.size() < k) return false;
+			double[] scores = new double[solutionScores.size()];
+			int i=0;
+			for (Double w : solutionScores) scores[i++] = w;
+			Arrays.sort(scores);
+			// scores is ascending; walk down from the best
+			for (int j=scores.length-1; j>=scores.length-k; j--) {
+				double next = j>0 ? scores[j-1] : 0.0;
+				if (scores[j] - next < residual) return false;
+			}
+			return true;
+		}
+	}
+
+	private boolean pushable(StateTable table, int id) {
+		return table.getResidual(id) / table.getDegree(id) > epsilon;
+	}
+
+	/** A pushed state, and the children we have yet to visit in depth-first order. */
+	private static class Frame {
+		final LogicProgramState u;
+		final List<LogicProgramOutlink> outs;
+		final int[] children;
+		final int restart;
+		int next=0;
+		Frame(LogicProgramState u, List<LogicProgramOutlink> outs, int[] children, int restart) {
+			this.u = u; this.outs = outs; this.children = children; this.restart = restart;
+		}
+	}
+
+	/**
+	 * Depth-first push order, as a recursive prover would do it:
+	 * after a state is pushed, each of its children is visited (and
+	 * pushed, if its residual is large enough) before the next sibling.
+	 * The path from the start state is kept on an explicit stack, so
+	 * deep proofs don't overflow the thread's call stack.
+	 * @return number of pushes performed
+	 */
+	private int dfsPushes(LogicProgram lp, StateTable table, int id0, GraphWriter gw, Budget budget) {
+		int pushCounter = 0;
+		LinkedList<Frame> stack = new LinkedList<Frame>();
+		int uid = id0;
+		while(true) {
+			if (pushable(table,uid)) {
+				pushCounter++;
+				Frame f = push(lp,table,uid,gw,pushCounter);
+				if (f != null) stack.push(f);
+				if (budget.push(table)) {
+					// finish the graph for the states we pushed
+					while (!stack.isEmpty()) {
+						f = stack.pop();
+						if (gw != null) for (; f.next < f.children.length; f.next++)
+							gw.writeEdge(f.u, f.outs.get(f.next).getState(), f.outs.get(f.next).getFeatureList());
+						backtrace.pop(f.u);
+					}
+					return pushCounter;
 				}
-				if (log.isDebugEnabled()) log.debug("PUSHPATH include "+(pushCounter+1)+" "+u);
+			} else {
+				if (log.isDebugEnabled()) log.debug("PUSHPATH exclude "+(pushCounter+1)+" "+table.getState(uid));
 			}
-			pushCounter += 1;
-			double ru = r.get(u);
-			LogicProgramOutlink restart;
-			try {
-				restart = lp.lpRestartWeight(u,true); // trueLoop
-				if (log.isDebugEnabled()) log.debug("restart weight for pushlevel "+pushCounter);
-				double unNormalizedAlpha = restart.getWeight();
-
-				List<LogicProgramOutlink> outs = lp.lpOutlinks(u,true,false); // trueloop, restart
-				double z= unNormalizedAlpha; 
-				double m=0.0;
-				for (LogicProgramOutlink o : outs) {
-					z += o.getWeight();
-					m = Math.max(m,o.getWeight());
+			// find the next unvisited child, popping finished states
+			uid = -1;
+			while (!stack.isEmpty()) {
+				Frame f = stack.peek();
+				if (f.next < f.children.length) {
+					if (gw != null) gw.writeEdge(f.u, f.outs.get(f.next).getState(), f.outs.get(f.next).getFeatureList());
+					uid = f.children[f.next++];
+					break;
 				}
+				stack.pop();
+				backtrace.pop(f.u);
+			}
+			if (uid < 0) return pushCounter;
+		}
+	}
 
-				double localAlpha = unNormalizedAlpha / z;
-
-				if (localAlpha < this.minAlpha) {
-					log.warn("minAlpha problem, strategy="+minAlphaErrorStrategy);
-					if (minAlphaErrorStrategy==ADJUST_ALPHA) {
-						log.warn("decreasing minAlpha from "+minAlpha+" to "+localAlpha);
-						this.minAlpha = localAlpha;
-					} else if (minAlphaErrorStrategy==BOOST_ALPHA) {
-						// figure out how much we need to increment the unNormalizedAlpha to get to minAlpha
-						if (log.isDebugEnabled()) {
-							log.debug("minAlpha issue: minAlpha="+this.minAlpha+" localAlpha="+localAlpha
-									+" max outlink weight="+m+"; numouts="+outs.size()+"; unAlpha="+restart.getWeight()+"; z="+z);
-						}
-						// figure out how much to boost
-						double nonresetWeightSum = z - unNormalizedAlpha;
-						double amountToBoost = (this.minAlpha*(nonresetWeightSum + unNormalizedAlpha) - unNormalizedAlpha)/(1.0 - this.minAlpha);
-						z += amountToBoost;
-						unNormalizedAlpha += amountToBoost;
-						localAlpha = unNormalizedAlpha/z;
-						log.warn("boosted to localAlpha="+localAlpha+"; unAlpha="+unNormalizedAlpha+"; z="+z);
-					} else {
-						log.warn("max outlink weight="+m+"; numouts="+outs.size()+"; unAlpha="+restart.getWeight()+"; z="+z);
-						log.warn("ru="+ru+"; degu="+deg.get(u)+"; u="+u);
-						throw new MinAlphaException(minAlpha,localAlpha,u);
+	/**
+	 * Queue-driven push order: FIFO (as in Andersen, Chung and Lang's
+	 * local pagerank algorithm) or largest r/deg first.  A state goes on
+	 * the queue whenever its residual crosses epsilon, so when the queue
+	 * empties there is nothing left to push.
+	 * @return number of pushes performed
+	 */
+	private int queuePushes(LogicProgram lp, StateTable table, int id0, GraphWriter gw, Budget budget) {
+		int pushCounter = 0;
+		PushQueue queue = schedule == SCHEDULE_FIFO ? new FifoPushQueue() : new PriorityPushQueue();
+		if (pushable(table,id0)) queue.add(table, id0);
+		while (!queue.isEmpty()) {
+			int uid = queue.poll(table);
+			if (uid < 0) break;
+			if (!pushable(table,uid)) continue;
+			pushCounter++;
+			Frame f = push(lp,table,uid,gw,pushCounter);
+			if (f == null) {
+				if (budget.push(table)) break;
+				continue;
+			}
+			for (int i=0; i<f.children.length; i++) {
+				if (gw != null) gw.writeEdge(f.u, f.outs.get(i).getState(), f.outs.get(i).getFeatureList());
+				if (pushable(table,f.children[i])) queue.add(table, f.children[i]);
+			}
+			if (pushable(table,f.restart)) queue.add(table, f.restart);
+			// with a lazy walk some residual stays behind
+			if (pushable(table,uid)) queue.add(table, uid);
+			backtrace.pop(f.u);
+			if (budget.push(table)) break;
+		}
+		return pushCounter;
+	}
+
+	private interface PushQueue {
+		public void add(StateTable table, int id);
+		/** @return the next state to push, or -1 if there is none */
+		public int poll(StateTable table);
+		public boolean isEmpty();
+	}
+	private static class FifoPushQueue implements PushQueue {
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		BitSet queued = new BitSet();
+		public void add(StateTable table, int id) {
+			if (queued.get(id)) return;
+			queued.set(id);
+			queue.add(id);
+		}
+		public int poll(StateTable table) {
+			int id = queue.poll();
+			queued.clear(id);
+			return id;
+		}
+		public boolean isEmpty() { return queue.isEmpty(); }
+	}
+	/**
+	 * Max-heap on r/deg.  Rather than re-keying a state when its residual
+	 * changes we add another entry, and skip entries whose priority is out
+	 * of date when they come up.
+	 */
+	private static class PriorityPushQueue implements PushQueue {
+		private static class Entry implements Comparable<Entry> {
+			final int id; final double priority;
+			Entry(int id, double priority) { this.id = id; this.priority = priority; }
+			public int compareTo(Entry o) {
+				int c = Double.compare(o.priority, this.priority);
+				if (c != 0) return c;
+				return this.id - o.id;
+			}
+		}
+		PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+		private static double priority(StateTable table, int id) {
+			return table.getResidual(id) / table.getDegree(id);
+		}
+		public void add(StateTable table, int id) {
+			queue.add(new Entry(id, priority(table,id)));
+		}
+		public int poll(StateTable table) {
+			while (!queue.isEmpty()) {
+				Entry e = queue.poll();
+				if (e.priority == priority(table,e.id)) return e.id;
+			}
+			return -1;
+		}
+		public boolean isEmpty() { return queue.isEmpty(); }
+	}
+
+	/**
+	 * Push state uid: move minAlpha of its residual into its score and
+	 * spread the rest over its outlinks and the restart link.
+	 * @return the pushed state and the ids of its children (still on the
+	 * backtrace), or null if the state could not be expanded.
+	 */
+	private Frame push(LogicProgram lp, StateTable table, int uid, GraphWriter gw, int pushCounter) {
+		LogicProgramState u = table.getState(uid);
+		backtrace.push(u);
+		if (log.isInfoEnabled()) {
+			long now = System.currentTimeMillis(); 
+			if (now - last > 1000) {
+				log.info("push "+(pushCounter-1)+"->"+pushCounter+" "+table.size()+" r-states u "+u);
+				last = now;
+			}
+			if (log.isDebugEnabled()) log.debug("PUSHPATH include "+pushCounter+" "+u);
+		}
+		double ru = table.getResidual(uid);
+		if (this.listener != null) this.listener.push(u, ru, table.getDegree(uid));
+		LogicProgramOutlink restart;
+		try {
+			restart = lp.lpRestartWeight(u,true); // trueLoop
+			if (log.isDebugEnabled()) log.debug("restart weight for pushlevel "+pushCounter);
+			double unNormalizedAlpha = restart.getWeight();
+
+			List<LogicProgramOutlink> outs = lp.lpOutlinks(u,true,false); // trueloop, restart
+			double z= unNormalizedAlpha; 
+			double m=0.0;
+			for (LogicProgramOutlink o : outs) {
+				z += o.getWeight();
+				m = Math.max(m,o.getWeight());
+			}
+
+			double localAlpha = unNormalizedAlpha / z;
+
+			if (localAlpha < this.minAlpha) {
+				log.warn("minAlpha problem, strategy="+minAlphaErrorStrategy);
+				if (minAlphaErrorStrategy==ADJUST_ALPHA) {
+					log.warn("decreasing minAlpha from "+minAlpha+" to "+localAlpha);
+					if (this.listener != null) this.listener.adjustAlpha(this.minAlpha, localAlpha);
+					this.minAlpha = localAlpha;
+				} else if (minAlphaErrorStrategy==BOOST_ALPHA) {
+					// figure out how much we need to increment the unNormalizedAlpha to get to minAlpha
+					if (log.isDebugEnabled()) {
+						log.debug("minAlpha issue: minAlpha="+this.minAlpha+" localAlpha="+localAlpha
+								+" max outlink weight="+m+"; numouts="+outs.size()+"; unAlpha="+restart.getWeight()+"; z="+z);
 					}
+					// figure out how much to boost
+					double nonresetWeightSum = z - unNormalizedAlpha;
+					double amountToBoost = (this.minAlpha*(nonresetWeightSum + unNormalizedAlpha) - unNormalizedAlpha)/(1.0 - this.minAlpha);
+					z += amountToBoost;
+					unNormalizedAlpha += amountToBoost;
+					localAlpha = unNormalizedAlpha/z;
+					log.warn("boosted to localAlpha="+localAlpha+"; unAlpha="+unNormalizedAlpha+"; z="+z);
+				} else {
+					log.warn("max outlink weight="+m+"; numouts="+outs.size()+"; unAlpha="+restart.getWeight()+"; z="+z);
+					log.warn("ru="+ru+"; degu="+table.getDegree(uid)+"; u="+u);
+					throw new MinAlphaException(minAlpha,localAlpha,u);
 				}
-				Dictionary.increment(p,u,minAlpha * ru,"(elided)");
-				r.put(u, r.get(u) * stayProbability * (1.0-minAlpha));
+			}
+			table.incrementScore(uid, minAlpha * ru);
+			table.setResidual(uid, table.getResidual(uid) * stayProbability * (1.0-minAlpha));
 
-				for (LogicProgramOutlink o : outs) {
-					if (log.isDebugEnabled()) log.debug("PUSHPATH candidate "+(pushCounter+1)+" "+u+" -> "+o.getState());
-					includeState(o,r,deg,z,ru,lp);
-				}
-				// include the reset state with weight (alph - minAlpha):
-				restart.weight = z * (localAlpha - minAlpha);
-				includeState(restart,r,deg,z,ru,lp);
-
-				if (gw!=null) gw.writeEdge(u, u.restart(), restart.getFeatureList());
-				for (LogicProgramOutlink o : outs) {
-					if (gw != null) gw.writeEdge(u, o.getState(), o.getFeatureList());
-					// current pushcounter is passed down, gets incremented and returned, and 
-					// on the next for loop iter is passed down again...
-					pushCounter = this.dfsPushes(lp,p,r,deg,o.getState(),gw,pushCounter);
-				}
-			} catch (LogicProgramException e) {
-				backtrace.print(e);
+			int[] children = new int[outs.size()];
+			int i=0;
+			for (LogicProgramOutlink o : outs) {
+				if (log.isDebugEnabled()) log.debug("PUSHPATH candidate "+(pushCounter+1)+" "+u+" -> "+o.getState());
+				children[i++] = includeState(o,table,z,ru,lp);
 			}
-			backtrace.pop(u);
-		} else {
-			if (log.isDebugEnabled()) log.debug("PUSHPATH exclude "+(pushCounter+1)+" "+u);
+			// include the reset state with weight (alph - minAlpha):
+			// (the restart link is shared across the query, so we leave its weight alone)
+			double restartWeight = z * (localAlpha - minAlpha);
+			if (this.listener != null) this.listener.restart(u, restartWeight);
+			int rid = includeState(restart.getState(),restartWeight,table,z,ru,lp);
+
+			if (gw!=null) gw.writeEdge(u, restart.getState(), restart.getFeatureList());
+			return new Frame(u, outs, children, rid);
+		} catch (LogicProgramException e) {
+			backtrace.print(e);
 		}
-		return pushCounter;
+		backtrace.pop(u);
+		return null;
 	}
-	private void includeState(LogicProgramOutlink o, Map<LogicProgramState, Double> r,
-			Map<LogicProgramState, Integer> deg, double z, double ru, LogicProgram lp) throws LogicProgramException {
-		backtrace.push(o.getState());
+	/**
+	 * Add the share of ru that travels along outlink o to the residual of
+	 * o's state, computing that state's degree if it is new.
+	 * @return the id of o's state
+	 */
+	private int includeState(LogicProgramOutlink o, StateTable table, double z, double ru, LogicProgram lp) throws LogicProgramException {
+		return includeState(o.getState(),o.getWeight(),table,z,ru,lp);
+	}
+	/** As includeState(o,...), for an outlink to state v with weight w. */
+	private int includeState(LogicProgramState v, double w, StateTable table, double z, double ru, LogicProgram lp) throws LogicProgramException {
+		backtrace.push(v);
 
-		boolean followup = !r.containsKey(o.getState());
-		double old = Dictionary.safeGet(r, o.getState());
-		Dictionary.increment(r, o.getState(), moveProbability * (o.getWeight() / z) * ru,"(elided)");
+		int vid = table.intern(v);
+		boolean followup = !table.hasDegree(vid);
+		table.incrementResidual(vid, moveProbability * (w / z) * ru);
 		if(followup) {
 			try {
-				int degree = lp.lpDegree(o.getState(),true,true);
-				deg.put(o.getState(),degree); // trueloop, restart
+				int degree = lp.lpDegree(v,true,true);
+				table.setDegree(vid,degree); // trueloop, restart
 			} catch (LogicProgramException e) {
 				backtrace.print(e);
 			}
 		}
-		if (deg.get(o.getState()) == 0)
-			throw new LogicProgramException("Zero degree for "+o.getState());
-		backtrace.pop(o.getState());
+		if (table.getDegree(vid) == 0)
+			throw new LogicProgramException("Zero degree for "+v);
+		backtrace.pop(v);
+		return vid;
+	}
+	public int getSchedule() {
+		return this.schedule;
 	}
 	public double getAlpha() {
 		return this.minAlpha;
@@ -1,22 +1,141 @@
 package edu.cmu.ml.praprolog.prove;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import edu.cmu.ml.praprolog.learn.tools.WeightingScheme;
 
+/**
+ * Turns the feature dict of an edge into the weight of that edge.
+ *
+ * Weights are kept compiled: each feature with a weight gets an integer
+ * id, and theta[id] holds its weight, so weighting a feature costs one
+ * lookup of its id.  Feature dicts which are shared by many edges (see
+ * Component.sharedFeatureDict) can be compiled once into ids and values
+ * with compile(), after which w(CompiledFeatureDict) doesn't touch a
+ * Goal at all.
+ *
+ * The ids are built from weights the first time a dict is weighted; after
+ * that, change weights only with put().
+ */
 public abstract class FeatureDictWeighter {
 	protected Map<Goal,Double> weights = new HashMap<Goal,Double>();
 	protected WeightingScheme weightingScheme;
+	// built from weights the first time we need them, and replaced (never
+	// modified) when features are added, so that readers needn't lock.
+	// theta is always replaced first, so it covers every id in featureIds.
+	private volatile Map<Goal,Integer> featureIds = null;
+	private volatile double[] theta;
 	public FeatureDictWeighter(WeightingScheme ws) {
 		this.weightingScheme = ws;
 	}
-	public void put(Goal goal, double i) {
+	public synchronized void put(Goal goal, double i) {
 		weights.put(goal,i);
+		if (this.featureIds == null) return;
+		Integer id = this.featureIds.get(goal);
+		if (id != null) this.theta[id] = i;
+		else this.addFeatures(new Goal[] {goal}, new double[] {i});
 	}
 	public abstract double w(Map<Goal, Double> featureDict);
 	public String listing() {
 		return "feature dict weighter <no string available>";
 	}
 
+	/** A feature dict, as feature ids and their values */
+	public static class CompiledFeatureDict {
+		final int[] ids;
+		final double[] values;
+		CompiledFeatureDict(int[] ids, double[] values) {
+			this.ids = ids;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * Compile featureDict against this weighter's feature ids.  Features
+	 * without a weight get one now (the default weight), so only compile
+	 * dicts which are used over and over.
+	 * @param featureDict
+	 * @return
+	 */
+	public synchronized CompiledFeatureDict compile(Map<Goal,Double> featureDict) {
+		this.compileWeights();
+		Goal[] features = new Goal[featureDict.size()];
+		double[] values = new double[featureDict.size()];
+		int i=0;
+		for (Map.Entry<Goal,Double> e : featureDict.entrySet()) {
+			features[i] = e.getKey();
+			values[i++] = e.getValue();
+		}
+		double[] defaults = new double[features.length];
+		for (i=0; i<features.length; i++) {
+			defaults[i] = this.weightingScheme.defaultWeight();
+			if (!this.featureIds.containsKey(features[i])) this.unknownFeature(features[i]);
+		}
+		this.addFeatures(features, defaults);
+		int[] ids = new int[features.length];
+		for (i=0; i<features.length; i++) ids[i] = this.featureIds.get(features[i]);
+		return new CompiledFeatureDict(ids, values);
+	}
+
+	/** As w(featureDict), for a dict compiled by this weighter. */
+	public double w(CompiledFeatureDict featureDict) {
+		double[] theta = this.theta;
+		double sum = 0.0;
+		for (int i=0; i<featureDict.ids.length; i++) sum += theta[featureDict.ids[i]] * featureDict.values[i];
+		return this.weightingScheme.edgeWeightFunction(sum);
+	}
+
+	/**
+	 * The inner product of the weights with featureDict, with unknown
+	 * features weighted by the weighting scheme's default.
+	 */
+	protected double innerProduct(Map<Goal,Double> featureDict) {
+		if (this.featureIds == null) this.compileWeights();
+		// featureIds first: theta is at least as new
+		Map<Goal,Integer> ids = this.featureIds;
+		double[] theta = this.theta;
+		double sum = 0.0;
+		for (Map.Entry<Goal,Double> e : featureDict.entrySet()) {
+			Integer id = ids.get(e.getKey());
+			if (id == null) {
+				this.unknownFeature(e.getKey());
+				sum += this.weightingScheme.defaultWeight() * e.getValue();
+			} else sum += theta[id] * e.getValue();
+		}
+		return sum;
+	}
+
+	/** Called for each feature that has no weight, as it is weighted. */
+	protected void unknownFeature(Goal feature) {}
+
+	private synchronized void compileWeights() {
+		if (this.featureIds != null) return;
+		Map<Goal,Integer> ids = new HashMap<Goal,Integer>();
+		double[] t = new double[Math.max(this.weights.size(), 1)];
+		for (Map.Entry<Goal,Double> e : this.weights.entrySet()) {
+			t[ids.size()] = e.getValue();
+			ids.put(e.getKey(), ids.size());
+		}
+		this.theta = t;
+		this.featureIds = ids;
+	}
+
+	/** Give an id to each of features which doesn't have one, with the matching weight in w. */
+	private void addFeatures(Goal[] features, double[] w) {
+		Map<Goal,Integer> ids = null;
+		double[] t = this.theta;
+		for (int i=0; i<features.length; i++) {
+			if ((ids == null ? this.featureIds : ids).containsKey(features[i])) continue;
+			if (ids == null) ids = new HashMap<Goal,Integer>(this.featureIds);
+			int id = ids.size();
+			if (id >= t.length) t = Arrays.copyOf(t, 2*t.length);
+			t[id] = w[i];
+			ids.put(features[i], id);
+		}
+		if (ids == null) return;
+		this.theta = t;
+		this.featureIds = ids;
+	}
 }
@@ -12,12 +12,11 @@ import org.apache.log4j.Logger;
 public class Goal implements Comparable<Goal> {
 
     private static final Logger log = Logger.getLogger(Goal.class);
-    private static final String HARD_INDICATOR = "+";
+    static final String HARD_INDICATOR = "+";
     protected String functor;
     protected Argument[] args;
     protected int hashcode;
     protected String name = "";
-    protected String argString;
     protected boolean hardGoal = false;
     private boolean isCompiled = false;
 
@@ -56,16 +55,13 @@ public class Goal implements Comparable<Goal> {
     }
 
     /**
-     * (internal) set up hashcode and argstring *
+     * (internal) set up hashcode *
      */
     protected void freeze() {
         hashcode = functor.hashCode();
-        StringBuilder sb = new StringBuilder();
         for (Argument a : args) {
             hashcode += a.hashCode();
-            sb.append(",").append(a.toString());
         }
-        this.argString = sb.toString();
     }
 
     public String getFunctor() {
@@ -131,15 +127,15 @@ public class Goal implements Comparable<Goal> {
     public boolean isCompiled() { return isCompiled; }
 
     @Override
-    public boolean equals(Object o) { // FIXME probably slow
+    public boolean equals(Object o) {
         if (!(o instanceof Goal)) return false;
         Goal g = (Goal) o;
         if (this.hashCode() != g.hashCode()) return false;
         if (!this.functor.equals(g.functor)) return false;
         if (this.args.length != g.args.length) return false;
-        if (!this.argString.equals(g.argString)) return false;
-//		for (int i=0; i<this.args.length; i++) 
-//			if (! this.args[i].equals(g.args[i])) return false;
+        // constants compare by pool id, variables by index
+        for (int i = 0; i < this.args.length; i++)
+            if (!this.args[i].equals(g.args[i])) return false;
         return true;
     }
 
@@ -182,7 +178,7 @@ public class Goal implements Comparable<Goal> {
             if (ithArgStringIsANumber && a < 0) {
                 args[i] = new VariableArgument(a);
             } else {
-                args[i] = new ConstantArgument(argstrings[i]);
+                args[i] = ConstantArgument.intern(argstrings[i]);
             }
         }
         return new Goal(functor_args[0].trim(), args);
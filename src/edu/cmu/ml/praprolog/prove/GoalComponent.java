@@ -1,27 +1,49 @@
 package edu.cmu.ml.praprolog.prove;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 
 import edu.cmu.ml.praprolog.prove.Argument;
-import edu.cmu.ml.praprolog.util.Dictionary;
 import edu.cmu.ml.praprolog.util.ParsedFile;
 import edu.cmu.ml.praprolog.util.SymbolTable;
 
+/**
+ * A database of ground facts.
+ *
+ * Facts are stored column by column: each functor/arity gets a table
+ * holding, for each argument position, an array of constant ids.  The
+ * indexes on the first argument, the second, and both are arrays of fact
+ * numbers sorted by those columns, so a lookup is a binary search.  Goal
+ * objects are only built for the facts an outlinks() call returns.
+ */
 public class GoalComponent extends Component {
 	private static final Logger log = Logger.getLogger(GoalComponent.class);
 	public static final String FILE_EXTENSION=".cfacts";
 	public static final boolean DEFAULT_INDICES=false;
+	private static final int INITIAL_CAPACITY=4;
+	// lines per parsing task when loading on several threads
+	private static final int PARSE_CHUNK=10000;
 	protected Map<Goal,Double> featureDict = new HashMap<Goal,Double>();
-	protected Map<FunctorArityKey,List<Goal>> indexF = new HashMap<FunctorArityKey,List<Goal>>();
-	protected Map<FunctorArityArgKey,List<Goal>> indexFA1 = new HashMap<FunctorArityArgKey,List<Goal>>();
-	protected Map<FunctorArityArgKey,List<Goal>> indexFA2 = new HashMap<FunctorArityArgKey,List<Goal>>();
-	protected Map<FunctorArityArg1Arg2Key,List<Goal>> indexFA1A2 = new HashMap<FunctorArityArg1Arg2Key,List<Goal>>();
+	protected Map<FunctorArityKey,FactTable> tables = new HashMap<FunctorArityKey,FactTable>();
+	// constant names, interned to ids shared by every table
+	protected Map<String,Integer> constantIds = new HashMap<String,Integer>();
+	protected ConstantArgument[] constants = new ConstantArgument[INITIAL_CAPACITY];
+	// what each constant becomes in a fact: itself, unless compile() made it a variable
+	protected Argument[] arguments = new Argument[INITIAL_CAPACITY];
+	protected int numConstants = 0;
 	// collected stats on how various indexes are used....
 	int numUsesGoalsMatching = 0;
 	int numUsesIndexF = 0;
@@ -36,6 +58,11 @@ public class GoalComponent extends Component {
 	public GoalComponent(String label) {
 		this(label,DEFAULT_INDICES);
 	}
+	/**
+	 * @param label
+	 * @param useTernaryIndex also index facts of arity 3 or more on their
+	 * second argument, and on their first two arguments together
+	 */
 	public GoalComponent(String label, boolean useTernaryIndex) {
 		label = Component.cleanLabel(label);
 		featureDict.put(new Goal("db",label), 1.0);
@@ -54,62 +81,145 @@ public class GoalComponent extends Component {
 		}
 
 		FunctorArityKey keyf = new FunctorArityKey(goal.getFunctor(), goal.getArity());
-		FunctorArityArgKey keyfa1 = new FunctorArityArgKey(goal.getFunctor(), goal.getArity(), goal.getArg(0));
+		FactTable table = this.tables.get(keyf);
+		if (table == null) {
+			table = new FactTable(goal.getFunctor(), goal.getArity());
+			this.tables.put(keyf, table);
+			signaturesChanged();
+		}
+		int[] ids = new int[goal.getArity()];
+		for (int a=0; a<ids.length; a++) ids[a] = this.intern(goal.getArg(a).getName());
+		table.add(ids, goal.isHard());
+	}
 
-		Dictionary.safeAppend(this.indexF, keyf, goal);
-		Dictionary.safeAppend(this.indexFA1, keyfa1, goal);
-		if (useTernaryIndex && goal.getArity() > 2) {
-			FunctorArityArgKey keyfa2 = new FunctorArityArgKey(goal.getFunctor(), goal.getArity(), goal.getArg(1));
-			Dictionary.safeAppend(this.indexFA2, keyfa2, goal);
-			FunctorArityArg1Arg2Key keyfa1a2 = new FunctorArityArg1Arg2Key(goal.getFunctor(), goal.getArity(), goal.getArg(0), goal.getArg(1));
-			Dictionary.safeAppend(this.indexFA1A2, keyfa1a2, goal);
+	private int intern(String name) {
+		Integer id = this.constantIds.get(name);
+		if (id != null) return id;
+		if (this.numConstants == this.constants.length) {
+			this.constants = Arrays.copyOf(this.constants, 2*this.numConstants);
+			this.arguments = Arrays.copyOf(this.arguments, 2*this.numConstants);
 		}
+		id = this.numConstants++;
+		this.constants[id] = ConstantArgument.intern(name);
+		this.arguments[id] = this.constants[id];
+		this.constantIds.put(name, id);
+		return id;
 	}
 
-	public static class FunctorArityKey {
-		public final String functor;
-		public final int arity;
-		public FunctorArityKey(String functor, int arity) {
+	/**
+	 * The facts for one functor/arity, one array of constant ids per
+	 * argument position.  Hard and soft facts may share a table.
+	 */
+	protected class FactTable {
+		final String functor;
+		final int arity;
+		// numbers of the hard facts; null if there are none
+		BitSet hard;
+		int size=0;
+		int[][] columns;
+		// fact numbers sorted by first argument, by second, and by both; rebuilt by index() after facts are added
+		int[] byArg1, byArg2, byArg12;
+		// true if compile() made any of our constants a variable
+		boolean hasVariables;
+		volatile boolean indexed=false;
+		FactTable(String functor, int arity) {
 			this.functor = functor;
 			this.arity = arity;
+			this.columns = new int[arity][INITIAL_CAPACITY];
 		}
-		public int hashCode() {
-			return functor.hashCode() << 16 + arity;
+		void add(int[] ids, boolean hard) {
+			if (this.size == this.columns[0].length) {
+				for (int a=0; a<this.arity; a++) this.columns[a] = Arrays.copyOf(this.columns[a], 2*this.size);
+			}
+			for (int a=0; a<this.arity; a++) this.columns[a][this.size] = ids[a];
+			if (hard) {
+				if (this.hard == null) this.hard = new BitSet();
+				this.hard.set(this.size);
+			}
+			this.size++;
+			this.indexed = false;
 		}
-		public boolean equals(Object o) {
-			if (!(o instanceof FunctorArityKey)) return false;
-			FunctorArityKey k = (FunctorArityKey) o;
-			return this.functor.equals(k.functor) && this.arity == k.arity;
+		synchronized void index() {
+			if (this.indexed) return;
+			for (int a=0; a<this.arity; a++) this.columns[a] = Arrays.copyOf(this.columns[a], this.size);
+			this.byArg1 = sortedBy(this.columns[0], null);
+			if (useTernaryIndex && this.arity > 2) {
+				this.byArg2 = sortedBy(this.columns[1], null);
+				// sorting the arg2 order by arg1 leaves facts sorted by both
+				this.byArg12 = sortedBy(this.columns[0], this.byArg2);
+			}
+			this.hasVariables = false;
+			for (int a=0; a<this.arity && !this.hasVariables; a++) {
+				for (int i=0; i<this.size; i++) {
+					if (arguments[this.columns[a][i]].isVariable()) {
+						this.hasVariables = true;
+						break;
+					}
+				}
+			}
+			this.indexed = true;
 		}
-	}
-
-	public static class FunctorArityArgKey extends FunctorArityKey {
-		public final Argument arg;
-		public FunctorArityArgKey(String functor, int arity, Argument arg) {
-			super(functor, arity);
-			this.arg = arg;
+		/** @return the facts in order of key, with ties in the order given by within (or by fact number) */
+		private int[] sortedBy(int[] key, int[] within) {
+			long[] k = new long[this.size];
+			for (int j=0; j<this.size; j++) {
+				int i = within == null ? j : within[j];
+				k[j] = ((long) key[i] << 32) | j;
+			}
+			Arrays.sort(k);
+			int[] result = new int[this.size];
+			for (int j=0; j<this.size; j++) {
+				int r = (int) k[j];
+				result[j] = within == null ? r : within[r];
+			}
+			return result;
 		}
-
-		public int hashCode() {
-			return super.hashCode() ^ arg.hashCode();
+		Goal goal(int i) {
+			Argument[] args = new Argument[this.arity];
+			for (int a=0; a<this.arity; a++) args[a] = arguments[this.columns[a][i]];
+			boolean hard = this.hard != null && this.hard.get(i);
+			return new Goal(hard ? this.functor + Goal.HARD_INDICATOR : this.functor, args);
 		}
-		public boolean equals(Object o) {
-			return super.equals(o) && ((FunctorArityArgKey)o).arg.equals(this.arg);
+		/** @return number of distinct keys in perm, comparing the given columns */
+		int distinct(int[] perm, int[] c0, int[] c1) {
+			int n=0;
+			for (int j=0; j<perm.length; j++) {
+				if (j == 0 || c0[perm[j]] != c0[perm[j-1]] || (c1 != null && c1[perm[j]] != c1[perm[j-1]])) n++;
+			}
+			return n;
 		}
 	}
 
-	public static class FunctorArityArg1Arg2Key extends FunctorArityArgKey {
-		public final Argument arg2;
-		public FunctorArityArg1Arg2Key(String functor, int arity, Argument arg, Argument arg2) {
-			super(functor, arity, arg);
-			this.arg2 = arg2;
+	/**
+	 * @return the position in perm of the first fact whose (c0,c1) is at
+	 * least (upper: greater than) (k0,k1); c1 may be null to compare c0 alone.
+	 */
+	private static int bound(int[] perm, int[] c0, int k0, int[] c1, int k1, boolean upper) {
+		int lo=0, hi=perm.length;
+		while (lo < hi) {
+			int mid = (lo+hi) >>> 1, i = perm[mid];
+			int cmp = c0[i] != k0 ? (c0[i] < k0 ? -1 : 1)
+					: (c1 == null || c1[i] == k1 ? 0 : (c1[i] < k1 ? -1 : 1));
+			if (cmp < 0 || (upper && cmp == 0)) lo = mid+1;
+			else hi = mid;
 		}
+		return lo;
+	}
 
+	public static class FunctorArityKey {
+		public final String functor;
+		public final int arity;
+		public FunctorArityKey(String functor, int arity) {
+			this.functor = functor;
+			this.arity = arity;
+		}
 		public int hashCode() {
-			return super.hashCode() ^ arg2.hashCode();
+			return 31 * functor.hashCode() + arity;
 		}
 		public boolean equals(Object o) {
-			return super.equals(o) && ((FunctorArityArg1Arg2Key)o).arg2.equals(this.arg2);
+			if (!(o instanceof FunctorArityKey)) return false;
+			FunctorArityKey k = (FunctorArityKey) o;
+			return this.functor.equals(k.functor) && this.arity == k.arity;
 		}
 	}
 
@@ -148,38 +258,70 @@ public class GoalComponent extends Component {
 		}
 		return result;
 	}
-	private Iterable<Goal> goalsMatching(Goal goal) {
+	private List<Goal> goalsMatching(Goal goal) {
 		numUsesGoalsMatching++;
+		return this.goalsMatching(goal.getFunctor(), goal.getArgs());
+	}
+
+	/**
+	 * @return the facts for functor/args.length which might unify with
+	 * args: those whose arguments equal each constant in args, plus any
+	 * whose arguments compile() made variables.
+	 */
+	private List<Goal> goalsMatching(String functor, Argument[] args) {
+		FactTable t = this.tables.get(new FunctorArityKey(functor, args.length));
+		if (t == null) return Collections.emptyList();
+		if (!t.indexed) t.index();
+		// the id of each constant argument, or -1 for variables
+		int[] ids = new int[args.length];
+		for (int a=0; a<args.length; a++) {
+			ids[a] = -1;
+			if (!args[a].isConstant()) continue;
+			Integer id = this.constantIds.get(args[a].getName());
+			// a constant we've never seen can only match a variable
+			if (id == null) {
+				if (!t.hasVariables) return Collections.emptyList();
+				ids[a] = Integer.MAX_VALUE;
+			} else ids[a] = id;
+		}
 		// figure out what index to use
-		if (goal.getArity()==1 && goal.getArg(0).isConstant()) {
-			numUsesIndexFA1++;
-			return Dictionary.safeGet(this.indexFA1, 
-					new FunctorArityArgKey(goal.getFunctor(), goal.getArity(), goal.getArg(0)),
-					Collections.<Goal> emptyList());
-		}
-		if (useTernaryIndex && goal.getArity()>2) {
-			if (goal.getArg(0).isConstant() && goal.getArg(1).isConstant()) {
+		int[] perm = null;
+		int lo=0, hi=t.size;
+		if (!t.hasVariables) {
+			if (t.byArg12 != null && ids[0] >= 0 && ids[1] >= 0) {
 				numUsesIndexFA1A2++;
-				return Dictionary.safeGet(this.indexFA1A2, 
-						new FunctorArityArg1Arg2Key(goal.getFunctor(), goal.getArity(), goal.getArg(0), goal.getArg(1)),
-						Collections.<Goal> emptyList());
-			} else if (goal.getArg(0).isConstant()) {
+				perm = t.byArg12;
+				lo = bound(perm, t.columns[0], ids[0], t.columns[1], ids[1], false);
+				hi = bound(perm, t.columns[0], ids[0], t.columns[1], ids[1], true);
+			} else if (ids[0] >= 0) {
 				numUsesIndexFA1++;
-				return Dictionary.safeGet(this.indexFA1, 
-						new FunctorArityArgKey(goal.getFunctor(), goal.getArity(), goal.getArg(0)),
-						Collections.<Goal> emptyList());
-			} else if (goal.getArg(1).isConstant()) {
+				perm = t.byArg1;
+				lo = bound(perm, t.columns[0], ids[0], null, 0, false);
+				hi = bound(perm, t.columns[0], ids[0], null, 0, true);
+			} else if (t.byArg2 != null && ids[1] >= 0) {
 				numUsesIndexFA2++;
-				return Dictionary.safeGet(this.indexFA2, 
-						new FunctorArityArgKey(goal.getFunctor(), goal.getArity(), goal.getArg(1)),
-						Collections.<Goal> emptyList());
+				perm = t.byArg2;
+				lo = bound(perm, t.columns[1], ids[1], null, 0, false);
+				hi = bound(perm, t.columns[1], ids[1], null, 0, true);
 			}
 		}
 		// no argument-specific indices available so use the basic one
-		numUsesIndexF++;
-		return Dictionary.safeGet(this.indexF,
-				new FunctorArityKey(goal.getFunctor(), goal.getArity()),
-				Collections.<Goal> emptyList());
+		if (perm == null) numUsesIndexF++;
+		List<Goal> result = new ArrayList<Goal>();
+		for (int j=lo; j<hi; j++) {
+			int i = perm == null ? j : perm[j];
+			if (consistent(t, i, ids)) result.add(t.goal(i));
+		}
+		return result;
+	}
+	/** @return true unless some constant of ids differs from a constant argument of fact i */
+	private boolean consistent(FactTable t, int i, int[] ids) {
+		for (int a=0; a<ids.length; a++) {
+			if (ids[a] < 0) continue;
+			int id = t.columns[a][i];
+			if (id != ids[a] && this.arguments[id].isConstant()) return false;
+		}
+		return true;
 	}
 	
 	/** Utility method for complex features
@@ -187,30 +329,14 @@ public class GoalComponent extends Component {
 	 * @param functor
 	 * @param arity
 	 * @param arg1
-	 * @return
+	 * @return facts for functor/arity whose first argument might unify with arg1
 	 */
     public Iterable<Goal> goalsMatching(String functor, int arity, Argument arg1) {
     	numUsesGoalsMatching++;
-		// figure out what index to use
-		if (arity==1 && arg1.isConstant()) {
-			numUsesIndexFA1++;
-			return Dictionary.safeGet(this.indexFA1, 
-					new FunctorArityArgKey(functor, arity, arg1),
-					Collections.<Goal> emptyList());
-		}
-		if (useTernaryIndex && arity>2) {
-			if (arg1.isConstant()) {
-				numUsesIndexFA1++;
-				return Dictionary.safeGet(this.indexFA1, 
-						new FunctorArityArgKey(functor, arity, arg1),
-						Collections.<Goal> emptyList());
-			}
-		}
-		// no argument-specific indices available so use the basic one
-		numUsesIndexF++;
-		return Dictionary.safeGet(this.indexF,
-				new FunctorArityKey(functor, arity),
-				Collections.<Goal> emptyList());
+    	Argument[] args = new Argument[arity];
+    	args[0] = arg1;
+    	for (int a=1; a<arity; a++) args[a] = new VariableArgument(-a);
+    	return this.goalsMatching(functor, args);
     }
 	
 	@Override
@@ -218,38 +344,87 @@ public class GoalComponent extends Component {
 		// FIXME -- only works b/c we know isSolution is true iff #goals == 0
 		return !state.isSolution() && this.contains(state.getHeadFunctor(), state.getHeadArity());
 	}
+	@Override
+	public Map<Goal,Double> sharedFeatureDict() {
+		return this.featureDict;
+	}
+	@Override
+	public Collection<FunctorArityKey> claimedSignatures() {
+		return this.tables.keySet();
+	}
+	@Override
+	public boolean claimMatched(LogicProgramState state) {
+		return true;
+	}
 	protected boolean contains(Goal goal) {
-		// TODO: this is likely slow
-		return this.indexF.containsKey(new FunctorArityKey(goal.getFunctor(),goal.getArity()));
+		return this.tables.containsKey(new FunctorArityKey(goal.getFunctor(),goal.getArity()));
 	}
 	protected boolean contains(String functor, int arity) {
-		// TODO: this is likely slow
-		return this.indexF.containsKey(new FunctorArityKey(functor,arity));
+		return this.tables.containsKey(new FunctorArityKey(functor,arity));
 	}
 
 	public void compile() {
 		this.compile(new SymbolTable());
 	}
+	/**
+	 * As Goal.compile, for every fact: constants which look like
+	 * variables become variables.  Also builds the indexes, so that
+	 * the first queries needn't.
+	 */
 	public void compile(SymbolTable variableSymTab) {
-		for (List<Goal> el : this.indexF.values()) {
-			for (Goal g : el) {
-				g.compile(variableSymTab);
-			}
+		for (int id=0; id<this.numConstants; id++) {
+			String argstring = this.constants[id].getName();
+			if (this.arguments[id].isConstant() &&
+					(argstring.startsWith("_") || argstring.matches("[A-Z].*")))
+				this.arguments[id] = variableSymTab.getId(argstring);
+		}
+		for (FactTable t : this.tables.values()) {
+			t.indexed = false;
+			t.index();
+		}
+	}
+
+	/** @return number of functor/arity pairs with facts */
+	int numFunctorArities() {
+		return this.tables.size();
+	}
+	/** @return number of distinct functor/arity/first argument keys */
+	int numArg1Keys() {
+		int n=0;
+		for (FactTable t : this.tables.values()) {
+			if (!t.indexed) t.index();
+			n += t.distinct(t.byArg1, t.columns[0], null);
+		}
+		return n;
+	}
+	/** @return number of distinct functor/arity/second argument keys in the ternary index */
+	int numArg2Keys() {
+		int n=0;
+		for (FactTable t : this.tables.values()) {
+			if (!t.indexed) t.index();
+			if (t.byArg2 != null) n += t.distinct(t.byArg2, t.columns[1], null);
 		}
+		return n;
 	}
+	/** @return number of distinct functor/arity/first/second argument keys in the ternary index */
+	int numArg12Keys() {
+		int n=0;
+		for (FactTable t : this.tables.values()) {
+			if (!t.indexed) t.index();
+			if (t.byArg12 != null) n += t.distinct(t.byArg12, t.columns[0], t.columns[1]);
+		}
+		return n;
+	}
+
 	public String toString() {
 		StringBuilder sb = new StringBuilder("goalComponent:");
-		//		for (List<Goal> el : this.indexF.values()) {
-		//			for (Goal g : el) {
-		//				sb.append("\n\t").append(g);
-		//			}
-		//		}
-
-		for (FunctorArityArgKey k : this.indexFA1.keySet()) {
-			//			for (Goal g : G) {
-			//				sb.append("\n").append(g);
-			//			}
-			sb.append("\n\t").append(k.functor).append("/").append(k.arity).append(":").append(k.arg);
+		for (FactTable t : this.tables.values()) {
+			if (!t.indexed) t.index();
+			for (int j=0; j<t.size; j++) {
+				int id = t.columns[0][t.byArg1[j]];
+				if (j > 0 && id == t.columns[0][t.byArg1[j-1]]) continue;
+				sb.append("\n\t").append(t.functor).append("/").append(t.arity).append(":").append(this.constants[id]);
+			}
 		}
 		return sb.toString();
 	}
@@ -268,6 +443,70 @@ public class GoalComponent extends Component {
 			result.addFact(Goal.parseGoal(line,"\t"));//new Goal(functor_args[0],functor_args[1].split("\t")));
 		}
 	}
+	/**
+	 * As loadCompiled(files,useTernaryIndex), but parses lines on nthreads
+	 * threads. Facts are still added in file order, so the result is the
+	 * same as loading on one thread.
+	 */
+	public static GoalComponent loadCompiled(List<String> files, boolean useTernaryIndex, int nthreads) {
+		if (nthreads < 2) return loadCompiled(files, useTernaryIndex);
+		ExecutorService pool = Prover.newWorkerPool(nthreads, "GoalComponent-parser");
+		try {
+			return loadCompiled(files, useTernaryIndex, pool, nthreads);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	/**
+	 * As loadCompiled(files,useTernaryIndex,nthreads), but parses on the
+	 * caller's pool of nthreads workers, which is left running. The pool
+	 * must not be the one running this call, or the parsers may never start.
+	 */
+	public static GoalComponent loadCompiled(List<String> files, boolean useTernaryIndex, ExecutorService pool, int nthreads) {
+		GoalComponent result = new GoalComponent(files.get(0)+ (files.size() > 1 ? "+"+(files.size()-1)+"others" : ""), useTernaryIndex);
+		for (String filename : files) loadInto(result,filename,pool,nthreads);
+		return result;
+	}
+	private static void loadInto(GoalComponent result, String filename, ExecutorService pool, int nthreads) {
+		ArrayDeque<Future<Goal[]>> parsing = new ArrayDeque<Future<Goal[]>>();
+		ParsedFile file = new ParsedFile(filename);
+		List<String> chunk = new ArrayList<String>(PARSE_CHUNK);
+		for (String line : file) {
+			chunk.add(line);
+			if (chunk.size() < PARSE_CHUNK) continue;
+			parsing.add(pool.submit(new ParseChunk(chunk)));
+			chunk = new ArrayList<String>(PARSE_CHUNK);
+			// don't read further ahead than the parsers can keep up with
+			while (parsing.size() > 2*nthreads) addFacts(result, parsing.poll());
+		}
+		file.close();
+		if (!chunk.isEmpty()) parsing.add(pool.submit(new ParseChunk(chunk)));
+		while (!parsing.isEmpty()) addFacts(result, parsing.poll());
+	}
+	private static void addFacts(GoalComponent result, Future<Goal[]> parsed) {
+		Goal[] goals;
+		try {
+			goals = parsed.get();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+		for (Goal g : goals) result.addFact(g);
+	}
+	private static class ParseChunk implements Callable<Goal[]> {
+		final List<String> lines;
+		ParseChunk(List<String> lines) {
+			this.lines = lines;
+		}
+		@Override
+		public Goal[] call() {
+			Goal[] goals = new Goal[lines.size()];
+			for (int i=0; i<goals.length; i++) goals[i] = Goal.parseGoal(lines.get(i),"\t");
+			return goals;
+		}
+	}
 	/**
 	 * Returns a goal component loaded from a file, where each line contains
         a single ground goal, stored as functor <TAB> arg1 <TAB> .....
@@ -289,11 +528,10 @@ public class GoalComponent extends Component {
 	@Override
 	public String listing() {
 		StringBuilder sb = new StringBuilder("%% from goalComponent ").append(this.label).append(":");
-		for (List<Goal> G : this.indexF.values()) {
-			for (Goal g : G) {
-				sb.append("\n").append(g);
+		for (FactTable t : this.tables.values()) {
+			for (int i=0; i<t.size; i++) {
+				sb.append("\n").append(t.goal(i));
 			}
-			//			sb.append("\n").append(k.functor).append("/").append(k.arity).append(":").append(k.arg);
 		}
 		return sb.toString();
 	}
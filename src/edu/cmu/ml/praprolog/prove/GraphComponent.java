@@ -1,5 +1,6 @@
 package edu.cmu.ml.praprolog.prove;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -38,7 +39,13 @@ public class GraphComponent extends GraphlikeComponent {
 	}
 	@Override
 	protected void _indexAppend(String functor, Argument src, Argument dst) {
+		boolean added = !this.index.containsKey(functor);
 		Dictionary.safeAppend(this.index,functor,src,dst);
+		if (added) signaturesChanged();
+	}
+	@Override
+	protected Collection<String> _indexFunctors() {
+		return this.index.keySet();
 	}
 	@Override
 	protected boolean _indexContains(String functor) {
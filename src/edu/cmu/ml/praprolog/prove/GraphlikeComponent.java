@@ -1,6 +1,7 @@
 package edu.cmu.ml.praprolog.prove;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -22,6 +23,8 @@ public abstract class GraphlikeComponent extends Component {
 		protected abstract boolean _indexContains(String functor);
 		protected abstract List<Argument> _indexGet(String functor, Argument srcConst);
 		protected abstract int _indexGetDegree(String functor, Argument srcConst);
+		/** @return every functor in the index, or null if the index can't list them cheaply */
+		protected Collection<String> _indexFunctors() { return null; }
 
 		protected abstract Map<Goal, Double> getFeatureDict();
 		/**
@@ -39,6 +42,25 @@ public abstract class GraphlikeComponent extends Component {
 			return !state.isSolution() && state.isHeadEdge() && this._indexContains(state.getHeadFunctor());
 		}
 		
+		@Override
+		public Map<Goal, Double> sharedFeatureDict() {
+			return this.getFeatureDict();
+		}
+
+		@Override
+		public Collection<GoalComponent.FunctorArityKey> claimedSignatures() {
+			Collection<String> functors = this._indexFunctors();
+			if (functors == null) return null;
+			List<GoalComponent.FunctorArityKey> result = new ArrayList<GoalComponent.FunctorArityKey>(functors.size());
+			for (String f : functors) result.add(new GoalComponent.FunctorArityKey(f, 2));
+			return result;
+		}
+
+		@Override
+		public boolean claimMatched(LogicProgramState state) {
+			return state.isHeadEdge();
+		}
+
 		@Override
 		public List<Outlink> outlinks(LogicProgramState state) {
 			List<Argument> values = this._indexGet(state.getHeadFunctor(), state.getHeadArg1());
@@ -72,5 +94,10 @@ public abstract class GraphlikeComponent extends Component {
 			if (state.isSolution()) return 0;
 			return this._indexGetDegree(state.getHeadFunctor(), state.getHeadArg1());
 		}
+
+		@Override
+		public boolean hasCheapDegree() {
+			return true;
+		}
 		
 }
@@ -37,20 +37,14 @@ public class InnerProductWeighter extends FeatureDictWeighter {
 	}
 	@Override
 	public double w(Map<Goal, Double> featureDict) {
-////		double result = 0;
-		for (Map.Entry<Goal,Double> e : featureDict.entrySet()) {
-			if (!this.weights.containsKey(e.getKey()) && !unknownFeatures.contains(e.getKey())) {
-				log.warn("Using default weight 1.0 for unknown feature "+e.getKey()+" (this message only prints once)");
-				unknownFeatures.add(e.getKey());
-			}
+		return this.weightingScheme.edgeWeightFunction(this.innerProduct(featureDict));
+	}
+	@Override
+	protected void unknownFeature(Goal feature) {
+		if (!unknownFeatures.contains(feature)) {
+			log.warn("Using default weight 1.0 for unknown feature "+feature+" (this message only prints once)");
+			unknownFeatures.add(feature);
 		}
-////			result += e.getValue() * Dictionary.safeGet(this.weights, e.getKey(), 1.0);
-////			if (log.isDebugEnabled()) log.debug("+="+e.getKey()+":"+e.getValue()+"*"+Dictionary.safeGet(this.weights, e.getKey(), 1.0)
-////					+"="+(e.getValue() * Dictionary.safeGet(this.weights, e.getKey(), 1.0))
-////					+" = "+result);
-////		}
-//		return result;
-		return this.weightingScheme.edgeWeight(this.weights, featureDict);
 	}
 	public static FeatureDictWeighter fromParamVec(Map<String, Double> paramVec) {
 		return fromParamVec(paramVec, DEFAULT_WEIGHTING_SCHEME());
@@ -1,22 +1,47 @@
 package edu.cmu.ml.praprolog.prove;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
 import edu.cmu.ml.praprolog.graph.Feature;
 import edu.cmu.ml.praprolog.prove.Component.Outlink;
+import edu.cmu.ml.praprolog.prove.feat.ComplexFeatureLibrary;
+import edu.cmu.ml.praprolog.util.Configuration;
 import edu.cmu.ml.praprolog.util.SymbolTable;
 import org.apache.log4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class LogicProgram {
     private static final Logger log = Logger.getLogger(LogicProgram.class);
     public static final boolean DEFAULT_TRUELOOP = true;
     public static final boolean DEFAULT_RESTART = false;
+    /** Default capacity of the outlink cache, in outlinks; 0 disables the cache */
+    public static final int DEFAULT_OUTLINK_CACHE_CAPACITY = 100000;
+    private static final String BINDINGS_FUNCTOR = "__bindings";
     protected Component[] components;
     protected FeatureDictWeighter weighter = new UniformWeighter();
     protected Map<Goal, Double> trueLoopFeatureDict = new HashMap<Goal, Double>();
     protected Map<Goal, Double> trueLoopRestartFeatureDict = new HashMap<Goal, Double>();
     protected SymbolTable symbolTable;
+    protected ComplexFeatureLibrary complexFeatureLibrary;
+    // the components which might claim a state, by the functor/arity of its head goal, in program order
+    protected volatile Map<GoalComponent.FunctorArityKey, Claimants> claimIndex;
+    // the components which claim dynamically, and so might claim any state
+    protected volatile Claimants dynamicClaimants;
+    // signatureChanges() when the claim index was built
+    protected volatile int claimIndexChanges;
+    // the feature dicts components share between all their edges, compiled for the weighter; built on first use
+    protected volatile Map<Map<Goal, Double>, SharedFeatureDict> sharedFeatureDicts;
+    // shared by all the threads proving queries against this program
+    protected int outlinkCacheCapacity = DEFAULT_OUTLINK_CACHE_CAPACITY;
+    protected volatile ConcurrentLinkedHashMap<GoalListKey, List<CachedOutlink>> outlinkCache;
+    protected final AtomicLong cacheHits = new AtomicLong(), cacheMisses = new AtomicLong(),
+            cacheEvictions = new AtomicLong();
 
     public LogicProgram(Component... cmpnts) {
         this.components = cmpnts;
@@ -25,19 +50,74 @@ public class LogicProgram {
             if (c == null) continue;
             c.compile(symbolTable);
         }
+        this.init();
+    }
+
+    /**
+     * A program of components which were already compiled with
+     * symbolTable, as LogicProgramSnapshot loads them.
+     */
+    LogicProgram(SymbolTable symbolTable, Component... cmpnts) {
+        this.components = cmpnts;
+        this.symbolTable = symbolTable;
+        this.init();
+    }
+
+    private void init() {
         trueLoopFeatureDict.put(new Goal("id", "trueLoop"), 1.0);
         trueLoopRestartFeatureDict.put(new Goal("id", "trueLoopRestart"), 1.0);
+        this.indexClaims();
+    }
+
+    /**
+     * Load a program from program files, as Component.loadComponents
+     * does, or from a single snapshot file (see LogicProgramSnapshot).
+     *
+     * @param programFiles
+     * @param alpha
+     * @param c            may be null
+     * @return
+     */
+    public static LogicProgram load(String[] programFiles, double alpha, Configuration c) {
+        if (programFiles.length == 1 && programFiles[0].endsWith(LogicProgramSnapshot.FILE_EXTENSION)) {
+            LogicProgram result;
+            try {
+                result = LogicProgramSnapshot.load(new File(programFiles[0]));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Trouble reading snapshot " + programFiles[0], e);
+            }
+            result.setAlpha(alpha);
+            return result;
+        }
+        return new LogicProgram(Component.loadComponents(programFiles, alpha, c));
+    }
+
+    /**
+     * Save this program, compiled and indexed, for LogicProgram.load.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void saveSnapshot(File file) throws IOException {
+        LogicProgramSnapshot.save(this, file);
     }
 
     public LogicProgram(LogicProgram p) {
         this.components = p.components;
         this.symbolTable = p.symbolTable;
+        this.claimIndex = p.claimIndex;
+        this.dynamicClaimants = p.dynamicClaimants;
+        this.claimIndexChanges = p.claimIndexChanges;
+        this.complexFeatureLibrary = p.complexFeatureLibrary;
         this.trueLoopFeatureDict.putAll(p.trueLoopFeatureDict);
         this.trueLoopRestartFeatureDict.putAll(p.trueLoopRestartFeatureDict);
+        // the copy starts with a cache of its own
+        this.outlinkCacheCapacity = p.outlinkCacheCapacity;
     }
 
     public void setFeatureDictWeighter(FeatureDictWeighter w) {
         this.weighter = w;
+        this.sharedFeatureDicts = null;
     }
 
     public Iterable<LogicProgramOutlink> lpNormalizedOutlinks(LogicProgramState state, boolean trueloop,
@@ -75,24 +155,373 @@ public class LogicProgram {
             }
             return result;
         } else {
-            for (Component c : this.components) {
-                if (c.claim(state)) {
-                    if (log.isInfoEnabled()) log.info(state + "\n\tclaimed by " + c);
-                    try {
-                    	for (Outlink o : c.outlinks(state)) {
-                    		result.add(this.weightEdge(o.getFeatureDict(), state, o.getState()));
-                    	}
-                    	if (restart) {
-                    		result.add(this.weightEdge(c.restartFeatureDict(state), state, state.restart()));
-                    	}
-                    	return result;
-                    } catch(Exception e) {
-                    	throw new LogicProgramException(e);
+            Component c = this.claimant(state);
+            if (log.isDebugEnabled()) log.debug(state + "\n\tclaimed by " + c);
+            try {
+                if (this.outlinkCacheCapacity > 0 && c.isCacheable() && state instanceof ProPPRLogicProgramState) {
+                    result.addAll(this.cachedOutlinks(c, (ProPPRLogicProgramState) state));
+                } else {
+                    for (Outlink o : c.outlinks(state)) {
+                        result.add(this.weightEdge(o.getFeatureDict(), state, o.getState()));
+                    }
+                }
+            	if (restart) {
+            		result.add(this.weightEdge(c.restartFeatureDict(state), state, state.restart()));
+            	}
+            	return result;
+            } catch(Exception e) {
+            	throw new LogicProgramException(e);
+            }
+        }
+    }
+
+    /**
+     * Outlinks of a state via the shared cache.
+     *
+     * The children a cacheable component generates depend only on the
+     * state's goal list, so we key the cache on that list with its
+     * variables renumbered in order of appearance.  On a miss we expand
+     * a stand-in state whose only query goal lists the variables of the
+     * goal list, so that each cached child records what each of those
+     * variables was bound to.  On a hit (or after a miss) we graft each
+     * cached child onto the real state by applying the recorded bindings
+     * to the real query goals, which yields the same state that
+     * state.child(...) would have.
+     *
+     * The cache holds feature dicts, not weights: each outlink is
+     * weighted as it comes out, so the weights always match the
+     * weighter, whether it is replaced or changed with put().
+     *
+     * @param c
+     * @param state
+     * @return
+     * @throws LogicProgramException
+     */
+    protected List<LogicProgramOutlink> cachedOutlinks(Component c, ProPPRLogicProgramState state) throws LogicProgramException {
+        // normalize the goal list on its own
+        Map<Argument, Argument> toKey = new HashMap<Argument, Argument>();
+        Goal[] goals = state.getGoals();
+        Goal[] keyGoals = new Goal[goals.length];
+        for (int i = 0; i < goals.length; i++) keyGoals[i] = renameVariables(goals[i], toKey, true);
+        GoalListKey key = new GoalListKey(keyGoals);
+
+        ConcurrentLinkedHashMap<GoalListKey, List<CachedOutlink>> cache = this.getOutlinkCache();
+        List<CachedOutlink> cached = cache.get(key);
+        if (cached == null) {
+            cacheMisses.incrementAndGet();
+            Argument[] vars = new Argument[toKey.size()];
+            for (int i = 0; i < vars.length; i++) vars[i] = new VariableArgument(-(i + 1));
+            Goal[] bindingsGoal = {new Goal(BINDINGS_FUNCTOR, vars)};
+            ProPPRLogicProgramState standIn = new ProPPRLogicProgramState(bindingsGoal, bindingsGoal, keyGoals, 0, 0);
+            List<Outlink> outs = c.outlinks(standIn);
+            cached = new ArrayList<CachedOutlink>(outs.size());
+            for (Outlink o : outs) {
+                ProPPRLogicProgramState child = (ProPPRLogicProgramState) o.getState();
+                cached.add(new CachedOutlink(o.getFeatureDict(), this.weightEdge(o.getFeatureDict(), standIn, child), child));
+            }
+            cache.put(key, cached);
+        } else cacheHits.incrementAndGet();
+
+        List<LogicProgramOutlink> result = new ArrayList<LogicProgramOutlink>(cached.size());
+        for (CachedOutlink o : cached) {
+            result.add(new LogicProgramOutlink(this.weigh(o.featureDict), o.graft(state, toKey), o.features));
+        }
+        return result;
+    }
+
+    /**
+     * Renumber the variables of a goal through the map, in order of appearance.
+     * If extend is set, unmapped variables are given the next unused number;
+     * otherwise they are left alone.
+     */
+    private static Goal renameVariables(Goal g, Map<Argument, Argument> map, boolean extend) {
+        Argument[] args = g.getArgs();
+        Argument[] newArgs = new Argument[args.length];
+        for (int a = 0; a < args.length; a++) {
+            if (args[a].isConstant()) {
+                newArgs[a] = args[a];
+                continue;
+            }
+            Argument v = map.get(args[a]);
+            if (v == null) {
+                if (!extend) {
+                    newArgs[a] = args[a];
+                    continue;
+                }
+                v = new VariableArgument(-(map.size() + 1));
+                map.put(args[a], v);
+            }
+            newArgs[a] = v;
+        }
+        return new Goal(g.getFunctor(), newArgs);
+    }
+
+    /** A variable-normalized goal list */
+    protected static class GoalListKey {
+        final Goal[] goals;
+        final int hash;
+
+        GoalListKey(Goal[] goals) {
+            this.goals = goals;
+            this.hash = Arrays.hashCode(goals);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GoalListKey)) return false;
+            return Arrays.equals(this.goals, ((GoalListKey) o).goals);
+        }
+    }
+
+    /** A child of a stand-in state, with the bindings needed to graft it onto a real one */
+    protected static class CachedOutlink {
+        final Map<Goal, Double> featureDict;
+        // features of the outlink, listed at most once; its weight is not used
+        final LogicProgramOutlink features;
+        final Goal[] goals;
+        final Argument[] bindings;
+        final int numVariables;
+
+        CachedOutlink(Map<Goal, Double> featureDict, LogicProgramOutlink features, ProPPRLogicProgramState child) {
+            this.featureDict = featureDict;
+            this.features = features;
+            this.goals = child.getGoals();
+            this.bindings = child.getQueryGoals()[0].getArgs();
+            // NB solution states have no var sketch
+            int n = 0;
+            for (Argument a : this.bindings) if (a.isVariable()) n = Math.max(n, -a.getValue());
+            for (Goal g : this.goals) {
+                for (Argument a : g.getArgs()) if (a.isVariable()) n = Math.max(n, -a.getValue());
+            }
+            this.numVariables = n;
+        }
+
+        /**
+         * @param parent
+         * @param toKey   maps the variables of the parent's goals to the variables of the stand-in state
+         * @return the child of parent corresponding to this outlink
+         */
+        ProPPRLogicProgramState graft(ProPPRLogicProgramState parent, Map<Argument, Argument> toKey) {
+            // bind the parent's goal variables as the stand-in's were bound
+            Map<Argument, Argument> theta = new HashMap<Argument, Argument>();
+            for (Map.Entry<Argument, Argument> e : toKey.entrySet()) {
+                theta.put(e.getKey(), this.bindings[-e.getValue().getValue() - 1]);
+            }
+            // query variables which don't appear in the goals stay free,
+            // so they must be kept apart from the child's variables
+            Goal[] queryGoals = parent.getQueryGoals();
+            Goal[] tmpQueryGoals = new Goal[queryGoals.length];
+            int fresh = this.numVariables;
+            for (int i = 0; i < queryGoals.length; i++) {
+                Argument[] args = queryGoals[i].getArgs();
+                Argument[] newArgs = new Argument[args.length];
+                for (int a = 0; a < args.length; a++) {
+                    if (args[a].isConstant()) {
+                        newArgs[a] = args[a];
+                        continue;
                     }
+                    Argument v = theta.get(args[a]);
+                    if (v == null) {
+                        v = new VariableArgument(-(++fresh));
+                        theta.put(args[a], v);
+                    }
+                    newArgs[a] = v;
+                }
+                tmpQueryGoals[i] = new Goal(queryGoals[i].getFunctor(), newArgs);
+            }
+            // and renumber everything just as ProPPRLogicProgramState.child does
+            Map<Argument, Argument> normal = new HashMap<Argument, Argument>();
+            for (int i = 0; i < tmpQueryGoals.length; i++) tmpQueryGoals[i] = renameVariables(tmpQueryGoals[i], normal, true);
+            Goal[] tmpGoals = new Goal[this.goals.length];
+            for (int i = 0; i < tmpGoals.length; i++) tmpGoals[i] = renameVariables(this.goals[i], normal, true);
+            return new ProPPRLogicProgramState(parent.getOriginalGoals(), tmpQueryGoals, tmpGoals, normal.size(),
+                                               parent.getDepth() + 1);
+        }
+    }
+
+    protected ConcurrentLinkedHashMap<GoalListKey, List<CachedOutlink>> getOutlinkCache() {
+        if (this.outlinkCache == null) {
+            synchronized (this) {
+                if (this.outlinkCache == null) {
+                    this.outlinkCache = new ConcurrentLinkedHashMap.Builder<GoalListKey, List<CachedOutlink>>()
+                            .maximumWeightedCapacity(this.outlinkCacheCapacity)
+                            // capacity is measured in outlinks, not states
+                            .weigher(new Weigher<List<CachedOutlink>>() {
+                                @Override
+                                public int weightOf(List<CachedOutlink> value) {
+                                    return Math.max(1, value.size());
+                                }
+                            })
+                            .listener(new EvictionListener<GoalListKey, List<CachedOutlink>>() {
+                                @Override
+                                public void onEviction(GoalListKey key, List<CachedOutlink> value) {
+                                    cacheEvictions.incrementAndGet();
+                                }
+                            })
+                            .build();
+                }
+            }
+        }
+        return this.outlinkCache;
+    }
+
+    /**
+     * Set the maximum number of outlinks kept in the cache shared by
+     * all queries on this program; 0 disables the cache.
+     *
+     * @param capacity
+     */
+    public synchronized void setOutlinkCacheCapacity(int capacity) {
+        this.outlinkCacheCapacity = capacity;
+        this.outlinkCache = null;
+    }
+
+    public int getOutlinkCacheCapacity() {
+        return this.outlinkCacheCapacity;
+    }
+
+    public void clearOutlinkCache() {
+        ConcurrentLinkedHashMap<GoalListKey, List<CachedOutlink>> cache = this.outlinkCache;
+        if (cache != null) cache.clear();
+    }
+
+    public long getOutlinkCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getOutlinkCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public long getOutlinkCacheEvictions() {
+        return cacheEvictions.get();
+    }
+
+    public String outlinkCacheStatistics() {
+        return "shared outlink cache: " + cacheHits.get() + " hits " + cacheMisses.get() + " misses "
+                + cacheEvictions.get() + " evictions";
+    }
+
+    /**
+     * Find the component which claims this (non-solution) state.
+     *
+     * @param state
+     * @return
+     * @throws LogicProgramException if no component claims the state
+     */
+    public Component claimant(LogicProgramState state) throws LogicProgramException {
+        if (this.claimIndexChanges != this.signatureChanges()) this.indexClaims();
+        String functor = state.getHeadFunctor();
+        if (functor != null) {
+            Claimants candidates = this.claimIndex.get(new GoalComponent.FunctorArityKey(functor, state.getHeadArity()));
+            if (candidates == null) candidates = this.dynamicClaimants;
+            Component c = candidates.claimant(state);
+            if (c != null) return c;
+        }
+        // not in the index; maybe a component claims more than it said
+        for (Component c : this.components) {
+            if (c != null && c.claim(state)) return c;
+        }
+        throw new LogicProgramException("No definition for " + state.getHeadFunctor() + "/" + state
+                .getHeadArity() + "(" + state.getHeadArg1() + " ...)");
+    }
+
+    /**
+     * Build the table claimant() uses to find the components which
+     * might claim a state from the functor and arity of its head goal,
+     * so that it only asks those components (plus any which claim
+     * dynamically) instead of every component in turn.  Done when the
+     * program is built, and again by claimant() after any of its
+     * components starts claiming a new signature.  A component which overrides
+     * claim() below the class that answers claimMatched() is treated as
+     * a dynamic claimant, so that its override is still asked.
+     */
+    public synchronized void indexClaims() {
+        int changes = this.signatureChanges();
+        Map<GoalComponent.FunctorArityKey, List<Component>> index = new HashMap<GoalComponent.FunctorArityKey, List<Component>>();
+        List<Component> dynamic = new ArrayList<Component>();
+        Set<Component> askClaim = Collections.newSetFromMap(new IdentityHashMap<Component, Boolean>());
+        for (Component c : this.components) {
+            if (c == null) continue;
+            Collection<GoalComponent.FunctorArityKey> signatures = overridesClaim(c) ? null : c.claimedSignatures();
+            if (signatures == null) {
+                // a dynamic claimant gets a chance at every state, in program order
+                dynamic.add(c);
+                askClaim.add(c);
+                for (List<Component> candidates : index.values()) candidates.add(c);
+                continue;
+            }
+            for (GoalComponent.FunctorArityKey key : signatures) {
+                List<Component> candidates = index.get(key);
+                if (candidates == null) {
+                    candidates = new ArrayList<Component>(dynamic);
+                    index.put(key, candidates);
                 }
+                if (!candidates.contains(c)) candidates.add(c);
             }
-            throw new LogicProgramException("No definition for " + state.getHeadFunctor() + "/" + state
-                    .getHeadArity() + "(" + state.getHeadArg1() + " ...)");
+        }
+        Map<GoalComponent.FunctorArityKey, Claimants> claimIndex = new HashMap<GoalComponent.FunctorArityKey, Claimants>();
+        for (Map.Entry<GoalComponent.FunctorArityKey, List<Component>> e : index.entrySet()) {
+            claimIndex.put(e.getKey(), new Claimants(e.getValue(), askClaim));
+        }
+        this.dynamicClaimants = new Claimants(dynamic, askClaim);
+        this.claimIndex = claimIndex;
+        this.claimIndexChanges = changes;
+        if (log.isDebugEnabled()) log.debug("claim index: " + claimIndex.size() + " signatures, "
+                + dynamic.size() + " dynamic claimants");
+    }
+
+    /**
+     * The components which might claim a state, in program order,
+     * marking the ones which have to be asked through claim().
+     */
+    protected static class Claimants {
+        final Component[] components;
+        final boolean[] askClaim;
+
+        Claimants(List<Component> components, Set<Component> askClaim) {
+            this.components = components.toArray(new Component[components.size()]);
+            this.askClaim = new boolean[this.components.length];
+            for (int i = 0; i < this.components.length; i++) this.askClaim[i] = askClaim.contains(this.components[i]);
+        }
+
+        /**
+         * @return the first of these components to claim state, or null
+         */
+        Component claimant(LogicProgramState state) {
+            for (int i = 0; i < this.components.length; i++) {
+                Component c = this.components[i];
+                if (this.askClaim[i] ? c.claim(state) : c.claimMatched(state)) return c;
+            }
+            return null;
+        }
+    }
+
+    /** @return the number of times this program's components started claiming new signatures */
+    private int signatureChanges() {
+        int sum = 0;
+        for (Component c : this.components) {
+            if (c != null) sum += c.getSignatureChanges();
+        }
+        return sum;
+    }
+
+    /**
+     * @return true if c's claim() is declared below the class that
+     * declares its claimMatched(), which would skip it
+     */
+    private static boolean overridesClaim(Component c) {
+        try {
+            Class<?> claim = c.getClass().getMethod("claim", LogicProgramState.class).getDeclaringClass();
+            Class<?> matched = c.getClass().getMethod("claimMatched", LogicProgramState.class).getDeclaringClass();
+            return claim != matched && matched.isAssignableFrom(claim);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
         }
     }
 
@@ -111,8 +540,46 @@ public class LogicProgram {
     protected LogicProgramOutlink weightEdge(Map<Goal, Double> featureDict,
                                              LogicProgramState state, LogicProgramState child) {
         if (log.isDebugEnabled()) log.debug("weightEdge " + child);
-        return new LogicProgramOutlink(weighter.w(featureDict), child,
-                                       Feature.toFeatureList(featureDict));
+        SharedFeatureDict shared = this.getSharedFeatureDicts().get(featureDict);
+        if (shared != null) return new LogicProgramOutlink(weighter.w(shared.compiled), child, shared.featureList);
+        return new LogicProgramOutlink(weighter.w(featureDict), child, featureDict);
+    }
+
+    /** The weight weightEdge would give an edge with this feature dict */
+    protected double weigh(Map<Goal, Double> featureDict) {
+        SharedFeatureDict shared = this.getSharedFeatureDicts().get(featureDict);
+        if (shared != null) return weighter.w(shared.compiled);
+        return weighter.w(featureDict);
+    }
+
+    /** A feature dict every edge of some component carries, with its weighter ids and feature list */
+    protected static class SharedFeatureDict {
+        final FeatureDictWeighter.CompiledFeatureDict compiled;
+        final List<Feature> featureList;
+
+        SharedFeatureDict(FeatureDictWeighter.CompiledFeatureDict compiled, List<Feature> featureList) {
+            this.compiled = compiled;
+            this.featureList = featureList;
+        }
+    }
+
+    /**
+     * @return the shared feature dict of each component, by identity,
+     * compiled for the current weighter
+     */
+    protected Map<Map<Goal, Double>, SharedFeatureDict> getSharedFeatureDicts() {
+        Map<Map<Goal, Double>, SharedFeatureDict> result = this.sharedFeatureDicts;
+        if (result != null) return result;
+        // never modified once built, so threads can share it without locking
+        result = new IdentityHashMap<Map<Goal, Double>, SharedFeatureDict>();
+        for (Component c : this.components) {
+            if (c == null) continue;
+            Map<Goal, Double> fd = c.sharedFeatureDict();
+            if (fd == null || result.containsKey(fd)) continue;
+            result.put(fd, new SharedFeatureDict(this.weighter.compile(fd), Feature.toFeatureList(fd)));
+        }
+        this.sharedFeatureDicts = result;
+        return result;
     }
 
     /**
@@ -130,17 +597,12 @@ public class LogicProgram {
             if (restart) d++;
             return d;
         } else {
-            for (Component c : this.components) {
-                if (c.claim(state)) {
-                    if (log.isDebugEnabled()) log.debug("Claimed by " + c.getClass().getCanonicalName());
-                    int d = c.degree(state);
-                    if (restart) d++;
-                    return d;
-                }
-            }
+            Component c = this.claimant(state);
+            if (log.isDebugEnabled()) log.debug("Claimed by " + c.getClass().getCanonicalName());
+            int d = c.degree(state);
+            if (restart) d++;
+            return d;
         }
-        throw new LogicProgramException("No definition for " + state.getHeadFunctor() + "/" + state
-                .getHeadArity() + "(" + state.getHeadArg1() + " ...)");
     }
 
     /**
@@ -157,14 +619,8 @@ public class LogicProgram {
         if (state.isSolution() && trueLoop) {
             return weightForRestartEdge(trueLoopRestartFeatureDict, state);
         } else {
-            for (Component c : this.components) {
-                if (c.claim(state)) {
-                    return weightForRestartEdge(c.restartFeatureDict(state), state);
-                }
-            }
+            return weightForRestartEdge(this.claimant(state).restartFeatureDict(state), state);
         }
-        throw new LogicProgramException("No definition for " + state.getHeadFunctor() + "/" +
-                                        state.getHeadArity() + "(" + state.getHeadArg1() + " ...)");
     }
 
     /**
@@ -181,7 +637,7 @@ public class LogicProgram {
     protected LogicProgramOutlink weightForRestartEdge(Map<Goal, Double> featureDict, LogicProgramState state) {
         return new LogicProgramOutlink(weighter.w(featureDict),
                                        state.restart(),
-                                       Feature.toFeatureList(featureDict));
+                                       featureDict);
     }
 
     public SymbolTable getSymbolTable() {
@@ -203,13 +659,38 @@ public class LogicProgram {
     }
 
     public void setAlpha(double d) {
-        for (Component c : this.components) c.setAlpha(d);
+        for (Component c : this.components) {
+            if (c != null) c.setAlpha(d);
+        }
+    }
+
+    /**
+     * Compute the complex features of this program's rules with library.
+     * Components belong to one library at a time, so programs sharing
+     * components share their library too.
+     *
+     * @param library
+     */
+    public void setComplexFeatureLibrary(ComplexFeatureLibrary library) {
+        this.complexFeatureLibrary = library;
+        for (Component c : this.components) {
+            if (c != null) c.setComplexFeatureLibrary(library);
+        }
+        // cached outlinks carry features from the old library
+        this.clearOutlinkCache();
+    }
+
+    public ComplexFeatureLibrary getComplexFeatureLibrary() {
+        return this.complexFeatureLibrary;
     }
 
     public static class LogicProgramOutlink {
         double weight;
         LogicProgramState state;
-        List<Feature> featureList;
+        // built the first time someone asks, from featureDict or from the outlink we copied
+        volatile List<Feature> featureList;
+        Map<Goal, Double> featureDict;
+        LogicProgramOutlink like;
 
         public LogicProgramOutlink(double w, LogicProgramState s, List<Feature> f) {
             this.weight = w;
@@ -217,6 +698,28 @@ public class LogicProgram {
             this.featureList = f;
         }
 
+        /**
+         * An outlink whose feature list is built from featureDict only if
+         * someone asks for it (as a GraphWriter does).
+         */
+        public LogicProgramOutlink(double w, LogicProgramState s, Map<Goal, Double> featureDict) {
+            this.weight = w;
+            this.state = s;
+            this.featureDict = featureDict;
+        }
+
+        /** An outlink to s, with the weight and features of o */
+        public LogicProgramOutlink(LogicProgramOutlink o, LogicProgramState s) {
+            this(o.weight, s, o);
+        }
+
+        /** An outlink to s with weight w, and the features of o */
+        public LogicProgramOutlink(double w, LogicProgramState s, LogicProgramOutlink o) {
+            this.weight = w;
+            this.state = s;
+            this.like = o;
+        }
+
         public double getWeight() {
             return weight;
         }
@@ -226,8 +729,14 @@ public class LogicProgram {
         }
 
         public List<Feature> getFeatureList() {
-            return featureList;
+            List<Feature> result = this.featureList;
+            if (result == null) {
+                if (this.like != null) result = this.like.getFeatureList();
+                else if (this.featureDict != null) result = Feature.toFeatureList(this.featureDict);
+                this.featureList = result;
+            }
+            return result;
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,463 @@
+package edu.cmu.ml.praprolog.prove;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.praprolog.util.Configuration;
+import edu.cmu.ml.praprolog.util.SymbolTable;
+
+/**
+ * A LogicProgram saved with its components already compiled and indexed,
+ * so that it can be loaded without parsing any program files.
+ *
+ * The file holds, big-endian:
+ *  - the header: MAGIC, VERSION
+ *  - the symbol table, the outlink cache capacity, and #components
+ *  - each component: a type tag, its alpha, and its contents
+ * Names (functors and constants) are written in full the first time they
+ * appear and by number after that, so each is read once and every use of
+ * a constant shares one ConstantArgument. Fact columns and their indexes
+ * are written as int arrays and read in bulk.
+ *
+ * GoalComponents, RuleComponents and GraphComponents are saved whole.
+ * SparseGraphComponents are saved as the directories they were loaded
+ * from, relative to the snapshot, and mapped again on load, so a snapshot
+ * can move along with its matrices; TuprologComponents are saved as the
+ * text of their theories. Other components can't be saved.
+ *
+ * Complex features and weights aren't part of the snapshot; set them on
+ * the loaded program as usual.
+ */
+public class LogicProgramSnapshot {
+	private static final Logger log = Logger.getLogger(LogicProgramSnapshot.class);
+	public static final String FILE_EXTENSION=".lps";
+	public static final int MAGIC=0x4C505331; // "LPS1"
+	public static final int VERSION=2;
+	private static final int NULL=0, GOAL=1, RULE=2, GRAPH=3, SPARSE=4, TUPROLOG=5;
+	// argument codes; names are otherwise written as by writeName
+	private static final int NEW_NAME=-1, VARIABLE=-2;
+	private static final int BUFFER_SIZE=1<<16;
+
+	/** Write program to file. */
+	public static void save(LogicProgram program, File file) throws IOException {
+		long start = System.currentTimeMillis();
+		Output out = new Output(file);
+		try {
+			out.data.writeInt(MAGIC);
+			out.data.writeInt(VERSION);
+			List<String> symbols = program.getSymbolTable().getSymbolList();
+			out.data.writeInt(symbols.size());
+			for (String s : symbols) out.writeString(s);
+			out.data.writeInt(program.getOutlinkCacheCapacity());
+			Component[] components = program.getComponents();
+			out.data.writeInt(components.length);
+			for (Component c : components) writeComponent(out, c);
+		} finally {
+			out.close();
+		}
+		log.info("Saved "+file+" ("+((System.currentTimeMillis()-start)/1000.)+" sec)");
+	}
+
+	/** Read a program written by save(). */
+	public static LogicProgram load(File file) throws IOException {
+		long start = System.currentTimeMillis();
+		Input in = new Input(file);
+		try {
+			if (in.data.readInt() != MAGIC) throw new IllegalArgumentException("Bad format for "+file+": not a logic program snapshot");
+			int version = in.data.readInt();
+			if (version != VERSION) throw new IllegalArgumentException("Bad format for "+file+": version "+version+"; expected "+VERSION);
+			SymbolTable symbols = new SymbolTable();
+			for (int i=in.data.readInt(); i>0; i--) symbols.insert(in.readString());
+			int capacity = in.data.readInt();
+			Component[] components = new Component[in.data.readInt()];
+			for (int i=0; i<components.length; i++) components[i] = readComponent(in);
+			LogicProgram result = new LogicProgram(symbols, components);
+			result.setOutlinkCacheCapacity(capacity);
+			log.info("Loaded "+file+" ("+((System.currentTimeMillis()-start)/1000.)+" sec)");
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeComponent(Output out, Component c) throws IOException {
+		if (c == null) {
+			out.data.writeByte(NULL);
+			return;
+		}
+		if (c instanceof GoalComponent) {
+			out.data.writeByte(GOAL);
+			out.data.writeDouble(c.alpha);
+			writeGoalComponent(out, (GoalComponent) c);
+		} else if (c instanceof RuleComponent) {
+			out.data.writeByte(RULE);
+			out.data.writeDouble(c.alpha);
+			writeRuleComponent(out, (RuleComponent) c);
+		} else if (c instanceof GraphComponent) {
+			out.data.writeByte(GRAPH);
+			out.data.writeDouble(c.alpha);
+			writeGraphComponent(out, (GraphComponent) c);
+		} else if (c instanceof SparseGraphComponent) {
+			out.data.writeByte(SPARSE);
+			out.data.writeDouble(c.alpha);
+			List<String> dirs = ((SparseGraphComponent) c).matrixDirs;
+			out.data.writeInt(dirs.size());
+			for (String d : dirs) out.writeString(relativePath(out.dir, new File(d)));
+		} else if (c instanceof TuprologComponent) {
+			out.data.writeByte(TUPROLOG);
+			out.data.writeDouble(c.alpha);
+			List<String> theories = ((TuprologComponent) c).getTheories();
+			out.data.writeInt(theories.size());
+			for (String t : theories) out.writeString(t);
+		} else {
+			throw new IllegalArgumentException("Can't save a "+c.getClass().getName()+" in a snapshot");
+		}
+	}
+
+	private static Component readComponent(Input in) throws IOException {
+		int type = in.data.readByte();
+		if (type == NULL) return null;
+		double alpha = in.data.readDouble();
+		Component result;
+		switch(type) {
+		case GOAL: result = readGoalComponent(in); break;
+		case RULE: result = readRuleComponent(in); break;
+		case GRAPH: result = readGraphComponent(in); break;
+		case SPARSE:
+			List<String> dirs = new ArrayList<String>();
+			for (int i=in.data.readInt(); i>0; i--) {
+				File d = new File(in.readString());
+				dirs.add(d.isAbsolute() ? d.getPath() : new File(in.dir, d.getPath()).getPath());
+			}
+			result = new SparseGraphComponent(dirs);
+			break;
+		case TUPROLOG:
+			TuprologComponent tc = new TuprologComponent();
+			for (int i=in.data.readInt(); i>0; i--) tc.addTheoryText(in.readString());
+			result = tc;
+			break;
+		default: throw new IllegalArgumentException("Bad format: unknown component type "+type);
+		}
+		result.setAlpha(alpha);
+		return result;
+	}
+
+	private static void writeGoalComponent(Output out, GoalComponent g) throws IOException {
+		out.writeName(g.label);
+		out.data.writeBoolean(g.useTernaryIndex);
+		out.data.writeInt(g.numConstants);
+		for (int id=0; id<g.numConstants; id++) {
+			out.writeName(g.constants[id].getName());
+			// what compile() made of it
+			out.data.writeInt(g.arguments[id].isVariable() ? g.arguments[id].getValue() : 0);
+		}
+		out.data.writeInt(g.tables.size());
+		for (GoalComponent.FactTable t : g.tables.values()) {
+			if (!t.indexed) t.index();
+			out.writeName(t.functor);
+			out.data.writeInt(t.arity);
+			out.data.writeInt(t.size);
+			out.data.writeBoolean(t.hasVariables);
+			for (int a=0; a<t.arity; a++) out.writeInts(t.columns[a]);
+			out.writeInts(t.byArg1);
+			out.writeInts(t.byArg2);
+			out.writeInts(t.byArg12);
+			out.writeInts(hardFacts(t));
+		}
+	}
+
+	/** @return the numbers of the hard facts of t, or null if there are none */
+	private static int[] hardFacts(GoalComponent.FactTable t) {
+		if (t.hard == null) return null;
+		int[] result = new int[t.hard.cardinality()];
+		int n=0;
+		for (int i = t.hard.nextSetBit(0); i >= 0; i = t.hard.nextSetBit(i+1)) result[n++] = i;
+		return result;
+	}
+
+	private static GoalComponent readGoalComponent(Input in) throws IOException {
+		String label = in.readName();
+		GoalComponent g = new GoalComponent(label, in.data.readBoolean());
+		// the label was cleaned when it was saved
+		g.label = label;
+		g.featureDict.clear();
+		g.featureDict.put(new Goal("db",label), 1.0);
+		int n = in.data.readInt();
+		g.constants = new ConstantArgument[Math.max(n,1)];
+		g.arguments = new Argument[Math.max(n,1)];
+		for (int id=0; id<n; id++) {
+			g.constants[id] = in.readConstant();
+			int v = in.data.readInt();
+			g.arguments[id] = v == 0 ? g.constants[id] : new VariableArgument(v);
+			g.constantIds.put(g.constants[id].getName(), id);
+		}
+		g.numConstants = n;
+		for (int k=in.data.readInt(); k>0; k--) {
+			String functor = in.readName();
+			int arity = in.data.readInt();
+			GoalComponent.FactTable t = g.new FactTable(functor, arity);
+			t.size = in.data.readInt();
+			t.hasVariables = in.data.readBoolean();
+			for (int a=0; a<arity; a++) t.columns[a] = in.readInts();
+			t.byArg1 = in.readInts();
+			t.byArg2 = in.readInts();
+			t.byArg12 = in.readInts();
+			int[] hard = in.readInts();
+			if (hard != null) {
+				t.hard = new BitSet();
+				for (int i : hard) t.hard.set(i);
+			}
+			t.indexed = true;
+			g.tables.put(new GoalComponent.FunctorArityKey(functor, arity), t);
+		}
+		return g;
+	}
+
+	private static void writeRuleComponent(Output out, RuleComponent rc) throws IOException {
+		int n=0;
+		for (List<Rule> rules : rc.index.values()) n += rules.size();
+		out.data.writeInt(n);
+		for (List<Rule> rules : rc.index.values()) {
+			for (Rule r : rules) {
+				out.writeGoal(r.lhs);
+				out.writeGoals(r.rhs);
+				out.writeGoals(r.features);
+			}
+		}
+	}
+
+	private static RuleComponent readRuleComponent(Input in) throws IOException {
+		RuleComponent rc = new RuleComponent();
+		for (int n=in.data.readInt(); n>0; n--) {
+			Goal lhs = in.readGoal();
+			Goal[] rhs = in.readGoals();
+			rc.add(new Rule(lhs, rhs, in.readGoals()));
+		}
+		return rc;
+	}
+
+	private static void writeGraphComponent(Output out, GraphComponent gc) throws IOException {
+		out.writeFeatureDict(gc.featureDict);
+		out.data.writeInt(gc.index.size());
+		for (Map.Entry<String,Map<Argument,List<Argument>>> f : gc.index.entrySet()) {
+			out.writeName(f.getKey());
+			out.data.writeInt(f.getValue().size());
+			for (Map.Entry<Argument,List<Argument>> e : f.getValue().entrySet()) {
+				out.writeArgument(e.getKey());
+				out.data.writeInt(e.getValue().size());
+				for (Argument a : e.getValue()) out.writeArgument(a);
+			}
+		}
+	}
+
+	private static GraphComponent readGraphComponent(Input in) throws IOException {
+		GraphComponent gc = new GraphComponent();
+		gc.featureDict = in.readFeatureDict();
+		for (int nf=in.data.readInt(); nf>0; nf--) {
+			String functor = in.readName();
+			int nsrc = in.data.readInt();
+			Map<Argument,List<Argument>> edges = new HashMap<Argument,List<Argument>>(2*nsrc);
+			for (; nsrc>0; nsrc--) {
+				Argument src = in.readArgument();
+				int ndst = in.data.readInt();
+				List<Argument> dsts = new ArrayList<Argument>(ndst);
+				for (; ndst>0; ndst--) dsts.add(in.readArgument());
+				edges.put(src, dsts);
+			}
+			gc.index.put(functor, edges);
+		}
+		return gc;
+	}
+
+	/** @return the path of target relative to the directory dir, with ".." as needed */
+	static String relativePath(File dir, File target) throws IOException {
+		List<String> from = pathNames(dir.getCanonicalFile()), to = pathNames(target.getCanonicalFile());
+		int common=0;
+		while (common < from.size() && common < to.size() && from.get(common).equals(to.get(common))) common++;
+		StringBuilder sb = new StringBuilder();
+		for (int i=common; i<from.size(); i++) sb.append("..").append(File.separator);
+		for (int i=common; i<to.size(); i++) sb.append(to.get(i)).append(File.separator);
+		if (sb.length() == 0) return ".";
+		return sb.substring(0, sb.length()-1);
+	}
+	/** @return the names of the directories down to f, and of f */
+	private static List<String> pathNames(File f) {
+		LinkedList<String> result = new LinkedList<String>();
+		for (; f != null; f = f.getParentFile()) result.addFirst(f.getName());
+		return result;
+	}
+
+	private static class Output {
+		final DataOutputStream data;
+		final Map<String,Integer> names = new HashMap<String,Integer>();
+		// the directory holding the snapshot
+		final File dir;
+		Output(File file) throws IOException {
+			this.dir = file.getAbsoluteFile().getParentFile();
+			this.data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+		}
+		void close() throws IOException {
+			this.data.close();
+		}
+		/** As writeUTF, but for strings of any length */
+		void writeString(String s) throws IOException {
+			byte[] b = s.getBytes("UTF-8");
+			this.data.writeInt(b.length);
+			this.data.write(b);
+		}
+		/** Write s in full the first time, and by number after that */
+		void writeName(String s) throws IOException {
+			Integer id = this.names.get(s);
+			if (id != null) {
+				this.data.writeInt(id);
+				return;
+			}
+			this.names.put(s, this.names.size());
+			this.data.writeInt(NEW_NAME);
+			this.writeString(s);
+		}
+		void writeArgument(Argument a) throws IOException {
+			if (a.isVariable()) {
+				this.data.writeInt(VARIABLE);
+				this.data.writeInt(a.getValue());
+			} else this.writeName(a.getName());
+		}
+		void writeGoal(Goal g) throws IOException {
+			this.writeName(g.isHard() ? g.getFunctor() + Goal.HARD_INDICATOR : g.getFunctor());
+			this.data.writeInt(g.getArity());
+			for (Argument a : g.getArgs()) this.writeArgument(a);
+		}
+		void writeGoals(Goal[] goals) throws IOException {
+			this.data.writeInt(goals.length);
+			for (Goal g : goals) this.writeGoal(g);
+		}
+		void writeFeatureDict(Map<Goal,Double> fd) throws IOException {
+			this.data.writeInt(fd.size());
+			for (Map.Entry<Goal,Double> e : fd.entrySet()) {
+				this.writeGoal(e.getKey());
+				this.data.writeDouble(e.getValue());
+			}
+		}
+		/** Write an int array, or null, in one block */
+		void writeInts(int[] a) throws IOException {
+			if (a == null) {
+				this.data.writeInt(-1);
+				return;
+			}
+			this.data.writeInt(a.length);
+			ByteBuffer b = ByteBuffer.allocate(4*Math.min(a.length, BUFFER_SIZE));
+			for (int i=0; i<a.length; ) {
+				b.clear();
+				int n = Math.min(a.length-i, BUFFER_SIZE);
+				b.asIntBuffer().put(a, i, n);
+				this.data.write(b.array(), 0, 4*n);
+				i += n;
+			}
+		}
+	}
+
+	private static class Input {
+		final DataInputStream data;
+		final List<String> names = new ArrayList<String>();
+		// one per name, made the first time that name is used as a constant
+		final List<ConstantArgument> constants = new ArrayList<ConstantArgument>();
+		// the directory holding the snapshot
+		final File dir;
+		Input(File file) throws IOException {
+			this.dir = file.getAbsoluteFile().getParentFile();
+			this.data = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		}
+		void close() throws IOException {
+			this.data.close();
+		}
+		String readString() throws IOException {
+			byte[] b = new byte[this.data.readInt()];
+			this.data.readFully(b);
+			return new String(b, "UTF-8");
+		}
+		private int readNameId(int code) throws IOException {
+			if (code == NEW_NAME) {
+				this.names.add(this.readString());
+				this.constants.add(null);
+				return this.names.size()-1;
+			}
+			if (code < 0 || code >= this.names.size()) throw new IllegalArgumentException("Bad format: unknown name "+code);
+			return code;
+		}
+		String readName() throws IOException {
+			return this.names.get(this.readNameId(this.data.readInt()));
+		}
+		private ConstantArgument constant(int id) {
+			ConstantArgument c = this.constants.get(id);
+			if (c == null) {
+				c = ConstantArgument.intern(this.names.get(id));
+				this.constants.set(id, c);
+			}
+			return c;
+		}
+		ConstantArgument readConstant() throws IOException {
+			return this.constant(this.readNameId(this.data.readInt()));
+		}
+		Argument readArgument() throws IOException {
+			int code = this.data.readInt();
+			if (code == VARIABLE) return new VariableArgument(this.data.readInt());
+			return this.constant(this.readNameId(code));
+		}
+		Goal readGoal() throws IOException {
+			String functor = this.readName();
+			Argument[] args = new Argument[this.data.readInt()];
+			for (int a=0; a<args.length; a++) args[a] = this.readArgument();
+			return new Goal(functor, args);
+		}
+		Goal[] readGoals() throws IOException {
+			Goal[] goals = new Goal[this.data.readInt()];
+			for (int i=0; i<goals.length; i++) goals[i] = this.readGoal();
+			return goals;
+		}
+		Map<Goal,Double> readFeatureDict() throws IOException {
+			Map<Goal,Double> fd = new HashMap<Goal,Double>();
+			for (int n=this.data.readInt(); n>0; n--) {
+				Goal g = this.readGoal();
+				fd.put(g, this.data.readDouble());
+			}
+			return fd;
+		}
+		/** Read an int array, or null, written by Output.writeInts */
+		int[] readInts() throws IOException {
+			int length = this.data.readInt();
+			if (length < 0) return null;
+			int[] a = new int[length];
+			byte[] b = new byte[4*Math.min(length, BUFFER_SIZE)];
+			for (int i=0; i<length; ) {
+				int n = Math.min(length-i, BUFFER_SIZE);
+				this.data.readFully(b, 0, 4*n);
+				ByteBuffer.wrap(b, 0, 4*n).asIntBuffer().get(a, i, n);
+				i += n;
+			}
+			return a;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int flags = Configuration.USE_PROGRAMFILES | Configuration.USE_OUTPUT | Configuration.USE_THREADS;
+		Configuration c = new Configuration(args, flags);
+		if (c.programFiles == null) Configuration.missing(Configuration.USE_PROGRAMFILES, flags);
+		if (c.outputFile == null) Configuration.missing(Configuration.USE_OUTPUT, flags);
+		save(LogicProgram.load(c.programFiles, c.alpha, c), new File(c.outputFile));
+	}
+}
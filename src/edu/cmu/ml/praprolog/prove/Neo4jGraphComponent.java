@@ -27,8 +27,18 @@ import org.neo4j.unsafe.batchinsert.BatchInserterIndexProvider;
 import org.neo4j.unsafe.batchinsert.BatchInserters;
 import org.neo4j.unsafe.batchinsert.BatchInserter;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+
 import edu.cmu.ml.praprolog.util.ParsedFile;
 
+/**
+ * GraphlikeComponent backed by an embedded Neo4j database.
+ * 
+ * Lookups are cached, each cache holding up to cacheSize entries: node ids
+ * by name, node names by id, which functors have edges, and the neighbors
+ * and degree of each functor/node pair.  Appending an edge invalidates
+ * what it changes.
+ */
 public class Neo4jGraphComponent extends GraphlikeComponent {
 	private static final Map<String, Object> NO_PROPERTIES = Collections.emptyMap();
 	private static final Logger log = Logger.getLogger(Neo4jGraphComponent.class);
@@ -64,12 +74,31 @@ public class Neo4jGraphComponent extends GraphlikeComponent {
 		registerShutdownHook( graphDb );
 	}
 
+	private static final long[] NO_NODES = new long[0];
+
 	protected Map<Goal, Double> featureDict;
+	protected ConcurrentLinkedHashMap<String,long[]> nodeIds;
+	protected ConcurrentLinkedHashMap<Long,ConstantArgument> nodeNames;
+	protected ConcurrentLinkedHashMap<String,Boolean> functors;
+	// keyed by functor and source node name; see edgeKey()
+	protected ConcurrentLinkedHashMap<String,List<Argument>> neighbors;
+	protected ConcurrentLinkedHashMap<String,Integer> degrees;
 
 	public Neo4jGraphComponent(String dbPath) {
+		this(dbPath, DEFAULT_CACHE);
+	}
+	public Neo4jGraphComponent(String dbPath, int cacheSize) {
 		init(dbPath);
 		this.featureDict = new HashMap<Goal,Double>();
 		this.featureDict.put(new Goal("db",dbPath),1.0);
+		this.nodeIds = newCache(cacheSize);
+		this.nodeNames = newCache(cacheSize);
+		this.functors = newCache(cacheSize);
+		this.neighbors = newCache(cacheSize);
+		this.degrees = newCache(cacheSize);
+	}
+	private static <K,V> ConcurrentLinkedHashMap<K,V> newCache(int capacity) {
+		return new ConcurrentLinkedHashMap.Builder<K,V>().maximumWeightedCapacity(capacity).build();
 	}
 
 	@Override
@@ -92,6 +121,11 @@ public class Neo4jGraphComponent extends GraphlikeComponent {
 		Relationship relationship = srcNode.createRelationshipTo( dstNode, DynamicRelationshipType.withName(functor) );
 		relationship.setProperty( FUNCTOR_KEY, functor );
 		relIndex.add( relationship, FUNCTOR_KEY, functor);
+
+		String key = edgeKey(functor, src.getName());
+		this.neighbors.remove(key);
+		this.degrees.remove(key);
+		this.functors.put(functor, true);
 	}
 	private Node getOrMakeNode(String name) {
 		IndexHits<Node> hits = nodeIndex.get(NODENAME_KEY, name);
@@ -101,36 +135,87 @@ public class Neo4jGraphComponent extends GraphlikeComponent {
 			Node ret = graphDb.createNode();
 			ret.setProperty( NODENAME_KEY, name );
 			nodeIndex.add( ret, NODENAME_KEY, name );
+			this.nodeIds.remove(name);
 			return ret;
 		}
 	}
 
+	private static String edgeKey(String functor, String src) {
+		return functor+"\t"+src;
+	}
+
+	/** @return ids of the nodes called name */
+	private long[] nodeIds(String name) {
+		long[] ids = this.nodeIds.get(name);
+		if (ids != null) return ids;
+		IndexHits<Node> hits = nodeIndex.get( NODENAME_KEY, name );
+		try {
+			ids = new long[hits.size()];
+			int i=0;
+			for (Node n : hits) ids[i++] = n.getId();
+		} finally {
+			hits.close();
+		}
+		if (ids.length == 0) ids = NO_NODES;
+		this.nodeIds.put(name, ids);
+		return ids;
+	}
+
+	/** @return the name of node n, shared by every list it appears in */
+	private ConstantArgument nodeName(Node n) {
+		ConstantArgument a = this.nodeNames.get(n.getId());
+		if (a == null) {
+			a = ConstantArgument.intern((String) n.getProperty(NODENAME_KEY));
+			this.nodeNames.put(n.getId(), a);
+		}
+		return a;
+	}
+
 	@Override
 	protected boolean _indexContains(String functor) {
-		return relIndex.get(FUNCTOR_KEY, functor).hasNext();
+		Boolean c = this.functors.get(functor);
+		if (c == null) {
+			IndexHits<Relationship> hits = relIndex.get(FUNCTOR_KEY, functor);
+			try {
+				c = hits.hasNext();
+			} finally {
+				hits.close();
+			}
+			this.functors.put(functor, c);
+		}
+		return c;
 	}
 
 	@Override
 	protected List<Argument> _indexGet(String functor, Argument srcConst) {
-		IndexHits<Node> hits = nodeIndex.get( NODENAME_KEY, srcConst.getName() );
-		ArrayList<Argument> ret = new ArrayList<Argument>();
-		for (Node srcNode : hits) {
-			for (Relationship r : srcNode.getRelationships(DynamicRelationshipType.withName(functor), Direction.OUTGOING)) {
-				ret.add(new ConstantArgument((String) r.getEndNode().getProperty(NODENAME_KEY)));
+		String key = edgeKey(functor, srcConst.getName());
+		List<Argument> ret = this.neighbors.get(key);
+		if (ret != null) return ret;
+		ArrayList<Argument> list = new ArrayList<Argument>();
+		for (long id : nodeIds(srcConst.getName())) {
+			for (Relationship r : graphDb.getNodeById(id).getRelationships(DynamicRelationshipType.withName(functor), Direction.OUTGOING)) {
+				list.add(nodeName(r.getEndNode()));
 			}
 		}
+		ret = Collections.unmodifiableList(list);
+		this.neighbors.put(key, ret);
+		this.degrees.put(key, ret.size());
 		return ret;
 	}
 
 	@Override
 	protected int _indexGetDegree(String functor, Argument srcConst) {
-		IndexHits<Node> hits = nodeIndex.get( NODENAME_KEY, srcConst.getName() );
+		String key = edgeKey(functor, srcConst.getName());
+		Integer d = this.degrees.get(key);
+		if (d != null) return d;
+		// count relationships without reading the neighbors' names
 		int count=0;
-		for (Node srcNode : hits) {
-			for (Relationship r : srcNode.getRelationships(DynamicRelationshipType.withName(functor), Direction.OUTGOING)) { 
+		for (long id : nodeIds(srcConst.getName())) {
+			for (Relationship r : graphDb.getNodeById(id).getRelationships(DynamicRelationshipType.withName(functor), Direction.OUTGOING)) {
 				count++;
 			}
 		}
+		this.degrees.put(key, count);
 		return count;
 	}
 
@@ -187,7 +272,7 @@ public class Neo4jGraphComponent extends GraphlikeComponent {
 				String[] parts = cmd.split(" ");
 				String functor = parts[0],arg1=parts[1];
 				t1 = System.currentTimeMillis();
-				List<Argument> result = nc._indexGet(functor, new ConstantArgument(arg1));
+				List<Argument> result = nc._indexGet(functor, ConstantArgument.intern(arg1));
 				long t2 = System.currentTimeMillis();
 				System.out.println(result.size()+" results ("+(t2-t1)+")");
 				if (parts.length > 2 && "print".equals(parts[2])) {
@@ -0,0 +1,423 @@
+package edu.cmu.ml.praprolog.prove;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.praprolog.graph.GraphWriter;
+import edu.cmu.ml.praprolog.prove.LogicProgram.LogicProgramOutlink;
+import edu.cmu.ml.praprolog.util.Dictionary;
+
+/**
+ * Approximate personalized pagerank prover which pushes the states of a
+ * single proof in parallel.
+ *
+ * Work proceeds in rounds: every state whose residual is above epsilon
+ * times its degree is on the frontier, and the frontier is split into
+ * chunks which are pushed concurrently.  Residuals live in a concurrent
+ * table of per-state entries, each updated under its own lock, and a
+ * state whose residual crosses the threshold is queued for the next
+ * round.  The proof ends when a round finds nothing to push, so the
+ * same epsilon guarantee holds as for DprProver, though pushes happen
+ * in a different order and the scores may differ within that bound.
+ *
+ * Each state is expanded at most once: unless its claimant can count
+ * its children cheaply, a state is expanded when it is first reached,
+ * and its degree is the number of outlinks it got.  Proof limits and
+ * top-k proofs work as for DprProver, except that the top k are only
+ * checked between rounds.  Listener events come from the push threads,
+ * one at a time.
+ *
+ * The logic program is shared by all the push threads, just as it is
+ * shared by the threads of a multithreaded cooker.
+ */
+public class ParallelDprProver extends Prover {
+	private static final Logger log = Logger.getLogger(ParallelDprProver.class);
+	/** Frontiers smaller than this are pushed in the calling thread. */
+	public static final int MIN_PARALLEL_FRONTIER = 64;
+	/** Number of chunks to split the frontier into, per thread. */
+	public static final int CHUNKS_PER_THREAD = 4;
+	public static final int THREADS_DEFAULT = Runtime.getRuntime().availableProcessors();
+	private final double epsilon;
+	// not final, we might change it with the ADJUST_ALPHA strategy!
+	private volatile double minAlpha;
+	private final double stayProbability;
+	private final double moveProbability;
+	private final int minAlphaErrorStrategy;
+	private final int nthreads;
+	private final int minParallelFrontier;
+	// shared with copies
+	private final ExecutorService pool;
+	// per-proof limits; 0 means no limit
+	private int maxPushes=0, maxStates=0;
+	private long maxMillis=0;
+
+	@Override
+	public String toString() {
+		return String.format("pdpr:%.6g:%g:%s:%d", this.epsilon, this.minAlpha, new String[]{"adjust","boost","throw"}[minAlphaErrorStrategy-1], this.nthreads);
+	}
+
+	public ParallelDprProver() {
+		this(DprProver.EPS_DEFAULT,DprProver.MINALPH_DEFAULT);
+	}
+	public ParallelDprProver(double epsilon, double minalpha) {
+		this(epsilon,minalpha,DprProver.STRATEGY_DEFAULT,THREADS_DEFAULT);
+	}
+	public ParallelDprProver(double epsilon, double minalpha, int strat, int nthreads) {
+		this(epsilon,minalpha,strat,nthreads,MIN_PARALLEL_FRONTIER);
+	}
+	/**
+	 * @param minParallelFrontier frontiers smaller than this are pushed in the calling thread
+	 */
+	public ParallelDprProver(double epsilon, double minalpha, int strat, int nthreads, int minParallelFrontier) {
+		this(DprProver.STAYPROB_DEFAULT,epsilon,minalpha,strat,nthreads,minParallelFrontier,null);
+	}
+	protected ParallelDprProver(double stayP, double eps, double mina, int strat, int nthreads) {
+		this(stayP,eps,mina,strat,nthreads,MIN_PARALLEL_FRONTIER,null);
+	}
+	private ParallelDprProver(double stayP, double eps, double mina, int strat, int nthreads, int minParallelFrontier, ExecutorService pool) {
+		if (nthreads < 1) throw new IllegalArgumentException("Need at least one thread; got "+nthreads);
+		this.epsilon = eps;
+		this.minAlpha = mina;
+		this.stayProbability = stayP;
+		this.moveProbability = 1.0-stayProbability;
+		this.minAlphaErrorStrategy = strat;
+		this.nthreads = nthreads;
+		this.minParallelFrontier = minParallelFrontier;
+		this.pool = pool != null ? pool : newWorkerPool(nthreads, "pdpr-push");
+	}
+
+	/** The copy pushes in the same pool of threads as this prover. */
+	@Override
+	public Prover copy() {
+		ParallelDprProver copy = new ParallelDprProver(this.stayProbability, this.epsilon, this.minAlpha, this.minAlphaErrorStrategy,
+				this.nthreads, this.minParallelFrontier, this.pool);
+		copy.setLimits(this.maxPushes, this.maxStates, this.maxMillis);
+		return copy;
+	}
+
+	/**
+	 * Bound the work done for each query, as DprProver.setLimits does.
+	 * @param maxPushes maximum number of pushes; 0 for no limit
+	 * @param maxStates stop once this many states have been reached; 0 for no limit
+	 * @param maxMillis wall-clock time allowed per query, in msec; 0 for no limit
+	 */
+	public void setLimits(int maxPushes, int maxStates, long maxMillis) {
+		this.maxPushes = maxPushes;
+		this.maxStates = maxStates;
+		this.maxMillis = maxMillis;
+	}
+	public int getMaxPushes() {
+		return this.maxPushes;
+	}
+	public int getMaxStates() {
+		return this.maxStates;
+	}
+	public long getMaxMillis() {
+		return this.maxMillis;
+	}
+
+	/**
+	 * Score, residual and degree of one state, plus its expansion, which
+	 * is computed once, when the state is reached or first pushed.
+	 */
+	private static class StateEntry {
+		final LogicProgramState state;
+		final int degree;
+		double p=0, r=0;
+		final AtomicBoolean queued = new AtomicBoolean(false);
+		volatile List<LogicProgramOutlink> outs;
+		volatile LogicProgramOutlink restart;
+		StateEntry(LogicProgramState state, int degree, List<LogicProgramOutlink> outs) {
+			this.state = state;
+			this.degree = degree;
+			this.outs = outs;
+		}
+	}
+
+	/** Shared state of a single proof. */
+	private class Proof {
+		final LogicProgram lp;
+		final GraphWriter gw;
+		final ProverListener listener;
+		final ConcurrentHashMap<LogicProgramState,StateEntry> table = new ConcurrentHashMap<LogicProgramState,StateEntry>();
+		volatile ConcurrentLinkedQueue<StateEntry> next = new ConcurrentLinkedQueue<StateEntry>();
+		final AtomicInteger pushes = new AtomicInteger(0);
+		final long deadline;
+		/** why we stopped, one of the ProofResult constants; null if we haven't */
+		volatile String stoppedBy=null;
+		Proof(LogicProgram lp, GraphWriter gw, ProverListener listener) {
+			this.lp = lp;
+			this.gw = gw;
+			this.listener = listener;
+			this.deadline = maxMillis > 0 ? System.currentTimeMillis() + maxMillis : 0;
+		}
+
+		/**
+		 * @param restart whether the degree counts the restart link
+		 * @return a new entry for s, expanded now unless its claimant counts children cheaply
+		 */
+		StateEntry newEntry(LogicProgramState s, boolean restart) throws LogicProgramException {
+			if (s.isSolution() || lp.claimant(s).hasCheapDegree())
+				return new StateEntry(s, lp.lpDegree(s, true, restart), null);
+			List<LogicProgramOutlink> outs = expand(s);
+			return new StateEntry(s, outs.size() + (restart ? 1 : 0), outs);
+		}
+
+		StateEntry getEntry(LogicProgramState s) throws LogicProgramException {
+			StateEntry e = table.get(s);
+			if (e != null) return e;
+			// two threads may both expand the state; only one entry wins
+			e = newEntry(s, true);
+			if (e.degree == 0) throw new LogicProgramException("Zero degree for "+s);
+			StateEntry old = table.putIfAbsent(s, e);
+			return old == null ? e : old;
+		}
+
+		List<LogicProgramOutlink> expand(LogicProgramState s) throws LogicProgramException {
+			if (listener == null) return lp.lpOutlinks(s, true, false);
+			Component c = s.isSolution() ? null : lp.claimant(s);
+			long start = System.nanoTime();
+			List<LogicProgramOutlink> outs = lp.lpOutlinks(s, true, false);
+			long nanos = System.nanoTime() - start;
+			synchronized(listener) { listener.expand(s, c, outs.size(), nanos); }
+			return outs;
+		}
+
+		/** The restart link of u, given its outlinks, without counting its children again */
+		LogicProgramOutlink restart(LogicProgramState u, List<LogicProgramOutlink> outs) throws LogicProgramException {
+			if (u.isSolution()) return lp.lpRestartWeight(u, true);
+			return lp.weightForRestartEdge(lp.claimant(u).restartFeatureDict(u, outs.size()), u);
+		}
+
+		void addResidual(StateEntry e, double value) {
+			boolean pushable;
+			synchronized(e) {
+				e.r += value;
+				pushable = e.r / e.degree > epsilon;
+			}
+			if (pushable && e.queued.compareAndSet(false, true)) next.add(e);
+		}
+
+		/** @return false if the push limit is used up; otherwise count one push */
+		boolean reservePush() {
+			if (stoppedBy != null) return false;
+			if (pushes.incrementAndGet() > maxPushes && maxPushes > 0) {
+				pushes.decrementAndGet();
+				return false;
+			}
+			return true;
+		}
+
+		/** Check the limits after a push */
+		void checkLimits() {
+			if (maxPushes > 0 && pushes.get() >= maxPushes) stoppedBy = ProofResult.MAX_PUSHES;
+			else if (maxStates > 0 && table.size() >= maxStates) stoppedBy = ProofResult.MAX_STATES;
+			else if (deadline > 0 && System.currentTimeMillis() >= deadline) stoppedBy = ProofResult.DEADLINE;
+		}
+
+		/** @return 1 if u was pushed, 0 otherwise */
+		int push(StateEntry u) throws LogicProgramException {
+			// clear the flag first, so residual arriving after we take ru requeues u
+			u.queued.set(false);
+			// u keeps its residual, which the result counts
+			if (stoppedBy != null) return 0;
+			double alpha = minAlpha;
+			if (u.outs == null || u.restart == null) {
+				synchronized(u) {
+					if (u.outs == null) u.outs = expand(u.state);
+					if (u.restart == null) u.restart = restart(u.state, u.outs);
+				}
+			}
+			List<LogicProgramOutlink> outs = u.outs;
+			double unNormalizedAlpha = u.restart.getWeight();
+			double z = unNormalizedAlpha;
+			for (LogicProgramOutlink o : outs) z += o.getWeight();
+			double localAlpha = unNormalizedAlpha / z;
+			if (localAlpha < alpha) {
+				if (minAlphaErrorStrategy==DprProver.ADJUST_ALPHA) {
+					alpha = adjustMinAlpha(localAlpha, listener);
+				} else if (minAlphaErrorStrategy==DprProver.BOOST_ALPHA) {
+					double amountToBoost = (alpha*z - unNormalizedAlpha)/(1.0 - alpha);
+					z += amountToBoost;
+					unNormalizedAlpha += amountToBoost;
+					localAlpha = unNormalizedAlpha/z;
+				} else {
+					throw new MinAlphaException(alpha,localAlpha,u.state);
+				}
+			}
+
+			if (!reservePush()) return 0;
+			double ru;
+			synchronized(u) {
+				ru = u.r;
+				if (ru / u.degree <= epsilon) {
+					pushes.decrementAndGet();
+					return 0;
+				}
+				u.p += alpha * ru;
+				u.r = ru * stayProbability * (1.0-alpha);
+			}
+			if (listener != null) {
+				synchronized(listener) {
+					listener.push(u.state, ru, u.degree);
+					listener.restart(u.state, z * (localAlpha - alpha));
+				}
+			}
+			double scale = moveProbability * ru / z;
+			for (LogicProgramOutlink o : outs) {
+				addResidual(getEntry(o.getState()), scale * o.getWeight());
+			}
+			// include the reset state with weight (alph - minAlpha):
+			addResidual(getEntry(u.restart.getState()), scale * z * (localAlpha - alpha));
+			// with a lazy walk some residual stays behind
+			addResidual(u, 0);
+
+			if (gw != null) {
+				synchronized(gw) {
+					gw.writeEdge(u.state, u.restart.getState(), u.restart.getFeatureList());
+					for (LogicProgramOutlink o : outs) gw.writeEdge(u.state, o.getState(), o.getFeatureList());
+				}
+			}
+			checkLimits();
+			return 1;
+		}
+
+		int pushAll(List<StateEntry> chunk) throws LogicProgramException {
+			int n=0;
+			for (StateEntry u : chunk) n += push(u);
+			return n;
+		}
+
+		/** @return the number of pushes made in this round */
+		int round(final List<StateEntry> frontier) throws LogicProgramException {
+			if (frontier.size() < minParallelFrontier || nthreads == 1) return pushAll(frontier);
+			int nchunks = Math.min(frontier.size(), nthreads*CHUNKS_PER_THREAD);
+			List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(nchunks);
+			for (int i=0; i<nchunks; i++) {
+				final List<StateEntry> chunk = frontier.subList(i*frontier.size()/nchunks, (i+1)*frontier.size()/nchunks);
+				tasks.add(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						return pushAll(chunk);
+					}
+				});
+			}
+			int n=0;
+			try {
+				for (Future<Integer> f : pool.invokeAll(tasks)) n += f.get();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException("Interrupted while pushing",e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof LogicProgramException) throw (LogicProgramException) e.getCause();
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+			return n;
+		}
+
+		/** Between rounds: @return the residual left over all states */
+		double totalResidual() {
+			double sum = 0;
+			for (StateEntry e : table.values()) sum += e.r;
+			return sum;
+		}
+
+		/** Between rounds: @return the number of states holding residual */
+		int numResidual() {
+			int n = 0;
+			for (StateEntry e : table.values()) if (e.r > 0) n++;
+			return n;
+		}
+
+		/** Between rounds: @return true if the order of the top k solutions is certain */
+		boolean topKCertain(int k) {
+			Map<String,Double> solutions = new HashMap<String,Double>();
+			for (StateEntry e : table.values()) {
+				if (e.state.isSolution() && e.p > 0) Dictionary.increment(solutions, e.state.description(), e.p, "(elided)");
+			}
+			return DprProver.TopK.certain(solutions.values(), k, totalResidual());
+		}
+	}
+
+	private synchronized double adjustMinAlpha(double localAlpha, ProverListener listener) {
+		if (localAlpha < this.minAlpha) {
+			log.warn("decreasing minAlpha from "+minAlpha+" to "+localAlpha);
+			if (listener != null) {
+				synchronized(listener) { listener.adjustAlpha(this.minAlpha, localAlpha); }
+			}
+			this.minAlpha = localAlpha;
+		}
+		return this.minAlpha;
+	}
+
+	@Override
+	public Map<LogicProgramState, Double> proveState(LogicProgram lp, LogicProgramState state0, GraphWriter gw) {
+		return this.prove(lp, state0, gw, 0).getScores();
+	}
+
+	@Override
+	public ProofResult prove(LogicProgram lp, LogicProgramState state0, GraphWriter gw, int topk) {
+		ProverListener listener = this.listener;
+		if (listener != null) listener.startProof(state0);
+		Proof proof = new Proof(lp,gw,listener);
+		int numPushes=0, numRounds=0, peakResidual=0;
+		try {
+			StateEntry e0 = proof.newEntry(state0, false);
+			proof.table.put(state0, e0);
+			proof.addResidual(e0, 1.0);
+			// check the top k as often as DprProver does: after a number of pushes proportional to the table size
+			int pushesToCheck = DprProver.TopK.MIN_CHECK_INTERVAL;
+			while (!proof.next.isEmpty()) {
+				List<StateEntry> frontier = new ArrayList<StateEntry>(proof.next);
+				proof.next = new ConcurrentLinkedQueue<StateEntry>();
+				int pushes = proof.round(frontier);
+				numRounds++;
+				numPushes += pushes;
+				if (log.isDebugEnabled()) log.debug("Round: "+numRounds+" frontier: "+frontier.size()+" pushes: "+pushes+" states: "+proof.table.size());
+				if (listener != null) peakResidual = Math.max(peakResidual, proof.numResidual());
+				if (proof.stoppedBy != null) {
+					log.warn("Proof of "+state0+" truncated at "+proof.stoppedBy+" limit after "+numPushes+" pushes, "
+							+proof.table.size()+" states; residual "+proof.totalResidual());
+					break;
+				}
+				if (topk > 0 && (pushesToCheck -= pushes) <= 0) {
+					pushesToCheck = Math.max(DprProver.TopK.MIN_CHECK_INTERVAL, proof.table.size());
+					if (proof.topKCertain(topk)) {
+						if (log.isInfoEnabled()) log.info("top "+topk+" solutions certified after "+numPushes+" pushes");
+						proof.stoppedBy = ProofResult.TOPK;
+						break;
+					}
+				}
+			}
+			if (log.isInfoEnabled()) log.info("total rounds "+numRounds+" total pushes "+numPushes+" states "+proof.table.size());
+		} catch (LogicProgramException e) {
+			throw new IllegalStateException(e);
+		}
+		Map<LogicProgramState,Double> scores = new HashMap<LogicProgramState,Double>();
+		for (StateEntry e : proof.table.values()) {
+			if (e.p > 0) scores.put(e.state, e.p);
+		}
+		ProofResult result = new ProofResult(scores, proof.totalResidual(), proof.stoppedBy, numPushes);
+		if (listener != null) listener.endProof(result, proof.table.size(), peakResidual);
+		return result;
+	}
+
+	public double getAlpha() {
+		return this.minAlpha;
+	}
+	public int getNumThreads() {
+		return this.nthreads;
+	}
+}
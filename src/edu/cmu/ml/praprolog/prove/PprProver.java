@@ -1,78 +1,195 @@
 package edu.cmu.ml.praprolog.prove;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 
 import edu.cmu.ml.praprolog.graph.GraphWriter;
 import edu.cmu.ml.praprolog.prove.LogicProgram.LogicProgramOutlink;
 import edu.cmu.ml.praprolog.prove.Prover;
-import edu.cmu.ml.praprolog.util.Dictionary;
 
+/**
+ * Prover which walks the proof graph to a fixed depth, carrying the
+ * whole distribution over states one step at a time.
+ *
+ * States are interned to dense ids and the distribution is kept in a
+ * pair of primitive arrays.  With more than one thread, each step's
+ * frontier is split into chunks which are expanded in parallel; the
+ * expansions are then merged in frontier order, so the result (and the
+ * graph written) is the same as with one thread.
+ */
 public class PprProver extends Prover {
 	private static final Logger log = Logger.getLogger(PprProver.class);
 	private static final boolean RESTART = true;
 	private static final boolean TRUELOOP = true;
 	public static final int DEFAULT_MAXDEPTH=5;
+	public static final int DEFAULT_THREADS=1;
+	/** Number of chunks to split the frontier into, per thread. */
+	public static final int CHUNKS_PER_THREAD = 4;
+	/** Frontiers smaller than this are expanded in the calling thread. */
+	public static final int MIN_PARALLEL_FRONTIER = 64;
 	protected int maxDepth;
 	protected boolean trace;
-	
+	protected int nthreads;
+	// shared with copies
+	private final ExecutorService pool;
+	int minParallelFrontier = MIN_PARALLEL_FRONTIER;
+
 	public PprProver() { this(DEFAULT_MAXDEPTH); }
 	public PprProver(int md) {
 		this(md,false);
 	}
 	public PprProver(int md, boolean tr) {
+		this(md,tr,DEFAULT_THREADS);
+	}
+	public PprProver(int md, boolean tr, int nthreads) {
+		this(md,tr,nthreads,null);
+	}
+	private PprProver(int md, boolean tr, int nthreads, ExecutorService pool) {
+		if (nthreads < 1) throw new IllegalArgumentException("Need at least one thread; got "+nthreads);
 		this.maxDepth=md;
 		trace=tr;
+		this.nthreads=nthreads;
+		this.pool = pool != null ? pool : newWorkerPool(nthreads, "ppr-expand");
 	}
-	
+
 	@Override
-	public String toString() { return "ppr:"+this.maxDepth; }
-	
+	public String toString() {
+		if (this.nthreads == DEFAULT_THREADS) return "ppr:"+this.maxDepth;
+		return "ppr:"+this.maxDepth+":"+this.nthreads;
+	}
+
+	/** The copy expands frontiers in the same pool of threads as this prover. */
 	public Prover copy() {
-		return new PprProver(this.maxDepth, this.trace);
+		PprProver copy = new PprProver(this.maxDepth, this.trace, this.nthreads, this.pool);
+		copy.minParallelFrontier = this.minParallelFrontier;
+		return copy;
 	}
-	
+
 	public void setMaxDepth(int i) {
 		this.maxDepth = i;
 	}
 	public void setTrace(boolean b) {
 		this.trace = b;
 	}
+	public int getNumThreads() {
+		return this.nthreads;
+	}
+
+	/** The probability mass on each state, indexed by the ids of a shared StateTable */
+	private static class Distribution {
+		double[] mass;
+		BitSet support = new BitSet();
+		Distribution(int capacity) { this.mass = new double[capacity]; }
+		void increment(int id, double value) {
+			if (id >= mass.length) mass = Arrays.copyOf(mass, Math.max(id+1, 2*mass.length));
+			mass[id] += value;
+			support.set(id);
+		}
+	}
+
 	public Map<LogicProgramState, Double> proveState(LogicProgram lp,
 			LogicProgramState state0, GraphWriter gw) {
-		Map<LogicProgramState,Double> startVec = new HashMap<LogicProgramState,Double>();
-		startVec.put(state0,1.0);
-		Map<LogicProgramState,Double> vec = startVec;
-		
+		StateTable table = new StateTable();
+		Distribution vec = new Distribution(StateTable.DEFAULT_CAPACITY);
+		vec.increment(table.intern(state0), 1.0);
+
 		for (int i=0; i<this.maxDepth; i++) {
-			vec = walkOnce(lp, vec, gw);
+			vec = walkOnce(lp, table, vec, gw);
 			if (log.isInfoEnabled()) log.info("iteration/descent "+(i-1)+" complete");
 			if(log.isDebugEnabled()) log.debug("after iteration "+(i+1)+" :"+
-					Dictionary.buildString(vec,new StringBuilder(),"\n\t").toString());
+					vec.support.cardinality()+" states");
 		}
-		
-		return vec;
+
+		Map<LogicProgramState,Double> result = new HashMap<LogicProgramState,Double>();
+		for (int id = vec.support.nextSetBit(0); id >= 0; id = vec.support.nextSetBit(id+1)) {
+			result.put(table.getState(id), vec.mass[id]);
+		}
+		return result;
 	}
-	protected Map<LogicProgramState, Double> walkOnce(LogicProgram lp,
-			Map<LogicProgramState, Double> vec, GraphWriter gw) {
-		
-		Map<LogicProgramState, Double> nextVec = new HashMap<LogicProgramState, Double>();
-		int i=1,n=vec.size();
-		for (Map.Entry<LogicProgramState, Double> s : vec.entrySet()) {
-			log.info("state "+(i++)+" of "+n);
-			try {
-				for (LogicProgramOutlink o : lp.lpNormalizedOutlinks(s.getKey(), TRUELOOP, RESTART)) {
-					if (gw != null) gw.writeEdge(s.getKey(), o.getState(), o.getFeatureList());
-					if (log.isTraceEnabled()) log.trace("walkonce normalizedOutlinks "+s.getKey()+" "+o.getWeight()+" "+o.getState());
-					Dictionary.increment(nextVec, o.getState(), o.getWeight() * s.getValue(),"(elided)");
+
+	private Distribution walkOnce(final LogicProgram lp, StateTable table, Distribution vec, GraphWriter gw) {
+		final int[] frontier = new int[vec.support.cardinality()];
+		final LogicProgramState[] states = new LogicProgramState[frontier.length];
+		int n=0;
+		for (int id = vec.support.nextSetBit(0); id >= 0; id = vec.support.nextSetBit(id+1)) {
+			frontier[n] = id;
+			states[n++] = table.getState(id);
+		}
+		final List<Iterable<LogicProgramOutlink>> expansions = expand(lp, states);
+
+		Distribution nextVec = new Distribution(table.size());
+		long last = System.currentTimeMillis();
+		for (int i=0; i<n; i++) {
+			if (log.isInfoEnabled()) {
+				long now = System.currentTimeMillis();
+				if (now - last > 1000) {
+					log.info("state "+(i+1)+" of "+n);
+					last = now;
+				}
+			}
+			LogicProgramState s = states[i];
+			double w = vec.mass[frontier[i]];
+			for (LogicProgramOutlink o : expansions.get(i)) {
+				if (gw != null) gw.writeEdge(s, o.getState(), o.getFeatureList());
+				if (log.isTraceEnabled()) log.trace("walkonce normalizedOutlinks "+s+" "+o.getWeight()+" "+o.getState());
+				nextVec.increment(table.intern(o.getState()), o.getWeight() * w);
+			}
+		}
+		return nextVec;
+	}
+
+	/**
+	 * @return the normalized outlinks of each state, in the same order
+	 */
+	private List<Iterable<LogicProgramOutlink>> expand(final LogicProgram lp, final LogicProgramState[] states) {
+		final List<Iterable<LogicProgramOutlink>> expansions = new ArrayList<Iterable<LogicProgramOutlink>>(states.length);
+		for (int i=0; i<states.length; i++) expansions.add(null);
+		if (this.nthreads == 1 || states.length < this.minParallelFrontier) {
+			expandRange(lp, states, expansions, 0, states.length);
+			return expansions;
+		}
+		int nchunks = Math.min(states.length, this.nthreads*CHUNKS_PER_THREAD);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nchunks);
+		for (int c=0; c<nchunks; c++) {
+			final int lo = c*states.length/nchunks, hi = (c+1)*states.length/nchunks;
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					expandRange(lp, states, expansions, lo, hi);
+					return null;
 				}
+			});
+		}
+		try {
+			for (Future<Object> f : pool.invokeAll(tasks)) f.get();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException("Interrupted while expanding frontier",e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+		return expansions;
+	}
+
+	private void expandRange(LogicProgram lp, LogicProgramState[] states, List<Iterable<LogicProgramOutlink>> expansions, int lo, int hi) {
+		// each chunk sets only its own elements of expansions
+		for (int i=lo; i<hi; i++) {
+			try {
+				expansions.set(i, lp.lpNormalizedOutlinks(states[i], TRUELOOP, RESTART));
 			} catch (LogicProgramException e) {
 				throw new IllegalStateException(e);
 			}
 		}
-		return nextVec;
 	}
 
 }
@@ -0,0 +1,138 @@
+package edu.cmu.ml.praprolog.prove;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+
+import edu.cmu.ml.praprolog.graph.GraphWriter;
+import edu.cmu.ml.praprolog.graph.ProofGraph;
+import edu.cmu.ml.praprolog.learn.tools.WeightingScheme;
+
+/**
+ * Proofs of queries, kept so that they can be re-scored under new
+ * parameters without proving them again.
+ *
+ * Each query is proved once, and its proof graph frozen in a ProofGraph;
+ * after that, re-scoring walks the frozen graph and never touches the
+ * components of the program.  This is only sound when the structure of
+ * the proof doesn't depend on the parameters, as when the reranking
+ * classes prove with fixed weights and only re-weight the graph.
+ *
+ * Proofs are valid for a single logic program: asking the cache about
+ * a different program empties it.  At most capacity proofs are kept; past
+ * that, the least recently used are dropped and proved again if asked for.
+ */
+public class ProofCache {
+	private static final Logger log = Logger.getLogger(ProofCache.class);
+	public static final int DEFAULT_CAPACITY = 10000;
+	protected LogicProgram program = null;
+	protected final ConcurrentLinkedHashMap<LogicProgramState,CachedProof> proofs;
+	protected int hits=0, misses=0;
+
+	public ProofCache() {
+		this(DEFAULT_CAPACITY);
+	}
+	/** @param capacity the most proofs to keep */
+	public ProofCache(int capacity) {
+		this.proofs = new ConcurrentLinkedHashMap.Builder<LogicProgramState,CachedProof>()
+				.maximumWeightedCapacity(capacity)
+				.build();
+	}
+
+	/** One proved query. */
+	public static class CachedProof {
+		protected final Map<LogicProgramState,Double> scores;
+		protected final ProofGraph graph;
+		protected final int start;
+		// graph id of each solution state
+		protected final Map<LogicProgramState,Integer> solutions = new HashMap<LogicProgramState,Integer>();
+
+		public CachedProof(Map<LogicProgramState,Double> scores, GraphWriter writer, LogicProgramState state0) {
+			this.scores = scores;
+			this.graph = new ProofGraph(writer);
+			this.start = Integer.parseInt(writer.getId(state0));
+			for (LogicProgramState s : scores.keySet()) {
+				if (s.isSolution()) this.solutions.put(s, Integer.parseInt(writer.getId(s)));
+			}
+		}
+
+		/** @return a copy of the scores of the original proof */
+		public Map<LogicProgramState,Double> getScores() {
+			return new HashMap<LogicProgramState,Double>(this.scores);
+		}
+		public ProofGraph getGraph() {
+			return this.graph;
+		}
+
+		/**
+		 * Walk the proof graph under params, as SRW.rwrUsingFeatures would.
+		 * @return the scores of the original proof, with each solution's score
+		 * replaced by its score after the walk; solutions the walk doesn't
+		 * reach are removed.
+		 */
+		public Map<LogicProgramState,Double> rescore(Map<String,Double> params, WeightingScheme scheme, int maxT) {
+			// a proof with no edges leaves nothing to walk
+			double[] vec = this.start > 0 ? this.graph.walk(this.start, params, scheme, maxT) : new double[0];
+			Map<LogicProgramState,Double> result = getScores();
+			for (Map.Entry<LogicProgramState,Integer> e : this.solutions.entrySet()) {
+				double score = e.getValue() > 0 && e.getValue() < vec.length ? vec[e.getValue()] : Double.NaN;
+				if (Double.isNaN(score)) {
+					log.warn("RWR did not retrieve baseline solution "+e.getKey()+"; removing");
+					result.remove(e.getKey());
+				} else {
+					result.put(e.getKey(), score);
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Fetch the proof of state0 in program, proving it with prover if we
+	 * haven't yet.
+	 * @param prover
+	 * @param program
+	 * @param state0
+	 * @return
+	 */
+	public CachedProof get(Prover prover, LogicProgram program, LogicProgramState state0) {
+		synchronized(this) {
+			if (program != this.program) {
+				if (this.program != null) log.info("Logic program changed; forgetting "+this.proofs.size()+" cached proofs");
+				clear();
+				this.program = program;
+			}
+			CachedProof proof = this.proofs.get(state0);
+			if (proof != null) {
+				hits++;
+				return proof;
+			}
+			misses++;
+		}
+		// prove outside the lock, so that multithreaded callers prove different queries at once
+		GraphWriter writer = new GraphWriter();
+		Map<LogicProgramState,Double> scores = prover.proveState(program, state0, writer);
+		CachedProof proof = new CachedProof(scores, writer, state0);
+		synchronized(this) {
+			if (program == this.program) this.proofs.put(state0, proof);
+		}
+		return proof;
+	}
+
+	public synchronized void clear() {
+		this.proofs.clear();
+		this.program = null;
+	}
+	public synchronized int size() {
+		return this.proofs.size();
+	}
+	public int getHits() {
+		return hits;
+	}
+	public int getMisses() {
+		return misses;
+	}
+}
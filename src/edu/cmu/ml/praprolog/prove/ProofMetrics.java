@@ -0,0 +1,99 @@
+package edu.cmu.ml.praprolog.prove;
+
+/**
+ * Collects the cost of proving a single query: pushes, states reached,
+ * the peak number of states holding residual, and how many outlink
+ * expansions each component of the program did and how long they took.
+ *
+ * toString() gives the metrics as one tab-separated line, with columns
+ * as in HEADER.  The last column lists every component of the program,
+ * in order, as 'INDEX:CLASS:CALLS:MSEC', separated by commas.
+ */
+public class ProofMetrics extends ProverListener {
+	public static final String HEADER = "query\tmsec\tpushes\tstates\tpeakResidual\toutlinkCalls\texpandMsec\talphaAdjustments\tstoppedBy\tcomponents";
+	protected final String query;
+	protected final Component[] components;
+	protected final int[] componentCalls;
+	protected final long[] componentNanos;
+	protected long startTime=0, endTime=0;
+	protected int pushes=0, states=0, peakResidual=0, outlinkCalls=0, alphaAdjustments=0;
+	protected long expandNanos=0;
+	protected String stoppedBy=null;
+
+	public ProofMetrics(LogicProgram program, String query) {
+		this.query = query;
+		this.components = program.getComponents();
+		this.componentCalls = new int[this.components.length];
+		this.componentNanos = new long[this.components.length];
+	}
+
+	@Override
+	public void startProof(LogicProgramState state0) {
+		this.startTime = System.currentTimeMillis();
+	}
+	@Override
+	public void push(LogicProgramState u, double ru, int degree) {
+		this.pushes++;
+	}
+	@Override
+	public void expand(LogicProgramState u, Component c, int n, long nanos) {
+		this.outlinkCalls++;
+		this.expandNanos += nanos;
+		for (int i=0; i<this.components.length; i++) {
+			if (this.components[i] == c) {
+				this.componentCalls[i]++;
+				this.componentNanos[i] += nanos;
+				return;
+			}
+		}
+	}
+	@Override
+	public void adjustAlpha(double from, double to) {
+		this.alphaAdjustments++;
+	}
+	@Override
+	public void endProof(ProofResult result, int numStates, int peakResidual) {
+		this.endTime = System.currentTimeMillis();
+		this.states = numStates;
+		this.peakResidual = peakResidual;
+		this.stoppedBy = result.getStoppedBy();
+	}
+
+	public String getQuery() { return query; }
+	public long getMillis() { return endTime - startTime; }
+	public int getPushes() { return pushes; }
+	public int getStates() { return states; }
+	public int getPeakResidual() { return peakResidual; }
+	public int getOutlinkCalls() { return outlinkCalls; }
+	public long getExpandNanos() { return expandNanos; }
+	public int getAlphaAdjustments() { return alphaAdjustments; }
+	/** @return number of expansions done by the i'th component of the program */
+	public int getComponentCalls(int i) { return componentCalls[i]; }
+	/** @return nanoseconds spent in expansions by the i'th component of the program */
+	public long getComponentNanos(int i) { return componentNanos[i]; }
+
+	private static String millis(long nanos) {
+		return String.format("%.3f", nanos / 1e6);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(this.query);
+		sb.append("\t").append(getMillis())
+		.append("\t").append(pushes)
+		.append("\t").append(states)
+		.append("\t").append(peakResidual)
+		.append("\t").append(outlinkCalls)
+		.append("\t").append(millis(expandNanos))
+		.append("\t").append(alphaAdjustments)
+		.append("\t").append(stoppedBy == null ? "-" : stoppedBy)
+		.append("\t");
+		for (int i=0; i<this.components.length; i++) {
+			if (i>0) sb.append(",");
+			sb.append(i).append(":").append(this.components[i].getClass().getSimpleName())
+			.append(":").append(componentCalls[i])
+			.append(":").append(millis(componentNanos[i]));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,89 @@
+package edu.cmu.ml.praprolog.prove;
+
+import java.util.Map;
+
+/**
+ * The outcome of proving a query: the score of every state reached,
+ * plus enough bookkeeping to say how far those scores are from the
+ * converged ones.
+ *
+ * For a push-based prover, residualMass is the total residual left
+ * unpushed when the prover stopped.  No state's score can grow by more
+ * than that, so getScores() gives a lower bound and getScores()+residualMass
+ * an upper bound for every state, including those not yet reached.
+ *
+ * A result is truncated if the prover stopped before its usual
+ * convergence criterion; getStoppedBy() says why.
+ */
+public class ProofResult {
+	/** The order of the top k solutions was certain */
+	public static final String TOPK = "topk";
+	/** The prover hit its limit on the number of pushes */
+	public static final String MAX_PUSHES = "pushes";
+	/** The prover hit its limit on the number of states */
+	public static final String MAX_STATES = "states";
+	/** The prover ran out of time */
+	public static final String DEADLINE = "deadline";
+	protected Map<LogicProgramState,Double> scores;
+	protected double residualMass;
+	protected String stoppedBy;
+	protected int numPushes;
+
+	/** A complete result, with no bound information */
+	public ProofResult(Map<LogicProgramState,Double> scores) {
+		this(scores,0.0,null,0);
+	}
+	/**
+	 * @param stoppedBy one of TOPK, MAX_PUSHES, MAX_STATES, DEADLINE, or null if the proof converged
+	 */
+	public ProofResult(Map<LogicProgramState,Double> scores, double residualMass, String stoppedBy, int numPushes) {
+		this.scores = scores;
+		this.residualMass = residualMass;
+		this.stoppedBy = stoppedBy;
+		this.numPushes = numPushes;
+	}
+
+	public Map<LogicProgramState,Double> getScores() {
+		return scores;
+	}
+	/**
+	 * @return total residual the prover left unpushed
+	 */
+	public double getResidualMass() {
+		return residualMass;
+	}
+	/**
+	 * @return true if the prover stopped before reaching its usual convergence criterion
+	 */
+	public boolean isTruncated() {
+		return stoppedBy != null;
+	}
+	/**
+	 * @return why the prover stopped early, or null if it didn't
+	 */
+	public String getStoppedBy() {
+		return stoppedBy;
+	}
+	/**
+	 * @return true if the prover gave up on a limit, so that the scores
+	 * are only as good as the work it was allowed to do
+	 */
+	public boolean hitLimit() {
+		return stoppedBy != null && !TOPK.equals(stoppedBy);
+	}
+	public int getNumPushes() {
+		return numPushes;
+	}
+	/**
+	 * @return solutions, each with the score that has been certified so far
+	 */
+	public Map<String,Double> getSolutions() {
+		return Prover.filterSolutions(this.scores);
+	}
+	public double lowerBound(double score) {
+		return score;
+	}
+	public double upperBound(double score) {
+		return score + this.residualMass;
+	}
+}
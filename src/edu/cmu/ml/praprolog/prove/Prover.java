@@ -2,12 +2,41 @@ package edu.cmu.ml.praprolog.prove;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import edu.cmu.ml.praprolog.graph.GraphWriter;
 import edu.cmu.ml.praprolog.util.Dictionary;
 import edu.cmu.ml.praprolog.util.SymbolTable;
 
 public abstract class Prover {
+	/** Seconds an idle thread of a worker pool waits for work before it exits */
+	public static final long WORKER_KEEP_ALIVE_SECONDS = 5;
+	protected ProverListener listener = null;
+
+	/**
+	 * A pool of nthreads threads, for provers which work on a single proof in
+	 * parallel. Threads are only started when there is work, and exit when
+	 * they've been idle for WORKER_KEEP_ALIVE_SECONDS, so a prover which is
+	 * dropped without shutting its pool down leaves no threads behind.
+	 */
+	protected static ExecutorService newWorkerPool(int nthreads, final String name) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(nthreads, nthreads,
+				WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
     public static Map<String,Double> filterSolutions(Map<LogicProgramState,Double> vec) {
         Map<String,Double> result = new HashMap<String,Double> ();
         for (Map.Entry<LogicProgramState,Double> s : vec.entrySet()) {
@@ -31,7 +60,7 @@ public abstract class Prover {
 		SymbolTable variableSymTab = new SymbolTable();
 		for (int i=0; i<args.length; i++) {
 			if (args[i].startsWith("_") || args[i].matches("[A-Z].*")) a[i] = variableSymTab.getId(args[i]);
-			else a[i] = new ConstantArgument(args[i]);
+			else a[i] = ConstantArgument.intern(args[i]);
 		}
 		Goal g = new Goal(goal, a);
 		Goal[] goals = {g};
@@ -65,5 +94,33 @@ public abstract class Prover {
 		return this.proveState(lp, state0, null);
 	}
 	public abstract Map<LogicProgramState, Double> proveState(LogicProgram lp, LogicProgramState state0, GraphWriter w);
+	/**
+	 * Prove state0, stopping as soon as the order of the top k solutions
+	 * is certain if the prover knows how to tell.  By default the query
+	 * is proved completely, and the listener only hears about the start
+	 * and end of the proof.
+	 * @param lp
+	 * @param state0
+	 * @param w
+	 * @param topk number of solutions whose order must be certain; 0 for a complete proof
+	 * @return
+	 */
+	public ProofResult prove(LogicProgram lp, LogicProgramState state0, GraphWriter w, int topk) {
+		if (this.listener != null) this.listener.startProof(state0);
+		ProofResult result = new ProofResult(this.proveState(lp, state0, w));
+		if (this.listener != null) this.listener.endProof(result, result.getScores().size(), 0);
+		return result;
+	}
+	/**
+	 * Report the events of each proof to l, or to nobody if l is null.
+	 * The listener is not carried over by copy().
+	 * @param l
+	 */
+	public void setListener(ProverListener l) {
+		this.listener = l;
+	}
+	public ProverListener getListener() {
+		return this.listener;
+	}
 	public abstract Prover copy();
 }
@@ -0,0 +1,28 @@
+package edu.cmu.ml.praprolog.prove;
+
+/**
+ * Receives events from a prover as it works through a single query.
+ * 
+ * Events arrive on the proving thread in the middle of the proof, so
+ * implementations should be cheap; a prover with no listener pays only
+ * a null check per event.  Override just the events you need.
+ */
+public abstract class ProverListener {
+	/** The prover is starting a proof from state0 */
+	public void startProof(LogicProgramState state0) {}
+	/** State u is being pushed, with residual ru and the given degree */
+	public void push(LogicProgramState u, double ru, int degree) {}
+	/** Component c expanded state u into n outlinks, in the given number of nanoseconds */
+	public void expand(LogicProgramState u, Component c, int n, long nanos) {}
+	/** The restart edge from state u gets the given weight */
+	public void restart(LogicProgramState u, double weight) {}
+	/** The prover lowered minAlpha to fit a state */
+	public void adjustAlpha(double from, double to) {}
+	/**
+	 * The proof is done.
+	 * @param result
+	 * @param numStates number of states reached
+	 * @param peakResidual largest number of states holding residual at once
+	 */
+	public void endProof(ProofResult result, int numStates, int peakResidual) {}
+}
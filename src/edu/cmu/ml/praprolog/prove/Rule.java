@@ -1,5 +1,6 @@
 package edu.cmu.ml.praprolog.prove;
 
+import edu.cmu.ml.praprolog.prove.feat.ComplexFeature;
 import edu.cmu.ml.praprolog.prove.feat.ComplexFeatureLibrary;
 import edu.cmu.ml.praprolog.util.Dictionary;
 import edu.cmu.ml.praprolog.util.SymbolTable;
@@ -40,13 +41,33 @@ public class Rule {
      * @throws LogicProgramException
      */
     public Map<Goal, Double> featuresAsDict(RenamingSubstitution theta, int renamedP) throws LogicProgramException {
+        return featuresAsDict(theta, renamedP, null);
+    }
+
+    /**
+     * As featuresAsDict(theta, renamedP), computing any complex features
+     * with the library.
+     *
+     * @param theta
+     * @param renamedP
+     * @param library  complex features of the program; may be null if the rule has none
+     * @return
+     * @throws LogicProgramException
+     */
+    public Map<Goal, Double> featuresAsDict(RenamingSubstitution theta, int renamedP, ComplexFeatureLibrary library)
+            throws LogicProgramException {
         Map<Goal, Double> result = new HashMap<Goal, Double>();
         for (Goal g0 : this.features) {
 
             String g0Functor = g0.getFunctor();
             if (ComplexFeatureLibrary.isComplexFeature(g0Functor)) {
-                result.putAll(ComplexFeatureLibrary.getFeature(g0Functor)
-                                                   .featuresAsDict(theta, renamedP, g0));
+                if (library == null)
+                    throw new IllegalStateException("No complex feature library loaded for feature " + g0
+                            + " of rule " + this);
+                ComplexFeature cf = library.getFeature(g0Functor);
+                if (cf == null)
+                    throw new LogicProgramException("No complex feature " + g0Functor + " for rule " + this);
+                result.putAll(cf.featuresAsDict(theta, renamedP, g0));
 
             } else {
                 Goal g = theta.applyToGoal(g0, renamedP);
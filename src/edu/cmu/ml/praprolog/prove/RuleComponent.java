@@ -1,5 +1,6 @@
 package edu.cmu.ml.praprolog.prove;
 
+import edu.cmu.ml.praprolog.prove.feat.ComplexFeatureLibrary;
 import edu.cmu.ml.praprolog.util.Dictionary;
 import edu.cmu.ml.praprolog.util.ParsedFile;
 import edu.cmu.ml.praprolog.util.SymbolTable;
@@ -12,11 +13,103 @@ public class RuleComponent extends Component {
     private static final Logger log = Logger.getLogger(RuleComponent.class);
     public static final String FILE_EXTENSION = ".crules";
     protected Map<String, List<Rule>> index = new HashMap<String, List<Rule>>();
+    // built from index the first time it's needed; add() and compile() discard it
+    private volatile Map<String, HeadIndex> headIndexes = null;
+    // complex features of the program this component belongs to
+    protected volatile ComplexFeatureLibrary complexFeatures = null;
 
     public void add(Rule rule) {
         String key = key(rule.lhs);
         if (log.isDebugEnabled()) log.debug("Adding [" + rule + "] to [" + key + "]");
+        boolean added = !this.index.containsKey(key);
         Dictionary.safeAppend(index, key, rule);
+        this.headIndexes = null;
+        if (added) signaturesChanged();
+    }
+
+    /**
+     * The rules for one functor/arity, indexed by the constants in their
+     * heads: for each argument position, which rules have each constant
+     * there, and which have a variable there.
+     */
+    protected static class HeadIndex {
+        final Rule[] rules;
+        final BitSet all;
+        // rules whose heads have no repeated variables
+        final BitSet linear;
+        final List<Map<String, BitSet>> constants;
+        final BitSet[] variables;
+
+        @SuppressWarnings("unchecked")
+        HeadIndex(List<Rule> rules) {
+            this.rules = rules.toArray(new Rule[rules.size()]);
+            int arity = this.rules[0].lhs.getArity();
+            this.all = new BitSet(this.rules.length);
+            this.all.set(0, this.rules.length);
+            this.linear = new BitSet(this.rules.length);
+            this.constants = new ArrayList<Map<String, BitSet>>(arity);
+            this.variables = new BitSet[arity];
+            for (int a = 0; a < arity; a++) {
+                this.constants.add(new HashMap<String, BitSet>());
+                this.variables[a] = new BitSet(this.rules.length);
+            }
+            for (int r = 0; r < this.rules.length; r++) {
+                Goal lhs = this.rules[r].lhs;
+                for (int a = 0; a < arity; a++) {
+                    Argument arg = lhs.getArg(a);
+                    if (arg.isConstant()) {
+                        BitSet b = this.constants.get(a).get(arg.getName());
+                        if (b == null) this.constants.get(a).put(arg.getName(), b = new BitSet(this.rules.length));
+                        b.set(r);
+                    } else this.variables[a].set(r);
+                }
+                if (isLinear(lhs)) this.linear.set(r);
+            }
+        }
+
+        /**
+         * @return the rules whose heads agree with goal on every position
+         * where both have a constant. Only these can unify with goal.
+         */
+        BitSet candidates(Goal goal) {
+            BitSet result = null;
+            for (int a = 0; a < this.constants.size(); a++) {
+                if (this.constants.get(a).isEmpty() || !goal.getArg(a).isConstant()) continue;
+                BitSet match = (BitSet) this.variables[a].clone();
+                BitSet c = this.constants.get(a).get(goal.getArg(a).getName());
+                if (c != null) match.or(c);
+                if (result == null) result = match;
+                else result.and(match);
+            }
+            return result == null ? this.all : result;
+        }
+    }
+
+    /** @return true if no variable appears twice in goal */
+    protected static boolean isLinear(Goal goal) {
+        for (int i = 0; i < goal.getArity(); i++) {
+            if (!goal.getArg(i).isVariable()) continue;
+            for (int j = i + 1; j < goal.getArity(); j++) {
+                if (goal.getArg(i).equals(goal.getArg(j))) return false;
+            }
+        }
+        return true;
+    }
+
+    protected HeadIndex headIndex(Goal goal) {
+        Map<String, HeadIndex> indexes = this.headIndexes;
+        if (indexes == null) indexes = this.buildHeadIndexes();
+        return indexes.get(this.key(goal));
+    }
+
+    private synchronized Map<String, HeadIndex> buildHeadIndexes() {
+        if (this.headIndexes != null) return this.headIndexes;
+        Map<String, HeadIndex> indexes = new HashMap<String, HeadIndex>();
+        for (Map.Entry<String, List<Rule>> e : this.index.entrySet()) {
+            indexes.put(e.getKey(), new HeadIndex(e.getValue()));
+        }
+        this.headIndexes = indexes;
+        return indexes;
     }
 
     @Override
@@ -25,6 +118,21 @@ public class RuleComponent extends Component {
         return (!state.isSolution() && this.index.containsKey(key(state.getHeadFunctor(), state.getHeadArity())));
     }
 
+    @Override
+    public Collection<GoalComponent.FunctorArityKey> claimedSignatures() {
+        List<GoalComponent.FunctorArityKey> result = new ArrayList<GoalComponent.FunctorArityKey>(this.index.size());
+        for (List<Rule> rules : this.index.values()) {
+            Goal lhs = rules.get(0).lhs;
+            result.add(new GoalComponent.FunctorArityKey(lhs.getFunctor(), lhs.getArity()));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean claimMatched(LogicProgramState state) {
+        return true;
+    }
+
     protected List<Rule> rulesFor(Goal goal) {
         return this.index.get(this.key(goal));
     }
@@ -37,17 +145,33 @@ public class RuleComponent extends Component {
         return functor + arity;//String.format("%s/%d",goal.getFunctor(),goal.getArity());
     }
 
+    /**
+     * When neither the goal nor a candidate rule head repeats a variable,
+     * the candidate is sure to unify, so we count those without unifying.
+     */
     @Override
     public int degree(LogicProgramState state) {
         if (state.isSolution()) return 0;
-        return getSubstitutions(state).size();
+        Goal goal = state.asProPPR().getHeadGoal();
+        HeadIndex h = this.headIndex(goal);
+        if (h == null) return 0;
+        if (!isLinear(goal)) return getSubstitutions(state).size();
+        BitSet candidates = h.candidates(goal);
+        BitSet nonlinear = (BitSet) candidates.clone();
+        nonlinear.andNot(h.linear);
+        if (!nonlinear.isEmpty()) return getSubstitutions(state).size();
+        return candidates.cardinality();
     }
 
     protected List<RuleSubstitutionPair> getSubstitutions(LogicProgramState state0) {
         ProPPRLogicProgramState state = (ProPPRLogicProgramState) state0.asProPPR();
         LinkedList<RuleSubstitutionPair> matches = new LinkedList<RuleSubstitutionPair>();
         int offsetToStandardizeApart = state.getVarSketchSize();
-        for (Rule r : this.rulesFor(state.getHeadGoal())) {
+        HeadIndex h = this.headIndex(state.getHeadGoal());
+        if (h == null) return matches;
+        BitSet candidates = h.candidates(state.getHeadGoal());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            Rule r = h.rules[i];
             // print 'trying rule',r,'on',state.goals[0],"with offset",offsetToStandardizeApart
             if (log.isDebugEnabled()) log.debug("trying rule " + r + " on " + state
                     .getHeadGoal() + " with offset " + offsetToStandardizeApart);
@@ -72,12 +196,17 @@ public class RuleComponent extends Component {
         List<RuleSubstitutionPair> matches = getSubstitutions(state);
         List<Outlink> result = new ArrayList<Outlink>();
         for (RuleSubstitutionPair rp : matches) {
-            result.add(new Outlink(rp.r.featuresAsDict(rp.theta, RenamingSubstitution.RENAMED), state
+            result.add(new Outlink(rp.r.featuresAsDict(rp.theta, RenamingSubstitution.RENAMED, this.complexFeatures), state
                     .child(rp.r.rhs, rp.theta)));
         }
         return result;
     }
 
+    @Override
+    public void setComplexFeatureLibrary(ComplexFeatureLibrary library) {
+        this.complexFeatures = library;
+    }
+
     @Override
     public void compile() {
         this.compile(new SymbolTable());
@@ -88,6 +217,7 @@ public class RuleComponent extends Component {
         for (List<Rule> el : this.index.values()) {
             for (Rule r : el) r.compile(variableSymTab);
         }
+        this.headIndexes = null;
     }
 
     public String toString() {
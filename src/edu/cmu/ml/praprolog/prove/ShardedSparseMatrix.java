@@ -0,0 +1,107 @@
+package edu.cmu.ml.praprolog.prove;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.cmu.ml.praprolog.util.ParsedFile;
+
+/**
+ * The matrix of one functor in one .sparse directory, split by row into
+ * shards so that no single SparseMatrixIndex need hold more than 2^31
+ * entries.
+ *
+ * If [matrix].shards exists, it lists the number of rows per shard and
+ * then the number of shards, one per line. Shard k is then stored as the
+ * matrix [matrix].k (that is, [matrix].k.csr or [matrix].k.rce etc) and
+ * holds rows k*rowsPerShard up to (k+1)*rowsPerShard, numbered from 0.
+ * Otherwise the matrix is one shard, stored as usual.
+ *
+ * Looking up a row finds its shard by division.
+ */
+public class ShardedSparseMatrix {
+	public static final String SHARDS_EXTENSION=".shards";
+	protected SparseConstantDictionary arg1;
+	protected SparseMatrixIndex[] shards;
+	protected int rowsPerShard;
+
+	public ShardedSparseMatrix(String dir, String matrix, SparseConstantDictionary arg1, SparseConstantDictionary arg2) throws IOException {
+		this.arg1 = arg1;
+		File shardFile = new File(dir,matrix+SHARDS_EXTENSION);
+		if (shardFile.exists()) {
+			int[] header = readShards(shardFile);
+			this.rowsPerShard = header[0];
+			this.shards = new SparseMatrixIndex[header[1]];
+		} else {
+			this.rowsPerShard = Integer.MAX_VALUE;
+			this.shards = new SparseMatrixIndex[1];
+		}
+		List<String> names = shardNames(dir, matrix);
+		for (int k=0; k<this.shards.length; k++) {
+			this.shards[k] = new SparseMatrixIndex(dir,names.get(k),arg1,arg2);
+		}
+	}
+
+	/** @return the matrix names of the shards of matrix in dir */
+	public static List<String> shardNames(String dir, String matrix) {
+		File shardFile = new File(dir,matrix+SHARDS_EXTENSION);
+		if (!shardFile.exists()) return Collections.singletonList(matrix);
+		int nshards = readShards(shardFile)[1];
+		List<String> names = new ArrayList<String>(nshards);
+		for (int k=0; k<nshards; k++) names.add(matrix+"."+k);
+		return names;
+	}
+
+	private static int[] readShards(File shardFile) {
+		ParsedFile file = new ParsedFile(shardFile);
+		Iterator<String> it = file.iterator();
+		int[] result = new int[2];
+		for (int i=0; i<2; i++) {
+			if (!it.hasNext()) file.parseError("Bad format for "+shardFile+": must list #rows per shard and #shards");
+			result[i] = Integer.parseInt(it.next().trim());
+		}
+		file.close();
+		return result;
+	}
+
+	/** Write [matrix].shards for a matrix split into nshards of rowsPerShard rows each */
+	public static void writeShards(File dir, String matrix, int rowsPerShard, int nshards) throws IOException {
+		Writer w = new BufferedWriter(new FileWriter(new File(dir,matrix+SHARDS_EXTENSION)));
+		try {
+			w.write(rowsPerShard+"\n"+nshards+"\n");
+		} finally {
+			w.close();
+		}
+	}
+
+	/** As SparseMatrixIndex.near */
+	public List<Argument> near(Argument key) {
+		int r = this.arg1.id(key.getName());
+		if (r < 0) return null;
+		int k = r / this.rowsPerShard;
+		if (k >= this.shards.length) return null;
+		return this.shards[k].near(r - k*this.rowsPerShard);
+	}
+
+	/** As SparseMatrixIndex.degree */
+	public int degree(Argument key) {
+		int r = this.arg1.id(key.getName());
+		if (r < 0) return 0;
+		int k = r / this.rowsPerShard;
+		if (k >= this.shards.length) return 0;
+		return this.shards[k].degree(r - k*this.rowsPerShard);
+	}
+
+	/** @return number of nonzero entries in every shard */
+	public long entries() {
+		long n=0;
+		for (SparseMatrixIndex s : this.shards) n += s.entries;
+		return n;
+	}
+}
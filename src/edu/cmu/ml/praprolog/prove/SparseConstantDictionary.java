@@ -0,0 +1,199 @@
+package edu.cmu.ml.praprolog.prove;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.praprolog.util.ParsedFile;
+
+/**
+ * The names of the rows or columns of a sparse matrix, as read from a
+ * [type].i file: the ith line is the name of constant i.
+ *
+ * Names are kept as UTF-8 bytes in one buffer, with an offset per id and
+ * a list of ids in byte order of their names, so that id(name) is a binary
+ * search. ConstantArguments are only made when asked for.
+ *
+ * If [type].dict exists, it is memory-mapped instead of reading the .i
+ * file. It holds, as big-endian ints:
+ *  - the header: MAGIC, #names, #bytes
+ *  - #names+1 offsets into the bytes; name i is bytes[offsets[i]..offsets[i+1])
+ *  - #names ids, sorted by name
+ * followed by the bytes of every name, in id order. Write one with write()
+ * or SparseMatrixIndex.main().
+ */
+public class SparseConstantDictionary {
+	private static final Logger log = Logger.getLogger(SparseConstantDictionary.class);
+	public static final String BINARY_EXTENSION=".dict";
+	public static final int MAGIC=0x44494331; // "DIC1"
+	private static final int HEADER_INTS=3;
+	private static final String ENCODING="UTF-8";
+	String name;
+	int size;
+	IntBuffer offsets, sorted;
+	ByteBuffer bytes;
+
+	/**
+	 * Load the dictionary for type from dir, from [type].dict if there is one
+	 * and [type].i otherwise.
+	 */
+	public static SparseConstantDictionary load(String dir, String type) throws IOException {
+		SparseConstantDictionary result = new SparseConstantDictionary();
+		File binary = new File(dir,type+BINARY_EXTENSION);
+		if (binary.exists()) result.loadBinary(binary);
+		else result.loadText(new File(dir,type+SparseGraphComponent.INDEX_EXTENSION));
+		return result;
+	}
+
+	/** Read names one per line from file. */
+	public void loadText(File file) throws IOException {
+		log.info("Loading args file "+file.getName()+"...");
+		this.name = file.getPath();
+		List<byte[]> names = new ArrayList<byte[]>();
+		int nbytes=0;
+		ParsedFile parsed = new ParsedFile(file);
+		for (String line : parsed) {
+			byte[] b = line.trim().getBytes(ENCODING);
+			names.add(b);
+			nbytes += b.length;
+		}
+		parsed.close();
+
+		this.size = names.size();
+		int[] offsets = new int[size+1];
+		byte[] bytes = new byte[nbytes];
+		for (int i=0; i<size; i++) {
+			byte[] b = names.get(i);
+			System.arraycopy(b, 0, bytes, offsets[i], b.length);
+			offsets[i+1] = offsets[i] + b.length;
+		}
+		Integer[] order = new Integer[size];
+		for (int i=0; i<size; i++) order[i] = i;
+		final List<byte[]> fnames = names;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return compareBytes(fnames.get(a), fnames.get(b));
+			}
+		});
+		int[] sorted = new int[size];
+		for (int i=0; i<size; i++) sorted[i] = order[i];
+
+		this.offsets = IntBuffer.wrap(offsets);
+		this.sorted = IntBuffer.wrap(sorted);
+		this.bytes = ByteBuffer.wrap(bytes);
+	}
+
+	/** Map a dictionary in the binary format described above. */
+	public void loadBinary(File file) throws IOException {
+		log.info("Mapping args file "+file.getName()+"...");
+		this.name = file.getPath();
+		RandomAccessFile raf = new RandomAccessFile(file,"r");
+		try {
+			FileChannel channel = raf.getChannel();
+			IntBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 4*HEADER_INTS).asIntBuffer();
+			if (header.get(0) != MAGIC) throw new IllegalArgumentException("Bad format for "+file+": not a binary constant dictionary");
+			this.size = header.get(1);
+			int nbytes = header.get(2);
+			long expected = 4L*(HEADER_INTS + size + 1 + size) + nbytes;
+			if (channel.size() != expected)
+				throw new IllegalArgumentException("Bad format for "+file+": expected "+expected+" bytes for "+size+" names; found "+channel.size());
+			long position = 4L*HEADER_INTS;
+			this.offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L*(size+1)).asIntBuffer();
+			position += 4L*(size+1);
+			this.sorted = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L*size).asIntBuffer();
+			position += 4L*size;
+			this.bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, nbytes);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** Write this dictionary in the binary format described above. */
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(this.size);
+			out.writeInt(this.offsets.get(this.size));
+			for (int i=0; i<=this.size; i++) out.writeInt(this.offsets.get(i));
+			for (int i=0; i<this.size; i++) out.writeInt(this.sorted.get(i));
+			for (int k=0, n=this.offsets.get(this.size); k<n; k++) out.writeByte(this.bytes.get(k));
+		} finally {
+			out.close();
+		}
+	}
+
+	/** @return number of names */
+	public int size() {
+		return this.size;
+	}
+
+	/** @return the id of name, or -1 if there is none */
+	public int id(String name) {
+		byte[] key;
+		try {
+			key = name.getBytes(ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		int lo=0, hi=this.size-1;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1, id = this.sorted.get(mid);
+			int cmp = this.compareTo(id, key);
+			if (cmp < 0) lo = mid+1;
+			else if (cmp > 0) hi = mid-1;
+			else return id;
+		}
+		return -1;
+	}
+
+	/** @return the name with this id */
+	public String name(int id) {
+		int start = this.offsets.get(id), end = this.offsets.get(id+1);
+		byte[] b = new byte[end-start];
+		// absolute gets only, so that threads can share the buffer
+		for (int k=0; k<b.length; k++) b[k] = this.bytes.get(start+k);
+		try {
+			return new String(b, ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** @return the ConstantArgument for the name with this id */
+	public ConstantArgument constant(int id) {
+		return ConstantArgument.intern(this.name(id));
+	}
+
+	/** Compare the name with this id to key, as unsigned bytes */
+	private int compareTo(int id, byte[] key) {
+		int start = this.offsets.get(id), end = this.offsets.get(id+1);
+		for (int k=0; k<key.length && start+k<end; k++) {
+			int a = this.bytes.get(start+k) & 0xff, b = key[k] & 0xff;
+			if (a != b) return a-b;
+		}
+		return (end-start) - key.length;
+	}
+
+	private static int compareBytes(byte[] x, byte[] y) {
+		for (int k=0; k<x.length && k<y.length; k++) {
+			int a = x[k] & 0xff, b = y[k] & 0xff;
+			if (a != b) return a-b;
+		}
+		return x.length - y.length;
+	}
+}
@@ -0,0 +1,582 @@
+package edu.cmu.ml.praprolog.prove;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.praprolog.util.ParsedFile;
+
+/**
+ * Builds a .sparse directory for SparseGraphComponent from .cfacts files,
+ * in place of the make-based sparseGraphTools.
+ *
+ * As for sparseGraphTools, each .cfacts file holds the edges of one
+ * functor and is named [functor]_[arg1type]_[arg2type].cfacts, with
+ * lines [functor]\t[arg1]\t[arg2].
+ *
+ * The build runs in two passes, each spread over a thread pool:
+ *  1. for each type, the distinct names of that type in any file are
+ *     written to [type].i;
+ *  2. for each file, edges are turned into (row,column) ids and written
+ *     as a CSR matrix.
+ * Both passes sort externally: at most chunkSize names or edges per
+ * thread are held in memory before being written to a sorted run, and
+ * the runs are merged from disk.
+ *
+ * Matrices are written as text (.rce, .rowOffset, .colIndex), or as
+ * binary (.csr, with a .dict beside each .i) for SparseMatrixIndex to map.
+ * Large matrices can be split by row into shards, each built by its own
+ * task: the .cfacts file is read once, and its edges written to a
+ * temporary file per shard, which the shard's task then sorts.
+ */
+public class SparseGraphBuilder {
+	private static final Logger log = Logger.getLogger(SparseGraphBuilder.class);
+	public static final int DEFAULT_CHUNK_SIZE=1<<22;
+	private static final String ENCODING="UTF-8";
+	protected File outputDir;
+	protected boolean binary;
+	protected int nthreads;
+	protected int chunkSize;
+	protected int shardRows;
+
+	public SparseGraphBuilder(File outputDir, boolean binary, int nthreads, int chunkSize) {
+		this(outputDir, binary, nthreads, chunkSize, 0);
+	}
+	/**
+	 * @param shardRows if positive, split each matrix into shards of this
+	 * many rows, built in parallel (see ShardedSparseMatrix)
+	 */
+	public SparseGraphBuilder(File outputDir, boolean binary, int nthreads, int chunkSize, int shardRows) {
+		this.outputDir = outputDir;
+		this.binary = binary;
+		this.nthreads = nthreads;
+		this.chunkSize = chunkSize;
+		this.shardRows = shardRows;
+	}
+
+	/** One input file, and the matrix it becomes */
+	protected static class Matrix {
+		final File cfacts;
+		final String name, functor, arg1type, arg2type;
+		Matrix(File cfacts) {
+			this.cfacts = cfacts;
+			String filename = cfacts.getName();
+			if (!filename.endsWith(GoalComponent.FILE_EXTENSION))
+				throw new IllegalArgumentException("Expected a "+GoalComponent.FILE_EXTENSION+" file: "+cfacts);
+			this.name = filename.substring(0, filename.length()-GoalComponent.FILE_EXTENSION.length());
+			String[] parts = this.name.split("_");
+			if (parts.length != 3)
+				throw new IllegalArgumentException("Facts file must be named [functor]_[arg1type]_[arg2type]"+GoalComponent.FILE_EXTENSION+": "+cfacts);
+			this.functor = parts[0];
+			this.arg1type = parts[1];
+			this.arg2type = parts[2];
+		}
+	}
+
+	public void build(List<File> cfacts) throws IOException {
+		long start = System.currentTimeMillis();
+		final List<Matrix> matrices = new ArrayList<Matrix>();
+		// files using each type for arg1, and for arg2
+		final Map<String,List<Matrix>> arg1s = new LinkedHashMap<String,List<Matrix>>();
+		final Map<String,List<Matrix>> arg2s = new LinkedHashMap<String,List<Matrix>>();
+		List<String> functors = new ArrayList<String>();
+		for (File f : cfacts) {
+			Matrix m = new Matrix(f);
+			if (functors.contains(m.functor))
+				throw new IllegalArgumentException("Only one matrix allowed per functor. You've already used '"+m.functor+"'");
+			functors.add(m.functor);
+			matrices.add(m);
+			addTo(arg1s, m.arg1type, m);
+			addTo(arg2s, m.arg2type, m);
+			if (!arg1s.containsKey(m.arg2type)) arg1s.put(m.arg2type, new ArrayList<Matrix>());
+			if (!arg2s.containsKey(m.arg1type)) arg2s.put(m.arg1type, new ArrayList<Matrix>());
+		}
+		if (!this.outputDir.isDirectory() && !this.outputDir.mkdirs())
+			throw new IOException("Couldn't create output directory "+this.outputDir);
+
+		ExecutorService pool = Executors.newFixedThreadPool(this.nthreads);
+		try {
+			// pass 1: names of each type
+			final Map<String,SparseConstantDictionary> dictionaries = new LinkedHashMap<String,SparseConstantDictionary>();
+			List<Future<SparseConstantDictionary>> types = new ArrayList<Future<SparseConstantDictionary>>();
+			for (final String type : arg1s.keySet()) {
+				types.add(pool.submit(new Callable<SparseConstantDictionary>() {
+					@Override
+					public SparseConstantDictionary call() throws Exception {
+						return buildType(type, arg1s.get(type), arg2s.get(type));
+					}
+				}));
+			}
+			int i=0;
+			for (String type : arg1s.keySet()) dictionaries.put(type, get(types.get(i++)));
+			log.info("Wrote "+dictionaries.size()+" types ("+((System.currentTimeMillis()-start)/1000.)+" sec)");
+
+			// pass 2: matrices, or shards of them
+			List<Future<Object>> done = new ArrayList<Future<Object>>();
+			List<Matrix> sharded = new ArrayList<Matrix>();
+			List<Future<File[]>> splits = new ArrayList<Future<File[]>>();
+			for (final Matrix m : matrices) {
+				final SparseConstantDictionary arg1 = dictionaries.get(m.arg1type), arg2 = dictionaries.get(m.arg2type);
+				if (this.shardRows <= 0) {
+					done.add(pool.submit(new Callable<Object>() {
+						@Override
+						public Object call() throws Exception {
+							buildMatrix(m.name, arg1.size(), arg2.size(), new FactEdges(m.cfacts, arg1, arg2));
+							return null;
+						}
+					}));
+					continue;
+				}
+				final int nshards = Math.max(1, (arg1.size() + this.shardRows - 1) / this.shardRows);
+				ShardedSparseMatrix.writeShards(this.outputDir, m.name, this.shardRows, nshards);
+				sharded.add(m);
+				splits.add(pool.submit(new Callable<File[]>() {
+					@Override
+					public File[] call() throws Exception {
+						return splitShards(m, arg1, arg2, nshards);
+					}
+				}));
+			}
+			for (int j=0; j<sharded.size(); j++) {
+				Matrix m = sharded.get(j);
+				final File[] shards = get(splits.get(j));
+				final int rows = dictionaries.get(m.arg1type).size(), cols = dictionaries.get(m.arg2type).size();
+				for (int k=0; k<shards.length; k++) {
+					final String name = m.name+"."+k;
+					final File edges = shards[k];
+					final int shardSize = Math.min(rows - k*this.shardRows, this.shardRows);
+					done.add(pool.submit(new Callable<Object>() {
+						@Override
+						public Object call() throws Exception {
+							try {
+								buildMatrix(name, shardSize, cols, new RunEdges(edges));
+							} finally {
+								edges.delete();
+							}
+							return null;
+						}
+					}));
+				}
+			}
+			for (Future<Object> f : done) get(f);
+		} finally {
+			pool.shutdown();
+		}
+
+		Writer manifest = new BufferedWriter(new FileWriter(new File(this.outputDir,SparseGraphComponent.MANIFEST)));
+		try {
+			for (Matrix m : matrices) manifest.write(m.name+"\n");
+		} finally {
+			manifest.close();
+		}
+		log.info("Finished building "+this.outputDir+" ("+((System.currentTimeMillis()-start)/1000.)+" sec)");
+	}
+
+	private static void addTo(Map<String,List<Matrix>> map, String key, Matrix m) {
+		List<Matrix> list = map.get(key);
+		if (list == null) map.put(key, list = new ArrayList<Matrix>());
+		list.add(m);
+	}
+
+	private static <T> T get(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Write [type].i: the sorted distinct names in column 1 of asArg1 and
+	 * column 2 of asArg2.
+	 */
+	protected SparseConstantDictionary buildType(String type, List<Matrix> asArg1, List<Matrix> asArg2) throws IOException {
+		List<File> runs = new ArrayList<File>();
+		TreeSet<String> chunk = new TreeSet<String>();
+		try {
+			for (int column=1; column<=2; column++) {
+				for (Matrix m : column == 1 ? asArg1 : asArg2) {
+					ParsedFile file = new ParsedFile(m.cfacts);
+					for (String line : file) {
+						String[] parts = line.split("\t");
+						if (parts.length != 3) file.parseError("3 tab-delimited fields required; found "+parts.length);
+						chunk.add(parts[column].trim());
+						if (chunk.size() >= this.chunkSize) {
+							runs.add(writeRun(chunk));
+							chunk.clear();
+						}
+					}
+					file.close();
+				}
+			}
+			File index = new File(this.outputDir,type+SparseGraphComponent.INDEX_EXTENSION);
+			Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(index),ENCODING));
+			try {
+				mergeRuns(runs, chunk, w);
+			} finally {
+				w.close();
+			}
+			SparseConstantDictionary dictionary = new SparseConstantDictionary();
+			dictionary.loadText(index);
+			if (this.binary) dictionary.write(new File(this.outputDir,type+SparseConstantDictionary.BINARY_EXTENSION));
+			log.info("Wrote "+dictionary.size()+" names of type "+type);
+			return dictionary;
+		} finally {
+			for (File f : runs) f.delete();
+		}
+	}
+
+	private File writeRun(TreeSet<String> chunk) throws IOException {
+		File run = File.createTempFile("names",".run");
+		run.deleteOnExit();
+		Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(run),ENCODING));
+		try {
+			for (String s : chunk) w.write(s+"\n");
+		} finally {
+			w.close();
+		}
+		return run;
+	}
+
+	/** A sorted run of names being merged */
+	private static class NameRun implements Comparable<NameRun> {
+		final BufferedReader reader;
+		final Iterator<String> rest;
+		String head;
+		NameRun(BufferedReader reader) throws IOException {
+			this.reader = reader;
+			this.rest = null;
+			this.head = reader.readLine();
+		}
+		NameRun(Iterator<String> rest) {
+			this.reader = null;
+			this.rest = rest;
+			this.head = rest.hasNext() ? rest.next() : null;
+		}
+		boolean advance() throws IOException {
+			if (this.reader != null) this.head = this.reader.readLine();
+			else this.head = this.rest.hasNext() ? this.rest.next() : null;
+			return this.head != null;
+		}
+		@Override
+		public int compareTo(NameRun o) {
+			return this.head.compareTo(o.head);
+		}
+	}
+
+	/** Merge the runs on disk and the last chunk in memory, writing each distinct name once */
+	private void mergeRuns(List<File> runs, TreeSet<String> last, Writer out) throws IOException {
+		PriorityQueue<NameRun> queue = new PriorityQueue<NameRun>();
+		List<BufferedReader> readers = new ArrayList<BufferedReader>();
+		try {
+			for (File f : runs) {
+				BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f),ENCODING));
+				readers.add(r);
+				NameRun run = new NameRun(r);
+				if (run.head != null) queue.add(run);
+			}
+			NameRun run = new NameRun(last.iterator());
+			if (run.head != null) queue.add(run);
+			String previous = null;
+			while (!queue.isEmpty()) {
+				run = queue.poll();
+				if (!run.head.equals(previous)) {
+					out.write(run.head+"\n");
+					previous = run.head;
+				}
+				if (run.advance()) queue.add(run);
+			}
+		} finally {
+			for (BufferedReader r : readers) r.close();
+		}
+	}
+
+	/** Edges, as (row << 32 | column) */
+	protected interface EdgeSource {
+		/** @return the next edge, or -1 when there are none left */
+		long next() throws IOException;
+		void close() throws IOException;
+	}
+
+	/** The edges of a .cfacts file, with rows named by arg1 and columns by arg2 */
+	private static class FactEdges implements EdgeSource {
+		final ParsedFile file;
+		final SparseConstantDictionary arg1, arg2;
+		FactEdges(File cfacts, SparseConstantDictionary arg1, SparseConstantDictionary arg2) {
+			this.file = new ParsedFile(cfacts);
+			this.arg1 = arg1;
+			this.arg2 = arg2;
+		}
+		@Override
+		public long next() {
+			if (!this.file.hasNext()) return -1;
+			String[] parts = this.file.next().split("\t");
+			if (parts.length != 3) this.file.parseError("3 tab-delimited fields required; found "+parts.length);
+			long row = this.arg1.id(parts[1].trim()), col = this.arg2.id(parts[2].trim());
+			// only if ParsedFile skipped the name as a comment
+			if (row < 0 || col < 0) this.file.parseError("Can't index names beginning with '#'");
+			return (row << 32) | col;
+		}
+		@Override
+		public void close() {
+			this.file.close();
+		}
+	}
+
+	/** Edges written by splitShards */
+	private static class RunEdges implements EdgeSource {
+		final DataInputStream in;
+		RunEdges(File file) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		}
+		@Override
+		public long next() throws IOException {
+			return EdgeMerger.read(this.in);
+		}
+		@Override
+		public void close() throws IOException {
+			this.in.close();
+		}
+	}
+
+	/**
+	 * Read the edges of m once, writing each to a temporary file for the
+	 * shard its row falls in, with its row numbered from the start of the
+	 * shard.
+	 * @return the file for each shard
+	 */
+	protected File[] splitShards(Matrix m, SparseConstantDictionary arg1, SparseConstantDictionary arg2, int nshards) throws IOException {
+		File[] files = new File[nshards];
+		DataOutputStream[] out = new DataOutputStream[nshards];
+		boolean ok = false;
+		EdgeSource edges = null;
+		try {
+			for (int k=0; k<nshards; k++) {
+				files[k] = File.createTempFile(m.name+"."+k,".edges");
+				files[k].deleteOnExit();
+				out[k] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[k])));
+			}
+			edges = new FactEdges(m.cfacts, arg1, arg2);
+			for (long edge; (edge = edges.next()) >= 0; ) {
+				int k = (int) (edge >>> 32) / this.shardRows;
+				out[k].writeLong(edge - ((long) k*this.shardRows << 32));
+			}
+			ok = true;
+		} finally {
+			if (edges != null) edges.close();
+			for (DataOutputStream o : out) if (o != null) o.close();
+			if (!ok) for (File f : files) if (f != null) f.delete();
+		}
+		return files;
+	}
+
+	/**
+	 * Write the CSR matrix of edges as the matrix called name, with rows
+	 * rows and cols columns.
+	 */
+	protected void buildMatrix(String name, int rows, int cols, EdgeSource edges) throws IOException {
+		List<File> runs = new ArrayList<File>();
+		long[] chunk = new long[Math.min(this.chunkSize, 1<<16)];
+		int n=0;
+		try {
+			try {
+				for (long edge; (edge = edges.next()) >= 0; ) {
+					if (n == chunk.length) {
+						if (n < this.chunkSize) chunk = Arrays.copyOf(chunk, Math.min(2*n, this.chunkSize));
+						else {
+							runs.add(writeRun(chunk, n));
+							n = 0;
+						}
+					}
+					chunk[n++] = edge;
+				}
+			} finally {
+				edges.close();
+			}
+			Arrays.sort(chunk, 0, n);
+
+			// merge runs, writing column indices as we go and counting the entries of each row
+			int[] rowOffsets = new int[rows+1];
+			File colIndex = this.binary ? File.createTempFile(name,".colIndex") : new File(this.outputDir,name+".colIndex");
+			if (this.binary) colIndex.deleteOnExit();
+			DataOutputStream binaryOut = null;
+			Writer textOut = null;
+			if (this.binary) binaryOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(colIndex)));
+			else textOut = new BufferedWriter(new FileWriter(colIndex));
+			int entries=0;
+			try {
+				EdgeMerger merger = new EdgeMerger(runs, chunk, n);
+				for (long edge; (edge = merger.next()) >= 0; ) {
+					int col = (int) edge;
+					rowOffsets[(int) (edge >>> 32)+1]++;
+					if (this.binary) binaryOut.writeInt(col);
+					else textOut.write(col+"\n");
+					if (++entries < 0) throw new IllegalArgumentException(name+" has more than 2^31 edges; use more shards");
+				}
+				merger.close();
+			} finally {
+				if (this.binary) binaryOut.close();
+				else textOut.close();
+			}
+			for (int i=0; i<rows; i++) rowOffsets[i+1] += rowOffsets[i];
+
+			if (this.binary) {
+				writeCsr(new File(this.outputDir,name+SparseMatrixIndex.BINARY_EXTENSION), rows, cols, entries, rowOffsets, colIndex);
+				colIndex.delete();
+			} else {
+				Writer w = new BufferedWriter(new FileWriter(new File(this.outputDir,name+".rowOffset")));
+				try {
+					for (int i=0; i<rows; i++) w.write(rowOffsets[i]+"\n");
+				} finally {
+					w.close();
+				}
+			}
+			Writer rce = new BufferedWriter(new FileWriter(new File(this.outputDir,name+".rce")));
+			try {
+				rce.write(rows+"\n"+cols+"\n"+entries+"\n");
+			} finally {
+				rce.close();
+			}
+			log.info("Wrote "+entries+" edges of "+name);
+		} finally {
+			for (File f : runs) f.delete();
+		}
+	}
+
+	private File writeRun(long[] chunk, int n) throws IOException {
+		Arrays.sort(chunk, 0, n);
+		File run = File.createTempFile("edges",".run");
+		run.deleteOnExit();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+		try {
+			for (int i=0; i<n; i++) out.writeLong(chunk[i]);
+		} finally {
+			out.close();
+		}
+		return run;
+	}
+
+	private void writeCsr(File file, int rows, int cols, int entries, int[] rowOffsets, File colIndex) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(SparseMatrixIndex.MAGIC);
+			out.writeInt(rows);
+			out.writeInt(cols);
+			out.writeInt(entries);
+			for (int i=0; i<=rows; i++) out.writeInt(rowOffsets[i]);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(colIndex)));
+			try {
+				for (int k=0; k<entries; k++) out.writeInt(in.readInt());
+			} finally {
+				in.close();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Merges sorted runs of edges on disk with the sorted last chunk in
+	 * memory. Edges are (row << 32 | column), so never negative.
+	 */
+	private static class EdgeMerger {
+		final DataInputStream[] in;
+		final long[] heads;
+		final long[] last;
+		final int lastSize;
+		int lastPos=0;
+		EdgeMerger(List<File> runs, long[] last, int lastSize) throws IOException {
+			this.in = new DataInputStream[runs.size()];
+			this.heads = new long[runs.size()];
+			for (int i=0; i<this.in.length; i++) {
+				this.in[i] = new DataInputStream(new BufferedInputStream(new FileInputStream(runs.get(i))));
+				this.heads[i] = read(this.in[i]);
+			}
+			this.last = last;
+			this.lastSize = lastSize;
+		}
+		static long read(DataInputStream in) throws IOException {
+			try {
+				return in.readLong();
+			} catch (EOFException e) {
+				return -1;
+			}
+		}
+		/** @return the least remaining edge, or -1 when there are none */
+		long next() throws IOException {
+			// runs are few (edges/chunkSize), so a linear scan beats a heap
+			int best = -1;
+			long min = this.lastPos < this.lastSize ? this.last[this.lastPos] : -1;
+			for (int i=0; i<this.heads.length; i++) {
+				if (this.heads[i] >= 0 && (min < 0 || this.heads[i] < min)) {
+					min = this.heads[i];
+					best = i;
+				}
+			}
+			if (min < 0) return -1;
+			if (best < 0) this.lastPos++;
+			else this.heads[best] = read(this.in[best]);
+			return min;
+		}
+		void close() throws IOException {
+			for (DataInputStream d : this.in) d.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean binary = false;
+		int nthreads = Runtime.getRuntime().availableProcessors();
+		int chunkSize = DEFAULT_CHUNK_SIZE;
+		int shardRows = 0;
+		int i=0;
+		for (; i<args.length && args[i].startsWith("--"); i++) {
+			if ("--binary".equals(args[i])) binary = true;
+			else if ("--threads".equals(args[i])) nthreads = Integer.parseInt(args[++i]);
+			else if ("--chunk".equals(args[i])) chunkSize = Integer.parseInt(args[++i]);
+			else if ("--shardRows".equals(args[i])) shardRows = Integer.parseInt(args[++i]);
+			else {
+				System.err.println("Unknown option "+args[i]);
+				System.exit(1);
+			}
+		}
+		if (args.length - i < 2) {
+			System.err.println("Usage:\n\t[--binary] [--threads N] [--chunk N] [--shardRows N] graphname.sparse functor_arg1type_arg2type.cfacts [...]\n");
+			System.exit(0);
+		}
+		File outputDir = new File(args[i++]);
+		List<File> cfacts = new ArrayList<File>();
+		for (; i<args.length; i++) cfacts.add(new File(args[i]));
+		new SparseGraphBuilder(outputDir, binary, nthreads, chunkSize, shardRows).build(cfacts);
+	}
+}
@@ -1,21 +1,28 @@
 package edu.cmu.ml.praprolog.prove;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import edu.cmu.ml.praprolog.util.Dictionary;
 import edu.cmu.ml.praprolog.util.ParsedFile;
 
 /**
- * GraphlikeComponent backed by a sparse matrix.
+ * GraphlikeComponent backed by sparse matrices.
  * 
- * The constructor argument matrixDir contains a file functorIndex.txt which
- * lists each matrix functor, 1-per-line.
+ * Each constructor argument matrixDir contains a file sparseIndex.txt which
+ * lists each matrix, 1-per-line, as functor_arg1type_arg2type. A functor
+ * may have matrices in several directories, or several in one directory
+ * with different types; its edges are those of all of them, concatenated
+ * and not deduplicated. An edge found in more than one matrix is
+ * followed once per matrix, so its weight adds up.
  * @author krivard
  *
  */
@@ -27,56 +34,43 @@ public class SparseGraphComponent extends GraphlikeComponent {
 	private static final long LOGUPDATE_MS = 10000;
 
 	protected Map<Goal, Double> featureDict;
-	protected Map<String,SparseMatrixIndex> index;
-	protected Map<String,HashMap<String,Integer>> arg1s;
-	protected Map<String,ConstantArgument[]> arg2s;
+	protected Map<String,List<ShardedSparseMatrix>> index;
+	// names of the constants of each type in each directory, shared by every matrix using it
+	protected Map<File,SparseConstantDictionary> dictionaries;
+	protected List<String> matrixDirs;
 
 	public SparseGraphComponent(String matrixDir) {
-		log.info("Loading sparse graph component "+matrixDir);
+		this(Collections.singletonList(matrixDir));
+	}
+	public SparseGraphComponent(List<String> matrixDirs) {
+		String label = matrixDirs.get(0) + (matrixDirs.size() > 1 ? "+"+(matrixDirs.size()-1)+"others" : "");
+		log.info("Loading sparse graph component "+label);
+		this.matrixDirs = new ArrayList<String>(matrixDirs);
 		long start = System.currentTimeMillis();
-		arg1s = new HashMap<String,HashMap<String,Integer>>();
-		arg2s = new HashMap<String,ConstantArgument[]>();
-
-		// TODO: Get list of functors from index file
-		ArrayList<String> matrices = new ArrayList<String>();
-		ParsedFile file = new ParsedFile(new File(matrixDir,MANIFEST));
-		for (String line : file) { matrices.add(line); }
-		file.close();
-		// TODO: Initialize sparseMatrixIndex for each functor
-		index=new HashMap<String,SparseMatrixIndex>();
-		for(String matrix: matrices) {
-			String[] parts = matrix.split("_");
-			if (index.containsKey(parts[0])) {
-				throw new IllegalArgumentException("Only one matrix allowed per functor. You've already used '"+parts[0]+"'");
-			}
-			if (!arg1s.containsKey(parts[1])) { // read arg1.i 
-				arg1s.put(parts[1], new HashMap<String,Integer>());
-				loadArgs(arg1s.get(parts[1]),new File(matrixDir,parts[1]+INDEX_EXTENSION));
-			}
-			if (!arg2s.containsKey(parts[2])) {
-				ParsedFile rce = new ParsedFile(new File(matrixDir,matrix+".rce"));
-				Iterator<String> rceit = rce.iterator(); rceit.next();
-				String line = rceit.next();
-				rce.close();
-				if (line==null) throw new IllegalArgumentException("Bad format for "+matrix+".rce: line 2 must list #cols");
-				int ncols = Integer.parseInt(line.trim());
-				arg2s.put(parts[2], new ConstantArgument[ncols]);
+		dictionaries = new HashMap<File,SparseConstantDictionary>();
+		index=new HashMap<String,List<ShardedSparseMatrix>>();
 
-				loadArgs(arg2s.get(parts[2]),new File(matrixDir,parts[2]+INDEX_EXTENSION));
-			}
-			try {
-				index.put(parts[0], new SparseMatrixIndex(matrixDir,matrix,arg1s.get(parts[1]),arg2s.get(parts[2])));
-			} catch (Exception e) {
-				log.error("Problem reading sparse matrix "+matrix+".* in "+matrixDir,e);
-				throw new RuntimeException(e);
+		for (String matrixDir : matrixDirs) {
+			ArrayList<String> matrices = new ArrayList<String>();
+			ParsedFile file = new ParsedFile(new File(matrixDir,MANIFEST));
+			for (String line : file) { matrices.add(line); }
+			file.close();
+			for(String matrix: matrices) {
+				String[] parts = matrix.split("_");
+				try {
+					Dictionary.safeAppend(index, parts[0], new ShardedSparseMatrix(matrixDir,matrix,dictionary(matrixDir,parts[1]),dictionary(matrixDir,parts[2])));
+				} catch (Exception e) {
+					log.error("Problem reading sparse matrix "+matrix+".* in "+matrixDir,e);
+					throw new RuntimeException(e);
+				}
 			}
 		}
 		this.featureDict = new HashMap<Goal,Double>();
-		this.featureDict.put(new Goal("db",matrixDir),1.0);
+		this.featureDict.put(new Goal("db",label),1.0);
 		
 		long del = System.currentTimeMillis() - start;
 		if (del > LOGUPDATE_MS)
-			log.info("Finished loading sparse graph component "+matrixDir+" ("+(del/1000.)+" sec)");
+			log.info("Finished loading sparse graph component "+label+" ("+(del/1000.)+" sec)");
 	}
 
 	@Override
@@ -84,21 +78,34 @@ public class SparseGraphComponent extends GraphlikeComponent {
 		throw new UnsupportedOperationException("Sparse matrix components are immutable");
 	}
 
+	@Override
+	protected Collection<String> _indexFunctors() {
+		return this.index.keySet();
+	}
 	@Override
 	protected boolean _indexContains(String functor) {
 		return this.index.containsKey(functor);
 	}
 
+	/** @return the edges from srcConst in every matrix of functor, duplicates included */
 	@Override
 	protected List<Argument> _indexGet(String functor, Argument srcConst) {
-		List<Argument> ret = index.get(functor).near(srcConst);
+		List<Argument> ret = null;
+		for (ShardedSparseMatrix m : index.get(functor)) {
+			List<Argument> near = m.near(srcConst);
+			if (near == null) continue;
+			if (ret == null) ret = near;
+			else ret.addAll(near);
+		}
 		if (ret == null) log.debug("No argument "+srcConst+" in this sparsegraph for functor "+functor);
 		return ret;
 	}
 
 	@Override
 	protected int _indexGetDegree(String functor, Argument srcConst) {
-		return index.get(functor).degree(srcConst);
+		int d = 0;
+		for (ShardedSparseMatrix m : index.get(functor)) d += m.degree(srcConst);
+		return d;
 	}
 
 	@Override
@@ -109,21 +116,19 @@ public class SparseGraphComponent extends GraphlikeComponent {
 	public static SparseGraphComponent load(String matrixDir) {
 		return new SparseGraphComponent(matrixDir);
 	}
-
-	/** subroutine - populates an array of strings from a file **/
-	private void loadArgs(ConstantArgument[] args,File file) {
-		log.info("Loading args file "+file.getName()+" in ConstantArgument...");
-		ParsedFile parsed = new ParsedFile(file);
-		for (String line : parsed)
-			args[parsed.getLineNumber()] = new ConstantArgument(line);
-		parsed.close();
+	public static SparseGraphComponent load(List<String> matrixDirs) {
+		return new SparseGraphComponent(matrixDirs);
 	}
-	private void loadArgs(HashMap<String,Integer> args,File file) {
-		log.info("Loading args file "+file.getName()+" in String...");
-		ParsedFile parsed = new ParsedFile(file);
-		for (String line : parsed)
-			args.put((line.trim()),parsed.getLineNumber());
-		parsed.close();
+
+	/** subroutine - loads the names of type, or finds them already loaded **/
+	private SparseConstantDictionary dictionary(String matrixDir, String type) throws IOException {
+		File key = new File(matrixDir,type);
+		SparseConstantDictionary d = dictionaries.get(key);
+		if (d == null) {
+			d = SparseConstantDictionary.load(matrixDir, type);
+			dictionaries.put(key, d);
+		}
+		return d;
 	}
 	
 	public static void main(String[] args) {
@@ -1,12 +1,18 @@
 package edu.cmu.ml.praprolog.prove;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 
@@ -25,27 +31,51 @@ import edu.cmu.ml.praprolog.util.ParsedFile;
  * The lengths of files are thus constrained:
  *  - *.rowOffsets has #rows lines
  *  - *.colIndex has #entries lines
+ * 
+ * If [functor]_[arg1type]_[arg2type].csr exists, it is used instead of
+ * the .rowOffset and .colIndex files. It holds the same matrix in binary,
+ * as big-endian ints:
+ *  - the header: MAGIC, #rows, #cols, #entries
+ *  - #rows+1 row offsets, the last being #entries
+ *  - #entries column indices
+ * The file is memory-mapped rather than read, so opening it is quick
+ * and the pages are shared by every process using the same matrix.
+ * Write one from the text files with main() or writeBinary().
  * @author wcohen,krivard
  */
 public class SparseMatrixIndex {
 	private static final Logger log = Logger.getLogger(SparseMatrixIndex.class);
 	private static final int LOGUPDATE_MS=5000;
+	public static final String BINARY_EXTENSION=".csr";
+	public static final int MAGIC=0x43535231; // "CSR1"
+	private static final int HEADER_INTS=4;
 	String name;
 	// counts of each
 	int rows, cols, entries;
 	// names of rows, cols
-	ConstantArgument[] arg2;
-	HashMap<String,Integer> arg1;
-	int[] rowOffsets, colIndices;
-	float[] values;
+	SparseConstantDictionary arg1, arg2;
+	// on the heap for text matrices; memory-mapped for binary ones
+	IntBuffer rowOffsets, colIndices;
 
 	public SparseMatrixIndex() {}
-	public SparseMatrixIndex(String dir, String functor_arg1type_arg2type, final HashMap<String,Integer> arg1, final ConstantArgument[] arg2) throws IOException {
+	public SparseMatrixIndex(String dir, String functor_arg1type_arg2type, SparseConstantDictionary arg1, SparseConstantDictionary arg2) throws IOException {
 		this.arg1=arg1;
 		this.arg2=arg2;
 		this.load(dir,functor_arg1type_arg2type);
 	}
 	public void load(String dir, String functor_arg1type_arg2type) throws IOException {
+		File binary = new File(dir,functor_arg1type_arg2type+BINARY_EXTENSION);
+		if (binary.exists()) {
+			this.loadBinary(binary);
+		} else this.loadText(dir,functor_arg1type_arg2type);
+	}
+	/**
+	 * Read a matrix from the .rce, .rowOffset and .colIndex text files.
+	 * @param dir
+	 * @param functor_arg1type_arg2type
+	 * @throws IOException
+	 */
+	public void loadText(String dir, String functor_arg1type_arg2type) throws IOException {
 		log.info("Loading matrix "+functor_arg1type_arg2type+" from "+dir+"...");
 		this.name = dir+":"+functor_arg1type_arg2type;
 		long start0 = System.currentTimeMillis();
@@ -69,15 +99,14 @@ public class SparseMatrixIndex {
 		 *
 		 * (for k=rowOffsets[i]; k<rowOffsets[i+1]; k++) {
 		 *   j = colIndices[k];
-		 *   m_ij = values[k];
-		 *   // this would retrieve i,j and the corresponding value in the sparse matrix m[i,j]
-		 *   doSomethingWith(i,j,m_ij);
+		 *   // this would retrieve i,j of a nonzero in the sparse matrix m[i,j]
+		 *   doSomethingWith(i,j);
 		 * }
 		 *
+		 * values are always 1.0, so we don't store them.
 		 */
 		ArrayList<Integer> rowsOffsets = new ArrayList<Integer>();
-		this.colIndices = new int[entries];
-		this.values = new float[entries];
+		int[] colIndices = new int[entries];
 
 		long start = System.currentTimeMillis(), last=start;
 		file = new ParsedFile(new File(dir,functor_arg1type_arg2type+".rowOffset"));
@@ -98,9 +127,8 @@ public class SparseMatrixIndex {
 		for(String line : file) {
 			int ln = file.getLineNumber();
 			colIndices[ln] = Integer.parseInt(line);
-			values[ln] = (float) 1.0;
-			if (colIndices[ln] >= arg2.length) {
-				throw new IllegalArgumentException("Malformed sparsegraph! For index "+this.name+", colIndices["+ln+"]="+colIndices[ln]+"; arg2.length is only "+arg2.length);
+			if (arg2 != null && colIndices[ln] >= arg2.size()) {
+				throw new IllegalArgumentException("Malformed sparsegraph! For index "+this.name+", colIndices["+ln+"]="+colIndices[ln]+"; arg2.size() is only "+arg2.size());
 			}
 			if (log.isInfoEnabled()) {
 				long now = System.currentTimeMillis();
@@ -111,11 +139,13 @@ public class SparseMatrixIndex {
 			}
 		}
 		file.close();
-		this.rowOffsets = new int[rowsOffsets.size()+1];
+		int[] rowOffsets = new int[rowsOffsets.size()+1];
 		for (int i=0; i<rowsOffsets.size(); i++) {
 			rowOffsets[i] = rowsOffsets.get(i);
 		}
 		rowOffsets[rowsOffsets.size()] = entries;
+		this.rowOffsets = IntBuffer.wrap(rowOffsets);
+		this.colIndices = IntBuffer.wrap(colIndices);
 		
 
 		long del = System.currentTimeMillis() - start0;
@@ -124,20 +154,76 @@ public class SparseMatrixIndex {
 	}
 
 
+	/**
+	 * Map a matrix in the binary format described above.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void loadBinary(File file) throws IOException {
+		log.info("Mapping matrix "+file+"...");
+		this.name = file.getPath();
+		RandomAccessFile raf = new RandomAccessFile(file,"r");
+		try {
+			FileChannel channel = raf.getChannel();
+			IntBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 4*HEADER_INTS).asIntBuffer();
+			if (header.get(0) != MAGIC) throw new IllegalArgumentException("Bad format for "+file+": not a binary sparse matrix");
+			this.rows = header.get(1);
+			this.cols = header.get(2);
+			this.entries = header.get(3);
+			long expected = 4L*(HEADER_INTS + rows + 1 + (long) entries);
+			if (channel.size() != expected)
+				throw new IllegalArgumentException("Bad format for "+file+": expected "+expected+" bytes for "+rows+" rows and "+entries+" entries; found "+channel.size());
+			// one mapping may not exceed 2GB, so map the two arrays separately
+			long position = 4L*HEADER_INTS;
+			this.rowOffsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L*(rows+1)).asIntBuffer();
+			position += 4L*(rows+1);
+			this.colIndices = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L*entries).asIntBuffer();
+		} finally {
+			// the mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Write this matrix in the binary format described above.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeBinary(File file) throws IOException {
+		if (this.rowOffsets.limit() != this.rows+1)
+			throw new IllegalStateException("Matrix "+this.name+" has "+this.rows+" rows but "+(this.rowOffsets.limit()-1)+" row offsets");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(this.rows);
+			out.writeInt(this.cols);
+			out.writeInt(this.entries);
+			for (int i=0; i<=this.rows; i++) out.writeInt(this.rowOffsets.get(i));
+			for (int k=0; k<this.entries; k++) out.writeInt(this.colIndices.get(k));
+		} finally {
+			out.close();
+		}
+	}
+
 	/** Given string key='a' such that arg1[i] = key, find all strings
 	 * 'b' such that m[i,j] != 0 and arg2[j]==b.
 	 **/
 	public List<Argument> near(Argument key) {
-		Integer r = this.arg1.get(key.getName());
-		if (r==null || r >= rows) {
+		return this.near(this.arg1.id(key.getName()));
+	}
+	/** As near(key), for the row numbered r in this matrix. */
+	public List<Argument> near(int r) {
+		if (r < 0 || r >= rows) {
 			return null;
 		}
 		else {
 			ArrayList<Argument> ret = new ArrayList<Argument>();
-			for (int k=this.rowOffsets[r]; k<this.rowOffsets[r+1]; k++) {
-				if (this.arg2[this.colIndices[k]] == null) 
-					throw new IllegalStateException("Found null argument in index "+this.name+" arg2[colIndices["+k+"]="+colIndices[k]+"] (arg2.length="+arg2.length+")");
-				ret.add(this.arg2[this.colIndices[k]]);
+			for (int k=this.rowOffsets.get(r), end=this.rowOffsets.get(r+1); k<end; k++) {
+				int j = this.colIndices.get(k);
+				// binary matrices aren't checked as they load, so check here
+				if (j >= arg2.size())
+					throw new IllegalArgumentException("Malformed sparsegraph! For index "+this.name+", colIndices["+k+"]="+j+"; arg2.size() is only "+arg2.size());
+				ret.add(this.arg2.constant(j));
 			}
 			return ret;
 		}
@@ -150,7 +236,7 @@ public class SparseMatrixIndex {
 	 * @return
 	 */
 	public boolean contains(Argument key) {
-		return this.arg1.get(key.getName()) != null;
+		return this.arg1.id(key.getName()) >= 0;
 	}
 	/**
 	 * NB: Only works because all our nonzero weights are 1.0.
@@ -158,12 +244,51 @@ public class SparseMatrixIndex {
 	 * @return
 	 */
 	public int degree(Argument key) {
-		Integer r = this.arg1.get(key.getName());
-		if (r==null || r >= rows) {
+		return this.degree(this.arg1.id(key.getName()));
+	}
+	/** As degree(key), for the row numbered r in this matrix. */
+	public int degree(int r) {
+		if (r < 0 || r >= rows) {
 			return 0;
 		}
 		else {
-			return this.rowOffsets[r+1]-this.rowOffsets[r];
+			return this.rowOffsets.get(r+1)-this.rowOffsets.get(r);
+		}
+	}
+
+	/**
+	 * Convert the text matrices of each .sparse directory listed to the
+	 * binary format, writing [matrix].csr beside each, and [type].dict
+	 * beside each [type].i. The .rce files are still needed afterwards;
+	 * .rowOffset, .colIndex and .i are not.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage:\n\tgraphname.sparse [graphname.sparse ...]\n");
+			System.exit(0);
+		}
+		for (String dir : args) {
+			ParsedFile manifest = new ParsedFile(new File(dir,SparseGraphComponent.MANIFEST));
+			Set<String> types = new TreeSet<String>();
+			for (String matrix : manifest) {
+				String[] parts = matrix.split("_");
+				types.add(parts[1]); types.add(parts[2]);
+				for (String shard : ShardedSparseMatrix.shardNames(dir, matrix)) {
+					SparseMatrixIndex m = new SparseMatrixIndex();
+					m.loadText(dir, shard);
+					File out = new File(dir,shard+BINARY_EXTENSION);
+					m.writeBinary(out);
+					System.err.println("Wrote "+out);
+				}
+			}
+			manifest.close();
+			for (String type : types) {
+				SparseConstantDictionary d = new SparseConstantDictionary();
+				d.loadText(new File(dir,type+SparseGraphComponent.INDEX_EXTENSION));
+				File out = new File(dir,type+SparseConstantDictionary.BINARY_EXTENSION);
+				d.write(out);
+				System.err.println("Wrote "+out);
+			}
 		}
 	}
 }
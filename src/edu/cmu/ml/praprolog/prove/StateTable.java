@@ -0,0 +1,146 @@
+package edu.cmu.ml.praprolog.prove;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-query state table for the push-based provers.  Each
+ * LogicProgramState seen during a proof is interned to a dense
+ * integer id in 0..N-1, and the score (p), residual (r) and degree of
+ * every state are held in growable primitive arrays indexed by that
+ * id.  States are hashed once, when they are interned; everything
+ * after that works on ids.
+ */
+public class StateTable {
+	public static final int NO_ENTRY = -1;
+	public static final int DEFAULT_CAPACITY = 64;
+	// NB not a trove map: TuprologLogicProgramStates can be equal without
+	// having equal hashcodes, which trove refuses to rehash
+	protected Map<LogicProgramState,Integer> ids;
+	protected LogicProgramState[] states;
+	protected double[] p, r;
+	protected int[] deg;
+	protected int size = 0;
+	// states with nonzero residual, now and at most
+	protected int numResidual = 0, peakResidual = 0;
+
+	public StateTable() { this(DEFAULT_CAPACITY); }
+	public StateTable(int capacity) {
+		this.ids = new HashMap<LogicProgramState,Integer>(capacity);
+		this.states = new LogicProgramState[capacity];
+		this.p = new double[capacity];
+		this.r = new double[capacity];
+		this.deg = new int[capacity];
+	}
+
+	/**
+	 * Return the id of this state, adding it to the table with zero
+	 * score, zero residual and no degree if it hasn't been seen before.
+	 * @param state
+	 * @return
+	 */
+	public int intern(LogicProgramState state) {
+		Integer id = this.ids.get(state);
+		if (id != null) return id;
+		this.ids.put(state, this.size);
+		if (this.size == this.states.length) grow();
+		this.states[this.size] = state;
+		this.deg[this.size] = NO_ENTRY;
+		return this.size++;
+	}
+
+	private void grow() {
+		int n = this.states.length * 2;
+		this.states = Arrays.copyOf(this.states, n);
+		this.p = Arrays.copyOf(this.p, n);
+		this.r = Arrays.copyOf(this.r, n);
+		this.deg = Arrays.copyOf(this.deg, n);
+	}
+
+	/**
+	 * @param state
+	 * @return the id of this state, or NO_ENTRY if it is not in the table.
+	 */
+	public int getId(LogicProgramState state) {
+		Integer id = this.ids.get(state);
+		if (id == null) return NO_ENTRY;
+		return id;
+	}
+	public LogicProgramState getState(int id) {
+		return this.states[id];
+	}
+	public int size() {
+		return this.size;
+	}
+
+	public double getScore(int id) { return this.p[id]; }
+	public void incrementScore(int id, double value) { this.p[id] += value; }
+
+	public double getResidual(int id) { return this.r[id]; }
+	public void setResidual(int id, double value) { updateResidual(id, value); }
+	public void incrementResidual(int id, double value) { updateResidual(id, this.r[id] + value); }
+	private void updateResidual(int id, double value) {
+		if (this.r[id] == 0) {
+			if (value != 0 && ++this.numResidual > this.peakResidual) this.peakResidual = this.numResidual;
+		} else if (value == 0) this.numResidual--;
+		this.r[id] = value;
+	}
+	/**
+	 * @return the number of states with nonzero residual
+	 */
+	public int numResidual() { return this.numResidual; }
+	/**
+	 * @return the largest number of states that have had nonzero residual at the same time
+	 */
+	public int peakResidual() { return this.peakResidual; }
+
+	/**
+	 * @param id
+	 * @return the degree of the state, or NO_ENTRY if it hasn't been set yet.
+	 */
+	public int getDegree(int id) { return this.deg[id]; }
+	public void setDegree(int id, int degree) { this.deg[id] = degree; }
+	public boolean hasDegree(int id) { return this.deg[id] != NO_ENTRY; }
+
+	/**
+	 * Build the score vector as a map, including only states which have
+	 * received some score.
+	 * @return
+	 */
+	public Map<LogicProgramState,Double> scoreMap() {
+		Map<LogicProgramState,Double> result = new HashMap<LogicProgramState,Double>();
+		for (int i=0; i<this.size; i++) {
+			if (this.p[i] > 0) result.put(this.states[i], this.p[i]);
+		}
+		return result;
+	}
+	/**
+	 * Build the residual vector as a map, including only states with
+	 * nonzero residual.
+	 * @return
+	 */
+	public Map<LogicProgramState,Double> residualMap() {
+		Map<LogicProgramState,Double> result = new HashMap<LogicProgramState,Double>();
+		for (int i=0; i<this.size; i++) {
+			if (this.r[i] != 0) result.put(this.states[i], this.r[i]);
+		}
+		return result;
+	}
+	/**
+	 * @return the sum of all residuals
+	 */
+	public double totalResidual() {
+		double total=0;
+		for (int i=0; i<this.size; i++) total += this.r[i];
+		return total;
+	}
+	/**
+	 * @return the number of states which have received some score
+	 */
+	public int numScored() {
+		int n=0;
+		for (int i=0; i<this.size; i++) if (this.p[i] > 0) n++;
+		return n;
+	}
+}
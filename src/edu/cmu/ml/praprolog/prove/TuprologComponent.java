@@ -1,17 +1,22 @@
 package edu.cmu.ml.praprolog.prove;
 
+import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Semaphore;
 
 import org.apache.log4j.Logger;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+
 import alice.tuprolog.InvalidTheoryException;
 import alice.tuprolog.MalformedGoalException;
 import alice.tuprolog.NoSolutionException;
@@ -25,12 +30,57 @@ import edu.cmu.ml.praprolog.util.SymbolTable;
 import edu.cmu.ml.praprolog.util.tuprolog.SolutionIterator;
 import edu.cmu.ml.praprolog.util.tuprolog.TuprologAdapter;
 
+/**
+ * Component backed by tuprolog.
+ *
+ * Tuprolog engines can't be shared between threads, so each thread
+ * borrows an engine from a pool, making a new one (loaded with the same
+ * theories) when none is free, up to maxEngines; past that, threads wait
+ * for an engine to come back.
+ *
+ * The solutions for each state are cached, up to DEFAULT_CACHE states.
+ * Each is stamped with the number of theories the engine that found it
+ * had loaded, and only used while that is still every theory, so that
+ * a solve which was running when a theory was added can't put stale
+ * solutions in the cache.
+ */
 public class TuprologComponent extends Component {
 	private static final String COMPILED_EXTENSION = "x.pl";
 	private static final Logger log = Logger.getLogger(TuprologComponent.class);
 	private static final String OUTLINKS_RULES = "outlinks.2p";
 	public static final String UNCOMPILED_EXTENSION = ".pl";
-	private Prolog engine;
+	public static final int DEFAULT_CACHE = 10000;
+	public static final int DEFAULT_MAX_ENGINES = Runtime.getRuntime().availableProcessors();
+	// theories as text, so that every engine can load its own copy
+	private final List<String> theories = new ArrayList<String>();
+	// engines not in use; see acquire()
+	private final LinkedList<Engine> engines = new LinkedList<Engine>();
+	private final int maxEngines;
+	// one permit per engine we may still hand out
+	private final Semaphore available;
+	private int numEngines=0;
+	// null when caching is off
+	private volatile ConcurrentLinkedHashMap<String,Solutions> solutions = newCache(DEFAULT_CACHE);
+
+	/** The (solution state, features) terms for a state term */
+	private static class Solutions {
+		final List<Term[]> terms;
+		// number of theories loaded when these were found
+		final int theories;
+		Solutions(List<Term[]> terms, int theories) {
+			this.terms = terms;
+			this.theories = theories;
+		}
+	}
+
+	/** A tuprolog engine, and how many of our theories it has loaded */
+	private static class Engine {
+		final Prolog prolog = new Prolog();
+		int theories=0;
+		Engine() {
+			loadOutlinks(this.prolog);
+		}
+	}
 	private static void loadOutlinks(Prolog p) {
 		try {
 			InputStream is = TuprologComponent.class.getClassLoader().getResourceAsStream(OUTLINKS_RULES);
@@ -46,9 +96,14 @@ public class TuprologComponent extends Component {
 			throw new IllegalArgumentException(e);
 		}
 	}
-	public TuprologComponent() {		
-		engine = new Prolog();
-		loadOutlinks(engine);
+	public TuprologComponent() {
+		this(DEFAULT_MAX_ENGINES);
+	}
+	/** @param maxEngines the most tuprolog engines to run at once */
+	public TuprologComponent(int maxEngines) {
+		if (maxEngines < 1) throw new IllegalArgumentException("Need at least one engine; got "+maxEngines);
+		this.maxEngines = maxEngines;
+		this.available = new Semaphore(maxEngines);
 	}
 	public TuprologComponent(String ... files) {
 		this();
@@ -90,42 +145,162 @@ public class TuprologComponent extends Component {
 		if (!filename.endsWith(COMPILED_EXTENSION)) {
 			log.warn("Prolog file "+filename+" may not have been compiled first. Did you run edu.cmu.ml.praprolog.prove.TuprologComponent on it?");
 		}
+		StringBuilder theory = new StringBuilder();
 		try {
-			engine.addTheory(new Theory(new FileInputStream(filename)));
-		} catch (InvalidTheoryException e) {
-			log.error("Trouble with "+filename,e);
+			BufferedReader reader = new BufferedReader(new FileReader(filename));
+			try {
+				for (String line; (line = reader.readLine()) != null; ) theory.append(line).append("\n");
+			} finally {
+				reader.close();
+			}
 		} catch (FileNotFoundException e) {
 			log.error("Trouble with "+filename,e);
+			return;
 		} catch (IOException e) {
 			log.error("Trouble with "+filename,e);
+			return;
+		}
+		this.addTheoryText(theory.toString());
+	}
+	/** Add a theory, given as the text of a theory file */
+	public void addTheoryText(String theory) {
+		synchronized(this.theories) {
+			this.theories.add(theory);
+		}
+		// just to free the memory; solutions of fewer theories aren't used anyway
+		ConcurrentLinkedHashMap<String,Solutions> cache = this.solutions;
+		if (cache != null) cache.clear();
+	}
+	/** @return the text of each theory added so far, in order */
+	public List<String> getTheories() {
+		synchronized(this.theories) {
+			return new ArrayList<String>(this.theories);
+		}
+	}
+
+	/**
+	 * Set the most states whose solutions are cached; 0 turns caching off.
+	 * Empties the cache.
+	 */
+	public void setCacheCapacity(int capacity) {
+		this.solutions = capacity > 0 ? newCache(capacity) : null;
+	}
+	private static ConcurrentLinkedHashMap<String,Solutions> newCache(int capacity) {
+		return new ConcurrentLinkedHashMap.Builder<String,Solutions>()
+				.maximumWeightedCapacity(capacity)
+				.build();
+	}
+
+	public int getMaxEngines() {
+		return this.maxEngines;
+	}
+	/** @return the number of engines made so far */
+	public int getNumEngines() {
+		synchronized(this.engines) {
+			return this.numEngines;
 		}
 	}
 
+	/**
+	 * Borrow an engine loaded with every theory, waiting for one if
+	 * maxEngines are in use; return it with release()
+	 */
+	private Engine acquire() {
+		this.available.acquireUninterruptibly();
+		Engine e;
+		synchronized(this.engines) {
+			e = this.engines.poll();
+			if (e == null) this.numEngines++;
+		}
+		try {
+			if (e == null) e = new Engine();
+		} catch (RuntimeException ex) {
+			synchronized(this.engines) {
+				this.numEngines--;
+			}
+			this.available.release();
+			throw ex;
+		}
+		// catch up on theories added since this engine was last used
+		while (true) {
+			String theory;
+			synchronized(this.theories) {
+				if (e.theories >= this.theories.size()) break;
+				theory = this.theories.get(e.theories);
+			}
+			try {
+				e.prolog.addTheory(new Theory(theory));
+			} catch (InvalidTheoryException ex) {
+				log.error("Trouble with theory "+e.theories,ex);
+			}
+			e.theories++;
+		}
+		return e;
+	}
+	private void release(Engine e) {
+		synchronized(this.engines) {
+			this.engines.push(e);
+		}
+		this.available.release();
+	}
+
 	@Override
 	public boolean claim(LogicProgramState state) {
 		Term tustate = ((TuprologLogicProgramState) state.asTuprolog()).asTerm();
 		Term query = new Struct("claim",tustate);
-		return this.engine.solve(query).isSuccess();
+		Engine e = acquire();
+		try {
+			return e.prolog.solve(query).isSuccess();
+		} finally {
+			release(e);
+		}
 	}
 
 	@Override
 	public List<Outlink> outlinks(LogicProgramState state0) {
 		TuprologLogicProgramState state = (TuprologLogicProgramState) state0.asTuprolog();
 		Term tustate = state.asTerm();
-		Term query = new Struct("outlinks",tustate,new Var("S1"),new Var("F1"));
-		ArrayList<Outlink> ret = new ArrayList<Outlink>();
-		for (SolveInfo info : new SolutionIterator(this.engine, query)) {
+		String key = tustate.toString();
+		ConcurrentLinkedHashMap<String,Solutions> cache = this.solutions;
+		Solutions found = cache == null ? null : cache.get(key);
+		if (found == null || found.theories != numTheories()) {
+			List<Term[]> terms = new ArrayList<Term[]>();
+			Term query = new Struct("outlinks",tustate,new Var("S1"),new Var("F1"));
+			Engine engine = acquire();
 			try {
-				Term solution = info.getVarValue("S1");
-				Term features = info.getVarValue("F1");
-				ret.add(TuprologAdapter.termsToOutlink(solution,features,state));
-			} catch (NoSolutionException e) {
-				log.error("Something hideously wrong with the solution iterator",e);
+				for (SolveInfo info : new SolutionIterator(engine.prolog, query)) {
+					try {
+						terms.add(new Term[] {info.getVarValue("S1"), info.getVarValue("F1")});
+					} catch (NoSolutionException e) {
+						log.error("Something hideously wrong with the solution iterator",e);
+					}
+				}
+				found = new Solutions(terms, engine.theories);
+			} finally {
+				release(engine);
 			}
+			if (cache != null) cache.put(key, found);
+		}
+		// children are built fresh each time, since they belong to this state
+		ArrayList<Outlink> ret = new ArrayList<Outlink>();
+		for (Term[] solution : found.terms) {
+			ret.add(TuprologAdapter.termsToOutlink(solution[0],solution[1],state));
 		}
 		return ret;
 	}
 
+	private int numTheories() {
+		synchronized(this.theories) {
+			return this.theories.size();
+		}
+	}
+
+	/** Tuprolog builds its own child states, so we can't graft them onto other states */
+	@Override
+	public boolean isCacheable() {
+		return false;
+	}
+
 	@Override
 	public void compile() {
 		// TODO Auto-generated method stub
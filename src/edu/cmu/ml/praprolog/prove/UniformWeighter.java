@@ -20,7 +20,7 @@ public class UniformWeighter extends FeatureDictWeighter {
 
 	@Override
 	public double w(Map<Goal, Double> featureDict) {
-		return this.weightingScheme.edgeWeight(this.weights,featureDict);
+		return this.weightingScheme.edgeWeightFunction(this.innerProduct(featureDict));
 	}
 
 }
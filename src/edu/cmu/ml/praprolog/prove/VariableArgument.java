@@ -19,6 +19,16 @@ public class VariableArgument extends Argument {
 	@Override
 	public String getName() { return this.name; }
 	
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof VariableArgument)) return false;
+		return ((VariableArgument) o).index == this.index;
+	}
+	@Override
+	public int hashCode() {
+		return this.name.hashCode();
+	}
+	
 	@Override
 	public Argument getRenamed(int offset) {
 		return new VariableArgument(this.index-offset);
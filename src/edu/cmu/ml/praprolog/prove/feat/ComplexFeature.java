@@ -1,7 +1,9 @@
 package edu.cmu.ml.praprolog.prove.feat;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import edu.cmu.ml.praprolog.prove.*;
 
+import java.util.Collections;
 import java.util.Map;
 
 
@@ -10,12 +12,22 @@ import java.util.Map;
  * If implementing class does not have said constructor, then it will not be able
  * to interact with ComplexFeatureLibrary -- the init() function of that class
  * will throw a NoSuchMethodException.
+ * <p/>
+ * The features of each feature instance are computed once and remembered,
+ * up to DEFAULT_MEMO_CAPACITY instances; override memoize() to turn this off
+ * for features which depend on more than the instance's arguments.
  *
  * @author Malcolm Greaves
  */
 public abstract class ComplexFeature {
 
+    public static final int DEFAULT_MEMO_CAPACITY = 100000;
     protected LogicProgram lp;
+    // feature dicts by ground feature instance; shared by all threads
+    private final ConcurrentLinkedHashMap<Goal, Map<Goal, Double>> memo =
+            new ConcurrentLinkedHashMap.Builder<Goal, Map<Goal, Double>>()
+                    .maximumWeightedCapacity(DEFAULT_MEMO_CAPACITY)
+                    .build();
 
     public ComplexFeature(LogicProgram lp, String[] childargs) {
         setLogicProgram(lp);
@@ -70,6 +82,12 @@ public abstract class ComplexFeature {
             }
         }
 
+        final boolean memoize = memoize();
+        if (memoize) {
+            Map<Goal, Double> m = memo.get(unified);
+            if (m != null) return m;
+        }
+
         final Map<Goal, Double> m = featuresAsDict_h(unified);
 
         for (final Map.Entry<Goal, Double> entry : m.entrySet()) {
@@ -82,7 +100,25 @@ public abstract class ComplexFeature {
             }
         }
 
-        return m;
+        if (!memoize) return m;
+        final Map<Goal, Double> result = Collections.unmodifiableMap(m);
+        memo.put(unified, result);
+        return result;
+    }
+
+    /**
+     * @return true if featuresAsDict_h depends only on the arguments of the
+     * feature instance, so that its results can be remembered
+     */
+    protected boolean memoize() {
+        return true;
+    }
+
+    /**
+     * @return the number of feature instances remembered
+     */
+    public int memoSize() {
+        return memo.size();
     }
 
     /**
@@ -11,11 +11,16 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
 /**
+ * The complex features of one LogicProgram, by functor.
+ *
+ * A library is never modified once built, so any number of threads may
+ * share it, and each program in a JVM may have its own.
  * @author Malcolm Greaves
  */
 public class ComplexFeatureLibrary {
@@ -23,9 +28,8 @@ public class ComplexFeatureLibrary {
 	static public final String ESCAPE_PREFIX = "escape__";
 	static protected Logger log = Logger.getLogger(ComplexFeatureLibrary.class);
 	//
-	static private boolean initialized = false;
-	static private Map<String, ComplexFeature> functor2cf;
-	static private LogicProgram program;
+	private final Map<String, ComplexFeature> functor2cf;
+	private final LogicProgram program;
 
 	static public boolean isComplexFeature(Goal g) {
 		if (g == null)
@@ -39,16 +43,36 @@ public class ComplexFeatureLibrary {
 		return functor.startsWith(ESCAPE_PREFIX);
 	}
 
+	/**
+	 * Loads the functor -> ComplexFeature mapping from the specified reader.
+	 * @param logicProgram
+	 * @param r - reader for complex feature properties
+	 */
+	public ComplexFeatureLibrary(LogicProgram logicProgram, BufferedReader r) throws IOException {
+		if (logicProgram == null)
+			throw new NullPointerException("logic program cannot be null");
+		this.program = logicProgram;
+		Map<String, ComplexFeature> m = new HashMap<String, ComplexFeature>();
+		Properties props = new Properties();
+		props.load(r);
+		for (String functor : props.stringPropertyNames()) {
+			String[] parts = props.getProperty(functor).split(",", 2);
+			String clazz = parts[0];
+			String[] args;
+			if (parts.length > 1) args = parts[1].split(",");
+			else args = new String[0];
+			addEntry(m,functor,clazz,args);
+		}
+		this.functor2cf = Collections.unmodifiableMap(m);
+	}
+
 	/**
 	 * @param functor
 	 * @return the ComplexFeature for the registered functor, null if functor is not registered
-	 * @throws IllegalArgumentException if not iniitalized
 	 * @throws NullPointerException     if functor is null
 	 * @throws IllegalArgumentException if functor is zero-length
 	 */
-	static public ComplexFeature getFeature(String functor) {
-		if (!initialized)
-			throw new IllegalStateException("ComplexFeatureLibrary is not initialized");
+	public ComplexFeature getFeature(String functor) {
 		if (functor == null)
 			throw new IllegalArgumentException("functor cannot be null");
 		if (functor.length() == 0)
@@ -56,14 +80,11 @@ public class ComplexFeatureLibrary {
 		return functor2cf.get(functor);
 	}
 
-	static private void init(LogicProgram logicProgram) {
-		if (logicProgram == null)
-			throw new NullPointerException("logic program cannot be null");
-		program = logicProgram;
-		functor2cf = new HashMap<String, ComplexFeature>();
-		if (initialized) log.warn("Complex feature library was already initialized once -- overwriting...");
+	public LogicProgram getLogicProgram() {
+		return program;
 	}
-	static private void addEntry(String functor, String className, String[] args) {
+
+	private void addEntry(Map<String, ComplexFeature> m, String functor, String className, String[] args) {
 		final Class<? extends ComplexFeature> clazz;
 		final ComplexFeature feature;
 		try {
@@ -71,15 +92,15 @@ public class ComplexFeatureLibrary {
 			feature = (ComplexFeature) clazz.getDeclaredConstructor(LogicProgram.class, String[].class)
 					.newInstance(program, (Object) args);
 
-			functor2cf.put(functor, feature);
+			m.put(functor, feature);
 			if (functor.isEmpty()) throw new IllegalArgumentException("cannot have zero-length functor for feature "+className);
 			if (functor.startsWith(ESCAPE_PREFIX)) {
 				String f = new String(functor.split(ESCAPE_PREFIX,2)[1]);
 				log.info("adding ComplexFeature: " + f);
-				functor2cf.put(f, feature);
+				m.put(f, feature);
 			} else {
 				log.info("adding ComplexFeature: " + functor);
-				functor2cf.put(ESCAPE_PREFIX + functor, feature);
+				m.put(ESCAPE_PREFIX + functor, feature);
 			}
 		} catch (Exception e) {
 			throw new IllegalArgumentException("Couldn't initialize feature "+className
@@ -89,14 +110,14 @@ public class ComplexFeatureLibrary {
 		}
 	}
 	/**
-	 * Destroys current state (if any) and loads the functor -> ComplexFeature mapping
-	 * from the properties file.
+	 * Loads the functor -> ComplexFeature mapping from the properties file,
+	 * and installs it in logProg in place of any library it had.
 	 * @param logProg
 	 * @param f - complex features properties file
 	 */
-	static public void init(LogicProgram logProg, File f) {
+	static public ComplexFeatureLibrary init(LogicProgram logProg, File f) {
 		try {
-			init(logProg, new BufferedReader(new FileReader(f)));
+			return init(logProg, new BufferedReader(new FileReader(f)));
 		} catch (FileNotFoundException e) {
 			throw new IllegalArgumentException("Couldn't find complex feature properties at "+f.getAbsolutePath(),e);
 		} catch (IOException e) {
@@ -104,90 +125,26 @@ public class ComplexFeatureLibrary {
 		}
 	}
 	/**
-	 * Destroys current state (if any) and loads the functor -> ComplexFeature mapping
-	 * from the specified reader.
+	 * Loads the functor -> ComplexFeature mapping from the specified reader,
+	 * and installs it in logProg in place of any library it had.
 	 * @param logProg
 	 * @param r - reader for complex feature properties
 	 */
-	static public void init(LogicProgram logProg, BufferedReader r) throws IOException {
-		init(logProg);
-		Properties props = new Properties();
-		props.load(r);
-		for (String functor : props.stringPropertyNames()) {
-			String[] parts = props.getProperty(functor).split(",", 2);
-			String clazz = parts[0];
-			String[] args;
-			if (parts.length > 1) args = parts[1].split(",");
-			else args = new String[0];
-			addEntry(functor,clazz,args);
-		} 
-		initialized = true;
-	}
-	static public void old_init(LogicProgram logProg, BufferedReader r)
-			throws IOException {
-		init(logProg);
-		if (r == null)
-			throw new NullPointerException("reader cannot be null");
-
-		functor2cf = new HashMap<String, ComplexFeature>();
-		// load & construct functor classes
-		for (String line; (line = r.readLine()) != null; ) {
-			line = line.trim();
-			if (line.charAt(0) != '#') {
-				// lines that start with # are comments
-				final String[] bits = line.split("=");
-				if (bits.length != 2)
-					throw new IllegalArgumentException("improper format, need %s=%s[,%s]*\\n, not \"" +
-							line + "\"");
-
-				final String functor = bits[0].trim();
-				if (functor.length() == 0)
-					throw new IllegalArgumentException("cannot have zero-length functor (line: \"" +
-							line + "\"");
-
-				bits[1] = bits[1].trim();
-				if (bits[1].length() == 0)
-					throw new IllegalArgumentException("cannot have zero-length ComplexFeature class & args string (line: \"" +
-							line + "\"");
-				final int firstComma = bits[1].indexOf(",");
-				final String[] constructionArgs;
-				final String classStr;
-				if (firstComma == -1) {
-					classStr = bits[1];
-					constructionArgs = new String[0];
-				} else {
-					classStr = bits[1].substring(0, firstComma);
-					constructionArgs = bits[1].substring(firstComma + 1).split(",");
-				}
-				if (classStr.length() == 0)
-					throw new IllegalArgumentException("cannot have zero length ComplexFeature class (line: \"" +
-							line + "\"");
-
-				addEntry(functor,classStr,constructionArgs);
-			}
-		}
-
-		initialized = true;
+	static public ComplexFeatureLibrary init(LogicProgram logProg, BufferedReader r) throws IOException {
+		ComplexFeatureLibrary library = new ComplexFeatureLibrary(logProg, r);
+		logProg.setComplexFeatureLibrary(library);
+		return library;
 	}
 
 	/**
-	 * Destroys current state (if any) and loads the functor -> ComplexFeature mapping
-	 * from the properties file.
+	 * Loads the functor -> ComplexFeature mapping from the properties file,
+	 * and installs it in logProg in place of any library it had.
 	 * 
 	 * @param logProg
 	 * @param propsFile
 	 */
 
-	static public void init(LogicProgram logProg, String propsFile) {
-		init(logProg, new File(propsFile));
-	}
-	
-	/** 
-	 * (Unit tests only)
-	 */
-	static public void _reset() {
-		initialized=false;
-		functor2cf=null;
-		program=null;
+	static public ComplexFeatureLibrary init(LogicProgram logProg, String propsFile) {
+		return init(logProg, new File(propsFile));
 	}
 }
@@ -10,7 +10,6 @@ import org.apache.commons.cli.Options;
 import org.apache.log4j.Logger;
 
 import edu.cmu.ml.praprolog.learn.tools.WeightingScheme;
-import edu.cmu.ml.praprolog.prove.Component;
 import edu.cmu.ml.praprolog.prove.DprProver;
 import edu.cmu.ml.praprolog.prove.Goal;
 import edu.cmu.ml.praprolog.prove.InnerProductWeighter;
@@ -31,7 +30,7 @@ public class DprMinAlphaTuner {
 	protected LogicProgram program;
 
 	public DprMinAlphaTuner(String[] programFiles, double alpha, Map<String,Double> params, WeightingScheme wScheme) {
-		this.program = new LogicProgram(Component.loadComponents(programFiles, alpha, null));
+		this.program = LogicProgram.load(programFiles, alpha, null);
 		if (params != null) {
 			this.program.setFeatureDictWeighter(
 					InnerProductWeighter.fromParamVec(
@@ -1,29 +1,26 @@
 package edu.cmu.ml.praprolog.trove;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import edu.cmu.ml.praprolog.Tester;
-import edu.cmu.ml.praprolog.graph.GraphWriter;
 import edu.cmu.ml.praprolog.learn.tools.WeightingScheme;
 import edu.cmu.ml.praprolog.prove.LogicProgram;
 import edu.cmu.ml.praprolog.prove.LogicProgramState;
+import edu.cmu.ml.praprolog.prove.ProofCache;
 import edu.cmu.ml.praprolog.prove.Prover;
 import edu.cmu.ml.praprolog.prove.ThawedPosNegExample;
-import edu.cmu.ml.praprolog.trove.graph.AnnotatedTroveGraph;
-import edu.cmu.ml.praprolog.trove.graph.AnnotatedTroveGraph.GraphFormatException;
 import edu.cmu.ml.praprolog.trove.learn.SRW;
 import edu.cmu.ml.praprolog.trove.learn.tools.PosNegRWExample;
 import edu.cmu.ml.praprolog.util.ParamVector;
-import gnu.trove.map.TIntDoubleMap;
-import gnu.trove.map.hash.TIntDoubleHashMap;
 
 public class RerankingTester extends Tester {
 	private static final Logger log = Logger.getLogger(RerankingTester.class);
-	protected ParamVector params = null;
+	protected ParamVector<?> params = null;
 	protected SRW<PosNegRWExample> srw;
+	// examples are proved once, then only re-weighted
+	protected ProofCache proofs = new ProofCache();
 	public RerankingTester(Prover p, LogicProgram lp, SRW<PosNegRWExample> walker) {
 		super(p, lp);
 		this.srw = walker;
@@ -36,42 +33,10 @@ public class RerankingTester extends Tester {
 	
 	@Override
 	public Map<LogicProgramState,Double> getSolutions(ThawedPosNegExample x,LogicProgram program) {
-		GraphWriter writer = new GraphWriter();
-		Map<LogicProgramState,Double> ans = this.prover.proveState(program, x.getQueryState(), writer);
-		if (this.params == null) return ans;
-		
-		// Get all the GraphWriter ids of the solutions
-		HashMap<String,LogicProgramState> graphIds = new HashMap<String,LogicProgramState>();
-		for (Map.Entry<LogicProgramState,Double> e : ans.entrySet()) {
-			if (e.getKey().isSolution()) {
-				graphIds.put(writer.getId(e.getKey()),e.getKey());
-			}
-		}
-		
-		// Convert the GraphWriter AnnotatedGraph<String> to AnnotatedTroveGraph,
-		// which keeps its own separate node index
-		AnnotatedTroveGraph graph = new AnnotatedTroveGraph();
-		try {
-			AnnotatedTroveGraph.fromStringParts(writer.getGraph().toString(), graph);
-		} catch (GraphFormatException e1) {
-			throw new IllegalStateException("Programmer error? Parsing should work here.");
-		}
-		
-		// first dereference to the GraphWriter index, then dereference to the Trove index
-		TIntDoubleMap start = new TIntDoubleHashMap(); start.put(graph.keyToId(writer.getId(x.getQueryState())),1.0);
-		
-		// do the RWR, and record the new weights of the solutions we found before
-		TIntDoubleMap result = this.srw.rwrUsingFeatures(graph, start, this.params);
-		for (Map.Entry<String,LogicProgramState> e : graphIds.entrySet()) {
-			if (!result.containsKey(graph.keyToId(e.getKey()))) {
-				log.warn("RWR did not retrieve baseline solution "+e.getValue()+"; removing");
-				ans.remove(e.getValue());
-			} else {
-				ans.put(e.getValue(), result.get(graph.keyToId(e.getKey())));
-			}
-		}
-		
-		return ans;
+		ProofCache.CachedProof proof = this.proofs.get(this.prover, program, x.getQueryState());
+		if (this.params == null) return proof.getScores();
+		// same walk as srw.rwrUsingFeatures, over the frozen graph
+		return proof.rescore(this.params, this.srw.getWeightingScheme(), this.srw.getMaxT());
 	}
 
 }
@@ -63,6 +63,9 @@ public class Configuration {
     public String paramsFile = null;
     public WeightingScheme weightingScheme = null;
     public boolean force = false;
+    /** write per-query prover metrics beside the output file */
+    public boolean metrics = false;
+    public static final String METRICS_SUFFIX = ".metrics";
 	public Boolean ternaryIndex = null;
 
 	static boolean isOn(int flags, int flag) {
@@ -135,7 +138,9 @@ public class Configuration {
 					this.prover = new PprProver();
 				} else {
 					int depth = Integer.parseInt(values[1]);
-					this.prover = new PprProver(depth);
+					int threads = PprProver.DEFAULT_THREADS;
+					if (values.length>2) threads = Integer.parseInt(values[2]);
+					this.prover = new PprProver(depth,false,threads);
 				}
 			} else if (values[0].startsWith("dpr")) {
 				if (values.length==1)
@@ -152,9 +157,31 @@ public class Configuration {
 						if ("boost".equals(values[3])) strategy = DprProver.BOOST_ALPHA;
 						if ("adjust".equals(values[3])) strategy = DprProver.ADJUST_ALPHA;
 					}
-					this.prover = new DprProver(epsilon,this.alpha, strategy);
+					int schedule = DprProver.SCHEDULE_DEFAULT;
+					if (values.length>4) {
+						if ("dfs".equals(values[4])) schedule = DprProver.SCHEDULE_DFS;
+						else if ("fifo".equals(values[4])) schedule = DprProver.SCHEDULE_FIFO;
+						else if ("priority".equals(values[4])) schedule = DprProver.SCHEDULE_PRIORITY;
+						else usageOptions(options,flags,"No dpr push schedule '"+values[4]+"'");
+					}
+					this.prover = new DprProver(epsilon,this.alpha, strategy, schedule);
 					this.alpha += epsilon;
 				}
+			} else if (values[0].startsWith("pdpr")) {
+				double epsilon = DprProver.EPS_DEFAULT;
+				this.alpha = DprProver.MINALPH_DEFAULT;
+				int strategy = DprProver.STRATEGY_DEFAULT;
+				int threads = ParallelDprProver.THREADS_DEFAULT;
+				if (values.length>1) epsilon = Double.parseDouble(values[1]);
+				if (values.length>2) this.alpha = Double.parseDouble(values[2]);
+				if (values.length>3) {
+					if ("throw".equals(values[3])) strategy = DprProver.THROW_ALPHA_ERRORS;
+					if ("boost".equals(values[3])) strategy = DprProver.BOOST_ALPHA;
+					if ("adjust".equals(values[3])) strategy = DprProver.ADJUST_ALPHA;
+				}
+				if (values.length>4) threads = Integer.parseInt(values[4]);
+				this.prover = new ParallelDprProver(epsilon,this.alpha,strategy,threads);
+				this.alpha += epsilon;
 			} else if(values[0].startsWith("tr")) {
 				int depth = TracingDfsProver.DEFAULT_MAXDEPTH;
 				if (values.length!=1) {
@@ -165,6 +192,16 @@ public class Configuration {
 			    usageOptions(options,flags,"No prover definition for '"+values[0]+"'");
 			}
 		}
+		if (isOn(flags,USE_PROVER) && line.hasOption("proofLimits")) {
+			if (!(this.prover instanceof DprProver || this.prover instanceof ParallelDprProver))
+				usageOptions(options,flags,"Proof limits are only supported by the dpr and pdpr provers");
+			String[] values = line.getOptionValue("proofLimits").split(":");
+			int maxPushes = Integer.parseInt(values[0]);
+			int maxStates = values.length>1 ? Integer.parseInt(values[1]) : 0;
+			long maxMillis = values.length>2 ? Long.parseLong(values[2]) : 0;
+			if (this.prover instanceof DprProver) ((DprProver) this.prover).setLimits(maxPushes, maxStates, maxMillis);
+			else ((ParallelDprProver) this.prover).setLimits(maxPushes, maxStates, maxMillis);
+		}
 
         if (anyOn(flags, USE_PROGRAMFILES | USE_PROVER)) {
             if (this.weightingScheme == null) this.weightingScheme = new TanhWeightingScheme();
@@ -182,6 +219,7 @@ public class Configuration {
         }
         
         if (line.hasOption("force")) this.force = true;
+        if (isOn(flags,USE_OUTPUT) && line.hasOption("metrics")) this.metrics = true;
     }
 
     /**
@@ -196,7 +234,7 @@ public class Configuration {
 	                        .withArgName("file:...:file")
 	                        .hasArgs()
 	                        .withValueSeparator(':')
-	                        .withDescription("Description of the logic program. Formats:\n\t\tcrules:goal,, & ... & goal,, # feature,, # variable,,\n\t\tcfacts:f\\ta\\ta")
+	                        .withDescription("Description of the logic program. Formats:\n\t\tcrules:goal,, & ... & goal,, # feature,, # variable,,\n\t\tcfacts:f\\ta\\ta\n\t\tor a single .lps snapshot from LogicProgramSnapshot")
 	                        .create());
 	        options.addOption(
 	        		OptionBuilder
@@ -239,10 +277,20 @@ public class Configuration {
 		                        .hasArg()
 		                        .withDescription("Default: " + this.prover.getClass().getSimpleName() + "\n"
 		                                         + "Available options:\n"
-		                                         + "ppr[:depth] (default depth=5)\n"
-		                                         + "dpr[:eps[:alph[:strat]]] (default eps=1E-4, alph=0.1, strategy=throw(boost,adjust))\n"
+		                                         + "ppr[:depth[:threads]] (default depth=5, threads=1)\n"
+		                                         + "dpr[:eps[:alph[:strat[:sched]]]] (default eps=1E-4, alph=0.1, strategy=throw(boost,adjust), schedule=dfs(fifo,priority))\n"
+		                                         + "pdpr[:eps[:alph[:strat[:threads]]]] (as dpr, but pushes in parallel; default threads=#cpus)\n"
 		                                         + "tr[:depth] (default depth=5)")
 		                        .create());
+        if(isOn(flags, USE_PROVER))
+	        options.addOption(
+		                OptionBuilder
+		                        .withLongOpt("proofLimits")
+		                        .withArgName("pushes[:states[:msec]]")
+		                        .hasArg()
+		                        .withDescription("Stop proving a query after this many pushes, states, or milliseconds, "
+		                                         + "and keep the partial result (0 for no limit; dpr and pdpr only)")
+		                        .create());
         if (isOn(flags, USE_THREADS)) options.addOption(
                 OptionBuilder
                         .withLongOpt("threads")
@@ -300,6 +348,12 @@ public class Configuration {
                             .withDescription("Properties file for complex features")
                             .create());
         }
+        if (isOn(flags, USE_OUTPUT))
+            options.addOption(
+                    OptionBuilder
+                            .withLongOpt("metrics")
+                            .withDescription("Save per-query prover metrics to the output file name + " + METRICS_SUFFIX)
+                            .create());
         options.addOption(
         	OptionBuilder
         		.withLongOpt("force")
@@ -311,7 +365,7 @@ public class Configuration {
         if (isOn(flags, USE_PROGRAMFILES)) syntax.append(" --programFiles file.crules:file.cfacts:file.graph");
         if (isOn(flags, USE_DATA)) syntax.append(" --data training.data");
         if (isOn(flags, USE_OUTPUT)) syntax.append(" --output training.cooked");
-        if (isOn(flags, USE_PROVER)) syntax.append(" [--prover { ppr[:depth] | dpr[:eps[:alph[:strat]]] | tr[:depth] }]");
+        if (isOn(flags, USE_PROVER)) syntax.append(" [--prover { ppr[:depth[:threads]] | dpr[:eps[:alph[:strat[:sched]]]] | pdpr[:eps[:alph[:strat[:threads]]]] | tr[:depth] }] [--proofLimits pushes[:states[:msec]]]");
         if (isOn(flags, USE_TRAIN)) syntax.append(" --train training.data");
         if (isOn(flags, USE_TEST)) syntax.append(" --test testing.data");
         if (isOn(flags, USE_PARAMS)) syntax.append("  [--params params.txt]");
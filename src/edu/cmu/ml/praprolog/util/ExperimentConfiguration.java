@@ -24,7 +24,6 @@ import edu.cmu.ml.praprolog.learn.tools.SRWParameters;
 import edu.cmu.ml.praprolog.learn.tools.SigmoidWeightingScheme;
 import edu.cmu.ml.praprolog.learn.tools.TanhWeightingScheme;
 import edu.cmu.ml.praprolog.learn.tools.WeightingScheme;
-import edu.cmu.ml.praprolog.prove.Component;
 import edu.cmu.ml.praprolog.prove.LogicProgram;
 import edu.cmu.ml.praprolog.prove.feat.ComplexFeatureLibrary;
 import edu.cmu.ml.praprolog.trove.MultithreadedRRTrainer;
@@ -144,6 +143,13 @@ public class ExperimentConfiguration extends Configuration {
 						+ "trove.mt\n"
 						+ "trove.rt")
 						.create());
+		options.addOption(
+				OptionBuilder
+				.withLongOpt("outlinkCache")
+				.withArgName("capacity")
+				.hasArg()
+				.withDescription("Number of outlinks to cache across queries (default "+LogicProgram.DEFAULT_OUTLINK_CACHE_CAPACITY+"; 0 disables)")
+				.create());
 		options.addOption(
 				OptionBuilder
 				.withLongOpt("seed")
@@ -210,8 +216,10 @@ public class ExperimentConfiguration extends Configuration {
 
 		if (isOn(flags,Configuration.USE_PROGRAMFILES)) {
 			if (this.programFiles != null) 
-				this.program = new LogicProgram(Component.loadComponents(programFiles, this.alpha, this));
+				this.program = LogicProgram.load(programFiles, this.alpha, this);
 			else if (!isOn(flags,Configuration.USE_DEFERREDPROGRAM)) missing(Configuration.USE_PROGRAMFILES, flags);
+			if (this.program != null && line.hasOption("outlinkCache"))
+				this.program.setOutlinkCacheCapacity(Integer.parseInt(line.getOptionValue("outlinkCache")));
 		}
 		
 		// TODO: There are likely other logic errors below for things that need a program if we've deferred it
@@ -235,6 +243,7 @@ public class ExperimentConfiguration extends Configuration {
 				}
 			}
 		} else this.cooker = new ModularMultiExampleCooker(this.prover, this.program, threads);
+		if (this.metrics && this.outputFile != null) this.cooker.useMetricsFile(new File(this.outputFile + METRICS_SUFFIX));
 
 		this.trove=true;
 		threads = 3;
@@ -1,6 +1,7 @@
 package edu.cmu.ml.praprolog.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -74,6 +75,13 @@ public class SymbolTable {
 		// FIXME this may be slow
 		return new VariableArgument(-this.idDict.get(symbol));
 	}
+	/**
+	 * Get a read-only list of all defined symbols, in order of id.
+	 * @return
+	 */
+	public List<String> getSymbolList() {
+		return Collections.unmodifiableList(this.symbolList);
+	}
 	public void insert(Argument a) {
 		this.insert(a.getName()); // FIXME may need to check constant/variable
 	}
@@ -215,7 +215,7 @@ public class TuprologAdapter {
 			} else // v[c[]]
 				return termToArg(argTerm.getTerm(), data);
 		} else if (argTerm instanceof Struct) {
-			return new ConstantArgument( ((Struct)argTerm).getName() );
+			return ConstantArgument.intern( ((Struct)argTerm).getName() );
 		} else throw new IllegalStateException("Argument neither Var nor Struct: "+argTerm);
 	}
 	public static Map<Goal,Double> termToFeatures(Term f) {
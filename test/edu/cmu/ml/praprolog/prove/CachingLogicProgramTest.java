@@ -0,0 +1,103 @@
+package edu.cmu.ml.praprolog.prove;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.cmu.ml.praprolog.util.SymbolTable;
+
+public class CachingLogicProgramTest {
+	@Before
+	public void setup() {
+		BasicConfigurator.configure(); Logger.getRootLogger().setLevel(Level.WARN);
+	}
+
+	/** Counts how many times each state is expanded by the wrapped component. */
+	static class CountingComponent extends Component {
+		Component c;
+		Map<LogicProgramState,Integer> expansions = new HashMap<LogicProgramState,Integer>();
+		CountingComponent(Component c) { this.c = c; }
+		@Override
+		public boolean claim(LogicProgramState state) { return c.claim(state); }
+		@Override
+		public List<Outlink> outlinks(LogicProgramState state) throws LogicProgramException {
+			Integer n = expansions.get(state);
+			expansions.put(state, n == null ? 1 : n+1);
+			return c.outlinks(state);
+		}
+		@Override
+		public void compile() { c.compile(); }
+		@Override
+		public void compile(SymbolTable variableSymTab) { c.compile(variableSymTab); }
+	}
+
+	@Test
+	public void testExpandOnce() {
+		CountingComponent rules = new CountingComponent(RuleComponentTest.makeMemIDB());
+		LogicProgram lp = new LogicProgram(rules, GoalComponentTest.makeMemEDB());
+		Map<String,Double> sols = new DprProver(0.00001, 0.03).solutionsForQuery(lp, "mem", "X", "l_abcde");
+		assertTrue("some solutions",sols.size() > 0);
+		assertTrue("some expansions",rules.expansions.size() > 0);
+		for (Map.Entry<LogicProgramState,Integer> e : rules.expansions.entrySet()) {
+			assertEquals(e.getKey().toString(),1,e.getValue().intValue());
+		}
+	}
+
+	@Test
+	public void testMatchesProgram() throws LogicProgramException {
+		LogicProgram lp = new LogicProgram(RuleComponentTest.makeMemIDB(), GoalComponentTest.makeMemEDB());
+		CachingLogicProgram clp = new CachingLogicProgram(lp);
+		LogicProgramState s = Prover.parseQuery("mem", "X", "l_de");
+		int d = clp.lpDegree(s, true, true);
+		assertEquals(lp.lpDegree(s, true, true), d);
+		assertEquals(0,clp.getHits());
+		List<LogicProgram.LogicProgramOutlink> outs = clp.lpOutlinks(s, true, false);
+		assertEquals(d-1, outs.size());
+		assertEquals("outlinks were cached computing the degree",1,clp.getHits());
+		assertSame(outs, clp.lpOutlinks(s, true, false));
+		assertEquals(lp.lpRestartWeight(s, true).getWeight(), clp.lpRestartWeight(s, true).getWeight(), 1e-10);
+		assertTrue(clp.getHitRate() > 0.5);
+	}
+
+	@Test
+	public void testRestartShared() throws LogicProgramException {
+		LogicProgram lp = new LogicProgram(RuleComponentTest.makeMemIDB(), GoalComponentTest.makeMemEDB());
+		lp.setAlpha(0.2);
+		CachingLogicProgram clp = new CachingLogicProgram(lp);
+		LogicProgramState s = Prover.parseQuery("mem", "X", "l_de");
+		LogicProgram.LogicProgramOutlink r = clp.lpRestartWeight(s, true);
+		assertEquals(s.restart(), r.getState());
+		assertSame("restart link reused",r,clp.lpRestartWeight(s, true));
+		for (LogicProgram.LogicProgramOutlink o : clp.lpOutlinks(s, true, false)) {
+			LogicProgramState t = o.getState();
+			LogicProgram.LogicProgramOutlink rt = clp.lpRestartWeight(t, true);
+			assertSame("one restart state per query",r.getState(),rt.getState());
+			LogicProgram.LogicProgramOutlink expected = lp.lpRestartWeight(t, true);
+			assertEquals(t.toString(),expected.getWeight(), rt.getWeight(), 1e-10);
+			assertEquals(t.toString(),expected.getFeatureList().size(), rt.getFeatureList().size());
+		}
+		assertSame("restart state restarts to itself",r.getState(),clp.restartState(r.getState()));
+	}
+
+	@Test
+	public void testTuprologRestarts() throws LogicProgramException {
+		LogicProgram lp = new LogicProgram(
+				GoalComponent.loadCompiled("testcases/family-more.cfacts"), new TuprologComponent("testcases/prolog/family.pl"));
+		CachingLogicProgram clp = new CachingLogicProgram(lp);
+		LogicProgramState s = new ProPPRLogicProgramState(Goal.decompile("sim,katie,-1"));
+		LogicProgram.LogicProgramOutlink r = clp.lpRestartWeight(s.asTuprolog(), true);
+		for (int i=0; i<10; i++) {
+			// a fresh restart state each time, but the same link
+			assertSame(r, clp.lpRestartWeight(s.asTuprolog(), true));
+		}
+		assertEquals(1, clp.restarts.size());
+	}
+}
@@ -26,4 +26,17 @@ public class ComponentConsolidationTest {
 		assertEquals("'testcases/family.cfacts'", ((GoalComponent) components[0]).label);
 	}
 
+	@Test
+	public void testOrder() {
+		String[] files = "testcases/family.crules:testcases/family.cfacts:testcases/textcat/words.graph:testcases/family-more.cfacts".split(":");
+		Component[] first = Component.loadComponents(files, Component.ALPHA_DEFAULT, null);
+		assertEquals(3,first.length);
+		// loaded in parallel, but always in the same order
+		for (int k=0; k<5; k++) {
+			Component[] again = Component.loadComponents(files, Component.ALPHA_DEFAULT, null);
+			assertEquals(first.length,again.length);
+			for (int i=0; i<first.length; i++) assertEquals(first[i].getClass(), again[i].getClass());
+		}
+	}
+
 }
@@ -0,0 +1,79 @@
+package edu.cmu.ml.praprolog.prove;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ConstantArgumentTest {
+
+	@Test
+	public void testIntern() {
+		ConstantArgument a = ConstantArgument.intern("william"), b = ConstantArgument.intern("william");
+		assertSame(a,b);
+		assertEquals(a.getId(),b.getId());
+		assertFalse(a.equals(ConstantArgument.intern("lottie")));
+
+		// copies share the canonical id
+		ConstantArgument c = new ConstantArgument("william");
+		assertNotSame(a,c);
+		assertEquals(a.getId(),c.getId());
+		assertEquals(a,c);
+		assertEquals(a.hashCode(),c.hashCode());
+
+		assertSame(a,Argument.fromString("william"));
+		assertSame(a,Goal.decompile("child,william,-1").getArg(0));
+	}
+
+	@Test
+	public void testVariables() {
+		Argument x = new VariableArgument(-1);
+		assertFalse(ConstantArgument.intern("-1").equals(x));
+		assertFalse(x.equals(ConstantArgument.intern("-1")));
+		assertEquals(x,new VariableArgument(-1));
+		assertFalse(x.equals(new VariableArgument(-2)));
+	}
+
+	@Test
+	public void testOrder() {
+		// ids are in order of first use, but sorting is still by name
+		ConstantArgument z = ConstantArgument.intern("zz-order"), a = ConstantArgument.intern("aa-order");
+		assertTrue(z.getId() < a.getId());
+		List<Argument> args = new ArrayList<Argument>(Arrays.asList(z,a));
+		Collections.sort(args);
+		assertEquals(a,args.get(0));
+		assertEquals(z,args.get(1));
+		assertEquals(0,a.compareTo(new ConstantArgument("aa-order")));
+	}
+
+	@Test
+	public void testThreads() throws Exception {
+		final int nthreads=8, n=1000;
+		ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+		List<Future<ConstantArgument[]>> results = new ArrayList<Future<ConstantArgument[]>>();
+		for (int t=0; t<nthreads; t++) {
+			results.add(pool.submit(new Callable<ConstantArgument[]>() {
+				@Override
+				public ConstantArgument[] call() {
+					ConstantArgument[] result = new ConstantArgument[n];
+					for (int i=0; i<n; i++) result[i] = ConstantArgument.intern("thread-"+i);
+					return result;
+				}
+			}));
+		}
+		ConstantArgument[] first = results.get(0).get();
+		for (Future<ConstantArgument[]> f : results) {
+			ConstantArgument[] r = f.get();
+			for (int i=0; i<n; i++) assertSame(first[i],r[i]);
+		}
+		pool.shutdown();
+	}
+}
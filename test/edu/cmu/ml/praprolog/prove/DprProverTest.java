@@ -1,7 +1,14 @@
 package edu.cmu.ml.praprolog.prove;
 
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Test;
 
+import edu.cmu.ml.praprolog.util.Dictionary;
+
 public class DprProverTest extends ProverTestTemplate {
 	@Override
 	public void setup() {
@@ -27,5 +34,66 @@ public class DprProverTest extends ProverTestTemplate {
 		proveStateAnswers[1] = 0.03571; // most
 		proveStateAnswers[2] = 0.53564; // start
 	}
+	
+	@Test
+	public void testSchedules() {
+		DprProver dfs = new DprProver(0.00001, .03);
+		for (int schedule : new int[] {DprProver.SCHEDULE_FIFO, DprProver.SCHEDULE_PRIORITY}) {
+			DprProver other = new DprProver(0.00001, .03, DprProver.STRATEGY_DEFAULT, schedule);
+			assertEquals(other.toString(),0,maxSolDelta(dfs,other,lpMem,"mem","X","l_abcde"),1e-3);
+			assertEquals(other.toString(),0,maxSolDelta(dfs,other,lpMem,"mem2","X","Y","l_abcde"),1e-3);
+			assertEquals(other.toString(),0,maxSolDelta(dfs,other,lpMilk,"isa","elsie","X"),1e-3);
+		}
+	}
+	
+	@Test
+	public void testTopK() {
+		DprProver dpr = new DprProver(0.0000001, .03);
+		LogicProgramState q = Prover.parseQuery("mem","X","l_abcde");
+		ProofResult full = dpr.prove(lpMem, q, null, 0);
+		ProofResult top = dpr.prove(lpMem, q, null, 2);
+		assertFalse(full.isTruncated());
+		assertTrue("stopped early",top.isTruncated());
+		assertFalse("not at a limit",top.hitLimit());
+		assertTrue("fewer pushes",top.getNumPushes() < full.getNumPushes());
+		
+		List<Map.Entry<String,Double>> fullRank = Dictionary.sort(full.getSolutions());
+		List<Map.Entry<String,Double>> topRank = Dictionary.sort(top.getSolutions());
+		Map<String,Double> topSolutions = top.getSolutions();
+		for (int i=0; i<2; i++) {
+			assertEquals("rank "+i,fullRank.get(i).getKey(),topRank.get(i).getKey());
+		}
+		for (Map.Entry<String,Double> e : fullRank) {
+			double score = Dictionary.safeGet(topSolutions, e.getKey(), 0.0);
+			assertTrue(e.getKey()+" lower bound",top.lowerBound(score) <= e.getValue());
+			assertTrue(e.getKey()+" upper bound",top.upperBound(score) >= e.getValue());
+		}
+	}
+
+	@Test
+	public void testLimits() {
+		LogicProgramState q = Prover.parseQuery("mem","X","l_abcde");
+		for (int schedule=DprProver.SCHEDULE_DFS; schedule<=DprProver.SCHEDULE_PRIORITY; schedule++) {
+			DprProver dpr = new DprProver(0.0000001, .03, DprProver.STRATEGY_DEFAULT, schedule);
+			ProofResult full = dpr.prove(lpMem, q, null, 0);
+			assertFalse(full.hitLimit());
 
+			dpr.setLimits(10, 0, 0);
+			ProofResult pushes = ((DprProver) dpr.copy()).prove(lpMem, q, null, 0);
+			assertTrue(pushes.hitLimit());
+			assertEquals(ProofResult.MAX_PUSHES, pushes.getStoppedBy());
+			assertEquals(10, pushes.getNumPushes());
+			assertTrue("residual left", pushes.getResidualMass() > full.getResidualMass());
+			Map<String,Double> partial = pushes.getSolutions();
+			for (Map.Entry<String,Double> e : full.getSolutions().entrySet()) {
+				double score = Dictionary.safeGet(partial, e.getKey(), 0.0);
+				assertTrue(e.getKey()+" upper bound", pushes.upperBound(score) >= e.getValue());
+			}
+
+			dpr.setLimits(0, 5, 0);
+			ProofResult states = dpr.prove(lpMem, q, null, 0);
+			assertEquals(ProofResult.MAX_STATES, states.getStoppedBy());
+			assertTrue(states.getNumPushes() < full.getNumPushes());
+		}
+	}
 }
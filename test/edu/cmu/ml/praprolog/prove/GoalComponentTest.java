@@ -2,9 +2,20 @@ package edu.cmu.ml.praprolog.prove;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
 import org.junit.Test;
 
-import edu.cmu.ml.praprolog.prove.GoalComponent.FunctorArityArg1Arg2Key;
+import edu.cmu.ml.praprolog.prove.Component.Outlink;
 
 public class GoalComponentTest {
 
@@ -44,8 +55,8 @@ public class GoalComponentTest {
     @Test
     public void testLoadCompiled() {
     	GoalComponent g = GoalComponent.loadCompiled("testcases/toy.cfacts");
-    	assertEquals("functors",2,g.indexF.size());
-    	assertEquals("functor+arg1",5,g.indexFA1.size());
+    	assertEquals("functors",2,g.numFunctorArities());
+    	assertEquals("functor+arg1",5,g.numArg1Keys());
     }
     
     @Test
@@ -63,14 +74,92 @@ public class GoalComponentTest {
     			g.addFact(new Goal("context",city, context, "San Francisco"));
     		}
     	}
-    	assertEquals("functors",1, g.indexF.size());
-    	assertEquals("functor+arg1",5,g.indexFA1.size());
-    	assertEquals("functor+arg2",4,g.indexFA2.size());
-    	
-    	for (FunctorArityArg1Arg2Key key : g.indexFA1A2.keySet()) {
-    		System.err.println(key.functor+":"+key.arg+":"+key.arg2);
+    	assertEquals("functors",1, g.numFunctorArities());
+    	assertEquals("functor+arg1",5,g.numArg1Keys());
+    	assertEquals("functor+arg2",4,g.numArg2Keys());
+    	assertEquals("functor+arg1+arg2",20,g.numArg12Keys());
+
+    	assertEquals("arg1+arg2",1,heads(g,Goal.decompile("context,Chicago,_ played _,-1")).size());
+    	assertEquals("arg2",5,heads(g,Goal.decompile("context,-1,flights from _ to _,-2")).size());
+    	assertEquals("arg1",4,heads(g,Goal.decompile("context,Pittsburgh,-1,-2")).size());
+    	assertEquals("none",20,heads(g,Goal.decompile("context,-1,-2,-3")).size());
+    	assertEquals("unknown",0,heads(g,Goal.decompile("context,Boston,-1,-2")).size());
+    }
+
+    @Test
+    public void testCompiledVariables() {
+    	GoalComponent g = new GoalComponent();
+    	g.addFact(new Goal("likes","alice","X"));
+    	g.addFact(new Goal("likes","bob","carol"));
+    	g.addFact(new Goal("likes","bob","dave"));
+    	g.compile();
+    	Set<String> bob = new HashSet<String>();
+    	for (Goal h : heads(g,Goal.decompile("likes,bob,-1"))) bob.add(h.getArg(1).getName());
+    	assertEquals(2,bob.size());
+    	assertTrue(bob.contains("carol"));
+    	assertTrue(bob.contains("dave"));
+    	// alice likes everyone, even people we've never heard of
+    	assertEquals(1,heads(g,new Goal("likes","alice","erin")).size());
+    	assertEquals(0,heads(g,new Goal("likes","bob","erin")).size());
+    }
+
+    @Test
+    public void testMixedHard() {
+    	GoalComponent g = new GoalComponent();
+    	g.addFact(Goal.decompile("likes+,alice,bob"));
+    	g.addFact(Goal.decompile("likes,alice,carol"));
+    	// hardness belongs to each fact, not to likes/2
+    	GoalComponent.FactTable t = g.tables.get(new GoalComponent.FunctorArityKey("likes",2));
+    	assertTrue(t.goal(0).isHard());
+    	assertFalse(t.goal(1).isHard());
+    }
+
+    @Test
+    public void testParallelLoad() throws IOException {
+    	// enough lines for several parsing tasks
+    	File cfacts = File.createTempFile("parallel",GoalComponent.FILE_EXTENSION);
+    	cfacts.deleteOnExit();
+    	Writer w = new FileWriter(cfacts);
+    	for (int i=0; i<25000; i++) w.write("next\tn"+i+"\tn"+(i+1)+"\n");
+    	for (int i=0; i<100; i++) w.write("mod3\tn"+i+"\tm"+(i%3)+"\n");
+    	w.close();
+    	List<String> files = Collections.singletonList(cfacts.getPath());
+    	GoalComponent serial = GoalComponent.loadCompiled(files, false);
+    	GoalComponent parallel = GoalComponent.loadCompiled(files, false, 4);
+    	assertEquals(serial.numFunctorArities(), parallel.numFunctorArities());
+    	assertEquals(serial.numArg1Keys(), parallel.numArg1Keys());
+    	for (String q : new String[] {"next,n0,-1", "next,n12345,-1", "next,n24999,-1", "mod3,-1,m1"}) {
+    		assertEquals(q, heads(serial,Goal.decompile(q)), heads(parallel,Goal.decompile(q)));
+    	}
+    	assertEquals(34,heads(parallel,Goal.decompile("mod3,-1,m0")).size());
+    }
+
+    @Test
+    public void testParallelLoadSharedPool() throws IOException {
+    	File cfacts = File.createTempFile("shared",GoalComponent.FILE_EXTENSION);
+    	cfacts.deleteOnExit();
+    	Writer w = new FileWriter(cfacts);
+    	for (int i=0; i<5000; i++) w.write("next\tn"+i+"\tn"+(i+1)+"\n");
+    	w.close();
+    	List<String> files = Collections.singletonList(cfacts.getPath());
+    	ExecutorService pool = Prover.newWorkerPool(2, "GoalComponentTest-parser");
+    	try {
+    		// every load parses on the same workers, and leaves them for the next one
+    		GoalComponent first = GoalComponent.loadCompiled(files, false, pool, 2);
+    		assertFalse(pool.isShutdown());
+    		GoalComponent second = GoalComponent.loadCompiled(files, false, pool, 2);
+    		assertEquals(first.numArg1Keys(), second.numArg1Keys());
+    		assertEquals(heads(first,Goal.decompile("next,n4321,-1")), heads(second,Goal.decompile("next,n4321,-1")));
+    		assertEquals(1, heads(second,Goal.decompile("next,n4321,-1")).size());
+    	} finally {
+    		pool.shutdown();
     	}
-    	
-    	assertEquals("functor+arg1+arg2",20,g.indexFA1A2.size());
+    }
+
+    private List<Goal> heads(GoalComponent g, Goal query) {
+    	ProPPRLogicProgramState state = new ProPPRLogicProgramState(query);
+    	List<Goal> result = new ArrayList<Goal>();
+    	for (Outlink o : g.outlinks(state)) result.add(((ProPPRLogicProgramState) o.getState()).getQueryGoals()[0]);
+    	return result;
     }
 }
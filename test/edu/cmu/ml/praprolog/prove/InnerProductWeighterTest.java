@@ -33,4 +33,24 @@ public class InnerProductWeighterTest {
 		assertTrue("Wasn't added!",InnerProductWeighter.unknownFeatures.contains(ng));
 	}
 
+	@Test
+	public void testCompiled() {
+		HashMap<Goal,Double> weights = new HashMap<Goal,Double>();
+		weights.put(new Goal("feathers"), 0.5);
+		weights.put(new Goal("fur"), 0.7);
+		InnerProductWeighter w = new InnerProductWeighter(weights);
+		HashMap<Goal,Double> featureDict = new HashMap<Goal,Double>();
+		featureDict.put(new Goal("feathers"), 2.0);
+		featureDict.put(new Goal("scales"), 3.0);
+		assertEquals(0.5*2.0 + 1.0*3.0, w.w(featureDict), 1e-10);
+
+		FeatureDictWeighter.CompiledFeatureDict compiled = w.compile(featureDict);
+		assertEquals(w.w(featureDict), w.w(compiled), 1e-10);
+
+		// new weights reach compiled dicts too, including features which had the default
+		w.put(new Goal("scales"), 0.1);
+		w.put(new Goal("feathers"), 0.2);
+		assertEquals(0.2*2.0 + 0.1*3.0, w.w(compiled), 1e-10);
+		assertEquals(w.w(compiled), w.w(featureDict), 1e-10);
+	}
 }
@@ -0,0 +1,143 @@
+package edu.cmu.ml.praprolog.prove;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class LogicProgramSnapshotTest {
+
+	@Test
+	public void testRoundTrip() throws IOException, LogicProgramException {
+		String[] files = "testcases/family.crules:testcases/family.cfacts:testcases/family.graph".split(":");
+		LogicProgram original = LogicProgram.load(files, 0.2, null);
+		File snapshot = File.createTempFile("family",LogicProgramSnapshot.FILE_EXTENSION);
+		snapshot.deleteOnExit();
+		original.saveSnapshot(snapshot);
+
+		LogicProgram loaded = LogicProgram.load(new String[] {snapshot.getPath()}, 0.2, null);
+		assertEquals(original.getComponents().length, loaded.getComponents().length);
+		for (int i=0; i<original.getComponents().length; i++) {
+			assertEquals(original.getComponents()[i].getClass(), loaded.getComponents()[i].getClass());
+			assertEquals(original.getComponents()[i].listing(), loaded.getComponents()[i].listing());
+		}
+		assertEquals(original.getSymbolTable().getSymbolList(), loaded.getSymbolTable().getSymbolList());
+
+		for (String q : new String[] {"sim,william,-1", "sim,lottie,-1", "child,lottie,-1"}) {
+			ProPPRLogicProgramState state = new ProPPRLogicProgramState(Goal.decompile(q));
+			assertEquals(q, outlinks(original,state), outlinks(loaded,state));
+			assertEquals(q, proofs(original,state), proofs(loaded,state));
+		}
+	}
+
+	@Test
+	public void testSparseAndTuprolog() throws IOException, LogicProgramException {
+		String[] files = "testcases/sparseGraph/family.sparse:testcases/prolog/familyx.pl".split(":");
+		LogicProgram original = LogicProgram.load(files, 0.2, null);
+		File snapshot = File.createTempFile("family",LogicProgramSnapshot.FILE_EXTENSION);
+		snapshot.deleteOnExit();
+		original.saveSnapshot(snapshot);
+
+		LogicProgram loaded = LogicProgramSnapshot.load(snapshot);
+		for (String q : new String[] {"child,pam,-1", "sister,yvette,-1", "sim,william,-1"}) {
+			ProPPRLogicProgramState state = new ProPPRLogicProgramState(Goal.decompile(q));
+			assertEquals(q, outlinks(original,state), outlinks(loaded,state));
+		}
+	}
+
+	@Test
+	public void testMoved() throws IOException, LogicProgramException {
+		// a snapshot and its matrices can move together
+		File from = tempDir("moved-from"), to = tempDir("moved-to");
+		File sparse = new File(from,"family.sparse");
+		sparse.mkdir();
+		for (File f : new File("testcases/sparseGraph/family.sparse").listFiles()) copy(f, new File(sparse,f.getName()));
+		LogicProgram original = LogicProgram.load(new String[] {sparse.getPath()}, 0.2, null);
+		original.saveSnapshot(new File(from,"family"+LogicProgramSnapshot.FILE_EXTENSION));
+
+		to.delete();
+		assertTrue(from.renameTo(to));
+		LogicProgram loaded = LogicProgramSnapshot.load(new File(to,"family"+LogicProgramSnapshot.FILE_EXTENSION));
+		ProPPRLogicProgramState state = new ProPPRLogicProgramState(Goal.decompile("child,pam,-1"));
+		assertFalse(outlinks(loaded,state).isEmpty());
+		assertEquals(outlinks(original,state), outlinks(loaded,state));
+		deleteAll(to);
+	}
+
+	@Test
+	public void testRelativePath() throws IOException {
+		File dir = new File("/tmp/a/b");
+		assertEquals("c", LogicProgramSnapshot.relativePath(dir, new File("/tmp/a/b/c")));
+		assertEquals(".."+File.separator+"d", LogicProgramSnapshot.relativePath(dir, new File("/tmp/a/d")));
+		assertEquals(".", LogicProgramSnapshot.relativePath(dir, dir));
+	}
+
+	@Test
+	public void testHardFacts() throws IOException {
+		GoalComponent facts = new GoalComponent();
+		facts.addFact(Goal.decompile("likes+,alice,bob"));
+		facts.addFact(Goal.decompile("likes,alice,carol"));
+		LogicProgram original = new LogicProgram(facts);
+		File snapshot = File.createTempFile("hard",LogicProgramSnapshot.FILE_EXTENSION);
+		snapshot.deleteOnExit();
+		original.saveSnapshot(snapshot);
+		// listings mark hard facts
+		assertEquals(facts.listing(), LogicProgramSnapshot.load(snapshot).getComponents()[0].listing());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNotASnapshot() throws IOException {
+		File snapshot = File.createTempFile("bogus",LogicProgramSnapshot.FILE_EXTENSION);
+		snapshot.deleteOnExit();
+		FileWriter w = new FileWriter(snapshot);
+		w.write("sim,-1,-1 # base # X\n");
+		w.close();
+		LogicProgramSnapshot.load(snapshot);
+	}
+
+	private File tempDir(String prefix) throws IOException {
+		File dir = File.createTempFile(prefix,"");
+		dir.delete();
+		dir.mkdir();
+		return dir;
+	}
+
+	private void copy(File from, File to) throws IOException {
+		InputStream in = new FileInputStream(from);
+		OutputStream out = new FileOutputStream(to);
+		byte[] buf = new byte[8192];
+		for (int n; (n = in.read(buf)) > 0;) out.write(buf,0,n);
+		in.close();
+		out.close();
+	}
+
+	private void deleteAll(File f) {
+		if (f.isDirectory()) for (File g : f.listFiles()) deleteAll(g);
+		f.delete();
+	}
+
+	private Map<String,Double> outlinks(LogicProgram program, LogicProgramState state) throws LogicProgramException {
+		Map<String,Double> result = new TreeMap<String,Double>();
+		for (LogicProgram.LogicProgramOutlink o : program.lpOutlinks(state, true, true)) {
+			result.put(o.getState().asProPPR().toString(), o.getWeight());
+		}
+		return result;
+	}
+
+	private Map<String,Double> proofs(LogicProgram program, LogicProgramState state) {
+		Map<String,Double> result = new TreeMap<String,Double>();
+		for (Map.Entry<LogicProgramState,Double> e : new DprProver().proveState(program, state).entrySet()) {
+			result.put(e.getKey().toString(), e.getValue());
+		}
+		return result;
+	}
+}
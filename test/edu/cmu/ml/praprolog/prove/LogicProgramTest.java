@@ -2,6 +2,12 @@ package edu.cmu.ml.praprolog.prove;
 
 import static org.junit.Assert.*;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -35,4 +41,202 @@ public class LogicProgramTest {
 		assertTrue("hasFeathers _howard_",howard.getArg(0).isConstant());
 	}
 
+	/**
+	 * Walk the proof graph of the query breadth-first, checking that
+	 * the shared cache gives the same outlinks the components do.
+	 */
+	private int compareOutlinks(LogicProgram cached, LogicProgram uncached, LogicProgramState state0, int maxStates) throws LogicProgramException {
+		Set<LogicProgramState> seen = new HashSet<LogicProgramState>();
+		LinkedList<LogicProgramState> queue = new LinkedList<LogicProgramState>();
+		queue.add(state0); seen.add(state0);
+		while(!queue.isEmpty() && seen.size() < maxStates) {
+			LogicProgramState u = queue.poll();
+			List<LogicProgram.LogicProgramOutlink> expected = uncached.lpOutlinks(u, true, true);
+			List<LogicProgram.LogicProgramOutlink> actual = cached.lpOutlinks(u, true, true);
+			assertEquals(u.toString(),expected.size(),actual.size());
+			for (int i=0; i<expected.size(); i++) {
+				LogicProgramState e = expected.get(i).getState(), a = actual.get(i).getState();
+				assertEquals(u.toString(),e,a);
+				assertEquals(u.toString(),e.toString(),a.toString());
+				assertEquals(u.toString(),e.restart(),a.restart());
+				assertEquals(u.toString(),e.isSolution() ? "" : e.getHeadGoal().toString(), a.isSolution() ? "" : a.getHeadGoal().toString());
+				if (e.isSolution()) assertEquals(e.description(),a.description());
+				assertEquals(expected.get(i).getWeight(),actual.get(i).getWeight(),1e-10);
+				assertEquals(expected.get(i).getFeatureList().toString(),actual.get(i).getFeatureList().toString());
+				if (seen.add(e)) queue.add(e);
+			}
+		}
+		return seen.size();
+	}
+
+	@Test
+	public void testOutlinkCache() throws LogicProgramException {
+		String[] files = {"testcases/family.crules","testcases/family.cfacts","testcases/family.graph"};
+		LogicProgram cached = new LogicProgram(Component.loadComponents(files, 0.2, null));
+		LogicProgram uncached = new LogicProgram(Component.loadComponents(files, 0.2, null));
+		uncached.setOutlinkCacheCapacity(0);
+		String[][] queries = {{"sim","william","X"},{"sim","X","Y"},{"rel","william","X"},{"sim","william","rachel"}};
+		for (String[] q : queries) {
+			String[] args = new String[q.length-1];
+			System.arraycopy(q, 1, args, 0, args.length);
+			compareOutlinks(cached, uncached, Prover.parseQuery(q[0], args), 500);
+		}
+		assertTrue("hits",cached.getOutlinkCacheHits() > 0);
+		assertTrue("misses",cached.getOutlinkCacheMisses() > 0);
+		assertEquals(0,uncached.getOutlinkCacheHits() + uncached.getOutlinkCacheMisses());
+
+		// same answers from the prover, too
+		Prover p = new DprProver(0.0001, 0.1);
+		assertEquals(p.solutionsForQuery(uncached, "sim", "william", "X"), p.solutionsForQuery(cached, "sim", "william", "X"));
+
+		// the cache holds no weights, so it survives a new weighter, and put() shows through it
+		long misses = cached.getOutlinkCacheMisses();
+		FeatureDictWeighter w = new InnerProductWeighter(), uw = new InnerProductWeighter();
+		cached.setFeatureDictWeighter(w);
+		uncached.setFeatureDictWeighter(uw);
+		LogicProgramState sim = Prover.parseQuery("sim","william","X");
+		cached.lpOutlinks(sim, true, false);
+		assertEquals(misses,cached.getOutlinkCacheMisses());
+		compareOutlinks(cached, uncached, sim, 500);
+		for (Goal f : new Goal[] {new Goal("base"), new Goal("id","defaultRestart")}) {
+			w.put(f, 4.0);
+			uw.put(f, 4.0);
+		}
+		assertEquals(4.0, cached.lpOutlinks(sim, true, false).get(0).getWeight(), 1e-10);
+		compareOutlinks(cached, uncached, sim, 500);
+
+		// a tiny cache must evict, and still be right
+		cached.setOutlinkCacheCapacity(5);
+		compareOutlinks(cached, uncached, Prover.parseQuery("sim","X","Y"), 500);
+		assertTrue("evictions",cached.getOutlinkCacheEvictions() > 0);
+	}
+
+	/** Claims sister/2 states dynamically, and counts how often it's asked. */
+	static class DynamicSisters extends Component {
+		int claims=0;
+		@Override
+		public boolean claim(LogicProgramState state) {
+			claims++;
+			return !state.isSolution() && "sister".equals(state.getHeadFunctor()) && state.getHeadArity() == 2;
+		}
+		@Override
+		public List<Outlink> outlinks(LogicProgramState state) { return Collections.emptyList(); }
+		@Override
+		public void compile() {}
+		@Override
+		public void compile(edu.cmu.ml.praprolog.util.SymbolTable variableSymTab) {}
+	}
+	/** Counts claim() calls, which the claim index should never need. */
+	static class CountingGoalComponent extends GoalComponent {
+		int claims=0;
+		@Override
+		public boolean claim(LogicProgramState state) {
+			claims++;
+			return super.claim(state);
+		}
+		@Override
+		public boolean claimMatched(LogicProgramState state) {
+			return true;
+		}
+	}
+	/** Overrides claim() alone, to refuse some of its own facts. */
+	static class PickyGoalComponent extends GoalComponent {
+		@Override
+		public boolean claim(LogicProgramState state) {
+			return super.claim(state) && !"william".equals(state.getHeadArg1().getName());
+		}
+	}
+
+	@Test
+	public void testClaimIndex() throws LogicProgramException {
+		String[] files = {"testcases/family.crules","testcases/family.graph"};
+		Component[] loaded = Component.loadComponents(files, 0.2, null);
+		CountingGoalComponent facts = new CountingGoalComponent();
+		facts.addFact(new Goal("spouse","william","susan"));
+		facts.addFact(new Goal("sister","william","rachel"));
+		DynamicSisters dynamic = new DynamicSisters();
+		Component[] components = {loaded[0], facts, dynamic, loaded[1]};
+		LogicProgram lp = new LogicProgram(components);
+
+		// program order wins among the components indexed for a signature, dynamic or not
+		assertSame(facts, lp.claimant(Prover.parseQuery("sister","william","X")));
+		assertSame(facts, lp.claimant(Prover.parseQuery("spouse","william","X")));
+		assertSame(loaded[0], lp.claimant(Prover.parseQuery("sim","william","X")));
+		assertEquals("rules and facts don't need asking",0,facts.claims);
+		// no indexed component for child/2, so the dynamic claimant is asked before the graph
+		LogicProgramState child = Prover.parseQuery("child","william","X");
+		assertSame(loaded[1], lp.claimant(child));
+		assertTrue("dynamic component asked",dynamic.claims > 0);
+
+		// same claimants as asking every component in turn
+		Set<LogicProgramState> seen = new HashSet<LogicProgramState>();
+		LinkedList<LogicProgramState> queue = new LinkedList<LogicProgramState>();
+		queue.add(Prover.parseQuery("sim","william","X"));
+		while(!queue.isEmpty()) {
+			LogicProgramState u = queue.poll();
+			if (u.isSolution() || !seen.add(u)) continue;
+			Component expected = null;
+			for (Component c : components) if (c.claim(u)) { expected = c; break; }
+			if (expected == null) continue;
+			assertSame(u.toString(), expected, lp.claimant(u));
+			for (LogicProgram.LogicProgramOutlink o : lp.lpOutlinks(u, false, false)) queue.add(o.getState());
+		}
+		assertTrue(seen.size() > 5);
+
+		// a predicate added after the index is built is indexed too
+		facts.claims = 0;
+		facts.addFact(new Goal("late","william","rachel"));
+		assertSame(facts, lp.claimant(Prover.parseQuery("late","william","X")));
+		assertEquals(0,facts.claims);
+		// ...even if a component later in the program already claimed it
+		GoalComponent early = new GoalComponent();
+		LogicProgram lp2 = new LogicProgram(loaded[0], early, facts);
+		assertSame(facts, lp2.claimant(Prover.parseQuery("spouse","william","X")));
+		early.addFact(new Goal("spouse","rachel","william"));
+		assertSame(early, lp2.claimant(Prover.parseQuery("spouse","william","X")));
+
+		// components of other programs don't make this one re-index
+		Object index = lp2.claimIndex;
+		GoalComponent unrelated = new GoalComponent();
+		unrelated.addFact(new Goal("unrelated","william","rachel"));
+		lp2.claimant(Prover.parseQuery("spouse","william","X"));
+		assertSame(index, lp2.claimIndex);
+	}
+
+	@Test
+	public void testClaimOverride() throws LogicProgramException {
+		PickyGoalComponent picky = new PickyGoalComponent();
+		picky.addFact(new Goal("sister","william","rachel"));
+		picky.addFact(new Goal("sister","susan","rachel"));
+		GoalComponent facts = new GoalComponent();
+		facts.addFact(new Goal("sister","william","sarah"));
+		LogicProgram lp = new LogicProgram(picky, facts);
+		// the override is still asked
+		assertSame(facts, lp.claimant(Prover.parseQuery("sister","william","X")));
+		assertSame(picky, lp.claimant(Prover.parseQuery("sister","susan","X")));
+	}
+
+	@Test
+	public void testSharedFeatureDicts() throws LogicProgramException {
+		String[] files = {"testcases/family.crules","testcases/family.cfacts","testcases/family.graph"};
+		LogicProgram lp = new LogicProgram(Component.loadComponents(files, 0.2, null));
+		FeatureDictWeighter w = new InnerProductWeighter();
+		lp.setFeatureDictWeighter(w);
+		List<LogicProgram.LogicProgramOutlink> outs = lp.lpOutlinks(Prover.parseQuery("sister","william","X"), true, false);
+		assertTrue(outs.size() > 1);
+		// every edge of a component shares one feature list
+		for (LogicProgram.LogicProgramOutlink o : outs) {
+			assertSame(outs.get(0).getFeatureList(), o.getFeatureList());
+			assertEquals(1.0, o.getWeight(), 1e-10);
+		}
+		Goal db = lp.claimant(Prover.parseQuery("sister","william","X")).sharedFeatureDict().keySet().iterator().next();
+		w.put(db, 3.0);
+		assertEquals(3.0, lp.lpOutlinks(Prover.parseQuery("sister","william","X"), true, false).get(0).getWeight(), 1e-10);
+
+		// rule features are only listed when asked for
+		List<LogicProgram.LogicProgramOutlink> ruleOuts = lp.lpOutlinks(Prover.parseQuery("sim","william","X"), true, false);
+		assertNull(ruleOuts.get(0).featureList);
+		assertEquals(1, ruleOuts.get(0).getFeatureList().size());
+		assertEquals("base", ruleOuts.get(0).getFeatureList().get(0).featureName);
+	}
 }
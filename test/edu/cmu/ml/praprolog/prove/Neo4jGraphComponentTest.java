@@ -3,6 +3,9 @@ package edu.cmu.ml.praprolog.prove;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -18,4 +21,28 @@ public class Neo4jGraphComponentTest {
 		assertEquals("foofactor.name_arg1type_arg2.type",nodetype);
 	}
 
+	@Test
+	public void testCaches() throws IOException {
+		File db = File.createTempFile("neo4j",".db");
+		db.delete();
+		Neo4jGraphComponent g = new Neo4jGraphComponent(db.getPath(), 10);
+		ConstantArgument pam = new ConstantArgument("pam");
+		assertFalse(g._indexContains("child"));
+		assertEquals(0,g._indexGetDegree("child", pam));
+
+		g._indexAppend("child", pam, new ConstantArgument("katie"));
+		g._indexAppend("child", pam, new ConstantArgument("ashley"));
+		assertTrue("appending must update the functor cache",g._indexContains("child"));
+		assertEquals("appending must update the degree cache",2,g._indexGetDegree("child", pam));
+		List<Argument> kids = g._indexGet("child", pam);
+		assertEquals(2,kids.size());
+		assertTrue(new HashSet<Argument>(kids).contains(new ConstantArgument("katie")));
+		assertSame("neighbors should be cached",kids,g._indexGet("child", pam));
+
+		g._indexAppend("child", pam, new ConstantArgument("teddy"));
+		assertEquals(3,g._indexGetDegree("child", pam));
+		assertEquals(3,g._indexGet("child", pam).size());
+		assertEquals(0,g._indexGetDegree("child", new ConstantArgument("katie")));
+		assertFalse(g._indexContains("sister"));
+	}
 }
@@ -0,0 +1,160 @@
+package edu.cmu.ml.praprolog.prove;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.cmu.ml.praprolog.graph.GraphWriter;
+import edu.cmu.ml.praprolog.util.Dictionary;
+
+public class ParallelDprProverTest extends ProverTestTemplate {
+	@Override
+	public void setup() {
+		super.setup();
+		// push even the smallest frontiers in the pool
+		this.prover = new ParallelDprProver(0.00001, .03, DprProver.STRATEGY_DEFAULT, 4, 1);
+	}
+
+	@Override
+	public void setProveStateAnswers() {
+		proveStateAnswers[0] = 0.07142; // milk
+		proveStateAnswers[1] = 0.03571; // most
+		proveStateAnswers[2] = 0.53564; // start
+	}
+
+	@Test
+	public void testMatchesDpr() throws LogicProgramException {
+		// rounds push states in about the same order as a fifo schedule, but
+		// threads race within a round, so answers only agree up to the
+		// approximation error
+		DprProver dpr = new DprProver(0.00001, .03, DprProver.STRATEGY_DEFAULT, DprProver.SCHEDULE_FIFO);
+		for (int i=0; i<5; i++) {
+			assertMatches(dpr,Prover.parseQuery("mem","X","l_abcde"));
+			assertMatches(dpr,Prover.parseQuery("mem3","X","Y","Z","l_bcde"));
+		}
+	}
+
+	/**
+	 * A push prover stops when every state u has residual at most
+	 * epsilon*deg(u), and the residual left at u is all the score any state
+	 * can still be missing on its account. So each prover is within
+	 * epsilon*sum(deg) of the exact scores, and the two are within the sum
+	 * of those bounds of each other. Solutions are compared unnormalized,
+	 * since normalizing by a small total mass would scale the error up.
+	 */
+	private void assertMatches(Prover dpr, LogicProgramState q) throws LogicProgramException {
+		GraphWriter dgw = new GraphWriter(), pgw = new GraphWriter();
+		Map<String,Double> expected = Prover.filterSolutions(dpr.proveState(lpMem, q, dgw));
+		Map<String,Double> actual = Prover.filterSolutions(prover.proveState(lpMem, q, pgw));
+		double bound = 0.00001 * (sumDegree(dgw) + sumDegree(pgw));
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<String,Double> e : expected.entrySet()) {
+			assertEquals(e.getKey(), e.getValue(), actual.get(e.getKey()), bound);
+		}
+		// solutions further apart than the error come out in the same order
+		for (String a : expected.keySet()) {
+			for (String b : expected.keySet()) {
+				if (expected.get(a) - expected.get(b) > 2*bound)
+					assertTrue(a+" should outrank "+b, actual.get(a) > actual.get(b));
+			}
+		}
+	}
+
+	private double sumDegree(GraphWriter gw) throws LogicProgramException {
+		double sum = 0;
+		for (Object s : gw.getNodes()) {
+			if (s != null) sum += lpMem.lpDegree((LogicProgramState) s, true, true);
+		}
+		return sum;
+	}
+
+	@Test
+	public void testGraph() {
+		GraphWriter dgw = new GraphWriter(), pgw = new GraphWriter();
+		LogicProgramState q = Prover.parseQuery("mem","X","l_abcde");
+		new DprProver(0.00001, .03).proveState(lpMem, q, dgw);
+		prover.proveState(lpMem, q, pgw);
+		assertEquals(dgw.getGraph().getNumNodes(), pgw.getGraph().getNumNodes());
+		assertEquals(dgw.getGraph().getNumEdges(), pgw.getGraph().getNumEdges());
+	}
+
+	@Test
+	public void testCopies() {
+		LogicProgramState q = Prover.parseQuery("mem","X","l_abcde");
+		int before = Thread.activeCount();
+		for (int i=0; i<50; i++) prover.copy().proveState(lpMem, q);
+		// copies share one pool, so at most its 4 threads are left running
+		assertTrue("threads before "+before+", after "+Thread.activeCount(), Thread.activeCount() <= before+4);
+	}
+
+	@Test
+	public void testTopK() {
+		ParallelDprProver pdpr = new ParallelDprProver(0.0000001, .03, DprProver.STRATEGY_DEFAULT, 4, 1);
+		LogicProgramState q = Prover.parseQuery("mem","X","l_abcde");
+		ProofResult full = pdpr.prove(lpMem, q, null, 0);
+		ProofResult top = pdpr.prove(lpMem, q, null, 2);
+		assertFalse(full.isTruncated());
+		assertEquals(ProofResult.TOPK, top.getStoppedBy());
+		assertTrue("fewer pushes",top.getNumPushes() < full.getNumPushes());
+
+		List<Map.Entry<String,Double>> fullRank = Dictionary.sort(full.getSolutions());
+		List<Map.Entry<String,Double>> topRank = Dictionary.sort(top.getSolutions());
+		for (int i=0; i<2; i++) {
+			assertEquals("rank "+i,fullRank.get(i).getKey(),topRank.get(i).getKey());
+		}
+		for (Map.Entry<String,Double> e : fullRank) {
+			double score = Dictionary.safeGet(top.getSolutions(), e.getKey(), 0.0);
+			assertTrue(e.getKey()+" upper bound",top.upperBound(score) >= e.getValue());
+		}
+	}
+
+	@Test
+	public void testLimits() {
+		LogicProgramState q = Prover.parseQuery("mem","X","l_abcde");
+		ParallelDprProver pdpr = new ParallelDprProver(0.0000001, .03, DprProver.STRATEGY_DEFAULT, 4, 1);
+		ProofResult full = pdpr.prove(lpMem, q, null, 0);
+		assertFalse(full.hitLimit());
+
+		pdpr.setLimits(10, 0, 0);
+		ProofResult pushes = ((ParallelDprProver) pdpr.copy()).prove(lpMem, q, null, 0);
+		assertEquals(ProofResult.MAX_PUSHES, pushes.getStoppedBy());
+		assertEquals(10, pushes.getNumPushes());
+		assertTrue("residual left", pushes.getResidualMass() > full.getResidualMass());
+
+		pdpr.setLimits(0, 5, 0);
+		ProofResult states = pdpr.prove(lpMem, q, null, 0);
+		assertEquals(ProofResult.MAX_STATES, states.getStoppedBy());
+		assertTrue(states.getNumPushes() < full.getNumPushes());
+	}
+
+	@Test
+	public void testMetrics() {
+		// one thread, so no two threads race to expand a new state
+		ParallelDprProver pdpr = new ParallelDprProver(0.00001, .03, DprProver.STRATEGY_DEFAULT, 1);
+		ProofMetrics metrics = new ProofMetrics(lpMem, "mem(X,l_abcde)");
+		pdpr.setListener(metrics);
+		ProofResult result = pdpr.prove(lpMem, Prover.parseQuery("mem","X","l_abcde"), null, 0);
+		assertEquals(result.getNumPushes(), metrics.getPushes());
+		assertTrue("some states",metrics.getStates() > 0);
+		assertTrue(metrics.getPeakResidual() > 0);
+		assertTrue("each state expanded at most once",metrics.getOutlinkCalls() <= metrics.getStates());
+	}
+
+	@Test
+	public void testExpandOnce() {
+		// one thread, so no two threads race to expand a new state
+		CachingLogicProgramTest.CountingComponent rules = new CachingLogicProgramTest.CountingComponent(RuleComponentTest.makeMemIDB());
+		LogicProgram lp = new LogicProgram(rules, GoalComponentTest.makeMemEDB());
+		// the shared cache would hide a second expansion
+		lp.setOutlinkCacheCapacity(0);
+		Map<String,Double> sols = new ParallelDprProver(0.00001, .03, DprProver.STRATEGY_DEFAULT, 1).solutionsForQuery(lp, "mem", "X", "l_abcde");
+		assertTrue("some solutions",sols.size() > 0);
+		assertTrue("some expansions",rules.expansions.size() > 0);
+		for (Map.Entry<LogicProgramState,Integer> e : rules.expansions.entrySet()) {
+			assertEquals(e.getKey().toString(),1,e.getValue().intValue());
+		}
+	}
+}
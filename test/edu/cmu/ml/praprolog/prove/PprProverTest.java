@@ -1,7 +1,13 @@
 package edu.cmu.ml.praprolog.prove;
 
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
 import org.junit.Test;
 
+import edu.cmu.ml.praprolog.graph.GraphWriter;
+
 public class PprProverTest extends ProverTestTemplate {
 	@Override
 	public void setup() {
@@ -23,4 +29,33 @@ public class PprProverTest extends ProverTestTemplate {
 		proveStateAnswers[1] = 0.06666; // most
 		proveStateAnswers[2] = 0.13333; // start
 	}
+	
+	@Test
+	public void testThreads() {
+		PprProver serial = new PprProver(10);
+		PprProver threaded = new PprProver(10, false, 4);
+		// expand even the smallest frontiers in the pool
+		threaded.minParallelFrontier = 1;
+		LogicProgramState q = Prover.parseQuery("mem","X","l_abcde");
+		GraphWriter sgw = new GraphWriter(), tgw = new GraphWriter();
+		Map<LogicProgramState,Double> expected = serial.proveState(lpMem, q, sgw);
+		Map<LogicProgramState,Double> actual = threaded.proveState(lpMem, q, tgw);
+		assertEquals(expected.size(), actual.size());
+		for (Map.Entry<LogicProgramState,Double> e : expected.entrySet()) {
+			assertEquals(e.getKey().toString(), e.getValue(), actual.get(e.getKey()), 1e-12);
+		}
+		assertEquals(sgw.getGraph().getNumEdges(), tgw.getGraph().getNumEdges());
+		assertEquals("ppr:10:4", threaded.toString());
+	}
+
+	@Test
+	public void testCopies() {
+		PprProver threaded = new PprProver(10, false, 4);
+		threaded.minParallelFrontier = 1;
+		LogicProgramState q = Prover.parseQuery("mem","X","l_abcde");
+		int before = Thread.activeCount();
+		for (int i=0; i<50; i++) threaded.copy().proveState(lpMem, q);
+		// copies share one pool, so at most its 4 threads are left running
+		assertTrue("threads before "+before+", after "+Thread.activeCount(), Thread.activeCount() <= before+4);
+	}
 }
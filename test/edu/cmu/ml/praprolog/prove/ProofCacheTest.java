@@ -0,0 +1,90 @@
+package edu.cmu.ml.praprolog.prove;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.cmu.ml.praprolog.graph.GraphWriter;
+import edu.cmu.ml.praprolog.learn.SRW;
+import edu.cmu.ml.praprolog.learn.tools.PosNegRWExample;
+import edu.cmu.ml.praprolog.util.ParamVector;
+import edu.cmu.ml.praprolog.util.SimpleParamVector;
+
+public class ProofCacheTest {
+	@Before
+	public void setup() {
+		BasicConfigurator.configure(); Logger.getRootLogger().setLevel(Level.WARN);
+	}
+
+	private int total(CachingLogicProgramTest.CountingComponent c) {
+		int n=0;
+		for (int i : c.expansions.values()) n += i;
+		return n;
+	}
+
+	@Test
+	public void testRescore() {
+		CachingLogicProgramTest.CountingComponent rules = new CachingLogicProgramTest.CountingComponent(RuleComponentTest.makeMemIDB());
+		LogicProgram lp = new LogicProgram(rules, GoalComponentTest.makeMemEDB());
+		Prover prover = new DprProver(0.00001, .03);
+		LogicProgramState q = Prover.parseQuery("mem","X","l_abcde");
+		ProofCache cache = new ProofCache();
+		ProofCache.CachedProof proof = cache.get(prover, lp, q);
+		assertTrue(proof.getGraph().getNumEdges() > 0);
+
+		SRW<PosNegRWExample<String>> srw = new SRW<PosNegRWExample<String>>(10);
+		for (double w : new double[] {1.0, 0.5, 2.0}) {
+			// mess with the weight of every feature in the graph
+			GraphWriter writer = new GraphWriter();
+			Map<LogicProgramState,Double> ans = prover.proveState(lp, q, writer);
+			ParamVector<?> params = new SimpleParamVector(new HashMap<String,Double>());
+			int i=0;
+			for (String f : writer.getGraph().getFeatureSet()) params.put(f, w*(1+i++));
+
+			Map<String,Double> start = new HashMap<String,Double>();
+			start.put(writer.getId(q), 1.0);
+			Map<String,Double> expected = srw.rwrUsingFeatures(writer.getGraph(), start, params);
+			
+			int expansions = total(rules);
+			assertSame("cached", proof, cache.get(prover, lp, q));
+			Map<LogicProgramState,Double> rescored = proof.rescore(params, srw.getWeightingScheme(), srw.getMaxT());
+			assertEquals("rescoring expands nothing", expansions, total(rules));
+			int nsolutions=0;
+			for (LogicProgramState s : ans.keySet()) {
+				if (!s.isSolution()) continue;
+				nsolutions++;
+				assertEquals(s.toString(), expected.get(writer.getId(s)), rescored.get(s), 1e-10);
+			}
+			assertTrue(nsolutions > 0);
+		}
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		cache.get(prover, new LogicProgram(lp), q);
+		assertEquals("new program, new proof", 2, cache.getMisses());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testCapacity() {
+		LogicProgram lp = new LogicProgram(RuleComponentTest.makeMemIDB(), GoalComponentTest.makeMemEDB());
+		Prover prover = new DprProver(0.00001, .03);
+		ProofCache cache = new ProofCache(2);
+		LogicProgramState a = Prover.parseQuery("mem","X","l_abcde"),
+				b = Prover.parseQuery("mem","X","l_bcde"),
+				c = Prover.parseQuery("mem","X","l_cde");
+		ProofCache.CachedProof proofA = cache.get(prover, lp, a);
+		cache.get(prover, lp, b);
+		cache.get(prover, lp, c);
+		assertEquals(2, cache.size());
+		assertNotSame("least recently used is dropped", proofA, cache.get(prover, lp, a));
+		assertEquals(4, cache.getMisses());
+	}
+}
@@ -0,0 +1,46 @@
+package edu.cmu.ml.praprolog.prove;
+
+import static org.junit.Assert.*;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProofMetricsTest {
+	@Before
+	public void setup() {
+		BasicConfigurator.configure(); Logger.getRootLogger().setLevel(Level.WARN);
+	}
+
+	@Test
+	public void testDprMetrics() {
+		LogicProgram lp = new LogicProgram(RuleComponentTest.makeMemIDB(), GoalComponentTest.makeMemEDB());
+		DprProver dpr = new DprProver(0.00001, .03);
+		ProofMetrics metrics = new ProofMetrics(lp, "mem(X,l_abcde)");
+		dpr.setListener(metrics);
+		ProofResult result = dpr.prove(lp, Prover.parseQuery("mem","X","l_abcde"), null, 0);
+
+		assertEquals(result.getNumPushes(), metrics.getPushes());
+		assertTrue("some states",metrics.getStates() > 0);
+		assertTrue(metrics.getPeakResidual() > 0);
+		assertTrue(metrics.getPeakResidual() <= metrics.getStates());
+		int calls=0;
+		for (int i=0; i<lp.getComponents().length; i++) {
+			assertTrue("component "+i+" expanded something",metrics.getComponentCalls(i) > 0);
+			calls += metrics.getComponentCalls(i);
+		}
+		// solutions are expanded without a component
+		assertTrue(calls <= metrics.getOutlinkCalls());
+		assertTrue("each state expanded at most once",metrics.getOutlinkCalls() <= metrics.getStates());
+		assertEquals(ProofMetrics.HEADER.split("\t").length, metrics.toString().split("\t").length);
+
+		// the listener stays put until replaced
+		ProofMetrics again = new ProofMetrics(lp, "mem(X,l_abcde)");
+		dpr.setListener(again);
+		dpr.prove(lp, Prover.parseQuery("mem","X","l_abcde"), null, 0);
+		assertEquals(metrics.getPushes(), again.getPushes());
+		assertNull(dpr.copy().getListener());
+	}
+}
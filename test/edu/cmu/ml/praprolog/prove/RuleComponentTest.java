@@ -43,6 +43,29 @@ public class RuleComponentTest {
 
         }
     }
+    @Test
+    public void testHeadIndex() throws LogicProgramException {
+        RuleComponent r = new RuleComponent();
+        Goal f = new Goal("f"), q = new Goal("q","X");
+        r.add(new Rule(new Goal("isa","X","duck"), f, q));
+        r.add(new Rule(new Goal("isa","X","chicken"), f, q));
+        r.add(new Rule(new Goal("isa","tweety","Y"), f, q));
+        r.add(new Rule(new Goal("same","X","X"), f, q));
+        r.compile();
+        checkDegree(r, 1, Prover.parseQuery("isa","howard","duck"));
+        checkDegree(r, 2, Prover.parseQuery("isa","tweety","duck"));
+        checkDegree(r, 0, Prover.parseQuery("isa","howard","platypus"));
+        checkDegree(r, 3, Prover.parseQuery("isa","X","Y"));
+        checkDegree(r, 3, Prover.parseQuery("isa","X","X"));
+        checkDegree(r, 1, Prover.parseQuery("same","a","a"));
+        checkDegree(r, 0, Prover.parseQuery("same","a","b"));
+    }
+
+    private void checkDegree(RuleComponent r, int expected, LogicProgramState state) throws LogicProgramException {
+        assertEquals(state.toString(), expected, r.outlinks(state).size());
+        assertEquals(state.toString(), expected, r.degree(state));
+    }
+
     public static Component makeClassifyIDB() {
         RuleComponent p = new RuleComponent();
         Goal isaduck = new Goal("isa","X","duck"),
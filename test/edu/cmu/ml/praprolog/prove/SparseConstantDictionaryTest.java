@@ -0,0 +1,49 @@
+package edu.cmu.ml.praprolog.prove;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.cmu.ml.praprolog.util.ParsedFile;
+
+public class SparseConstantDictionaryTest {
+	private static final String DIR="testcases/sparseGraph/family.sparse";
+
+	@Test
+	public void testLookup() throws IOException {
+		List<String> names = new ArrayList<String>();
+		ParsedFile file = new ParsedFile(new File(DIR,"per"+SparseGraphComponent.INDEX_EXTENSION));
+		for (String line : file) names.add(line.trim());
+		file.close();
+
+		SparseConstantDictionary text = SparseConstantDictionary.load(DIR,"per");
+		check(names, text);
+
+		File dict = File.createTempFile("per",SparseConstantDictionary.BINARY_EXTENSION);
+		try {
+			text.write(dict);
+			SparseConstantDictionary binary = new SparseConstantDictionary();
+			binary.loadBinary(dict);
+			check(names, binary);
+		} finally {
+			dict.delete();
+		}
+	}
+
+	private void check(List<String> names, SparseConstantDictionary d) {
+		assertEquals(names.size(), d.size());
+		for (int i=0; i<names.size(); i++) {
+			assertEquals(names.get(i), i, d.id(names.get(i)));
+			assertEquals(names.get(i), d.name(i));
+			assertEquals(new ConstantArgument(names.get(i)), d.constant(i));
+		}
+		assertEquals(-1, d.id("nobody"));
+		assertEquals(-1, d.id(""));
+		assertEquals(-1, d.id(names.get(0)+"x"));
+	}
+}
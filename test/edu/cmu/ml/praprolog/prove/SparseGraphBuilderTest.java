@@ -0,0 +1,69 @@
+package edu.cmu.ml.praprolog.prove;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SparseGraphBuilderTest {
+	private static final String DIR="testcases/sparseGraph";
+
+	@Test
+	public void testText() throws IOException {
+		check(false);
+	}
+
+	@Test
+	public void testBinary() throws IOException {
+		check(true);
+	}
+
+	@Test
+	public void testSharded() throws IOException {
+		check(false, 5);
+		check(true, 5);
+	}
+
+	private void check(boolean binary) throws IOException {
+		check(binary, 0);
+	}
+
+	private void check(boolean binary, int shardRows) throws IOException {
+		List<File> cfacts = new ArrayList<File>();
+		for (String name : new String[] {"child_per_per","sister_per_per","spouse_per_per"})
+			cfacts.add(new File(DIR,name+GoalComponent.FILE_EXTENSION));
+		File dir = File.createTempFile("family",".sparse");
+		dir.delete();
+		try {
+			// a tiny chunk size, so that everything goes through the external sort
+			new SparseGraphBuilder(dir, binary, 2, 3, shardRows).build(cfacts);
+			String child = shardRows > 0 ? "child_per_per.0" : "child_per_per";
+			assertEquals(binary, new File(dir,child+SparseMatrixIndex.BINARY_EXTENSION).exists());
+
+			SparseGraphComponent expected = SparseGraphComponent.load(DIR+"/family.sparse");
+			SparseGraphComponent built = SparseGraphComponent.load(dir.getPath());
+			SparseConstantDictionary people = expected.dictionaries.get(new File(DIR+"/family.sparse","per"));
+			assertEquals(people.size(), built.dictionaries.get(new File(dir,"per")).size());
+			if (shardRows > 0) assertEquals(6, built.index.get("child").get(0).shards.length);
+			for (String functor : new String[] {"child","sister","spouse"}) {
+				for (int i=0; i<people.size(); i++) {
+					ConstantArgument a = people.constant(i);
+					assertEquals(functor+" "+a, set(expected._indexGet(functor,a)), set(built._indexGet(functor,a)));
+				}
+			}
+		} finally {
+			File[] files = dir.listFiles();
+			if (files != null) for (File f : files) f.delete();
+			dir.delete();
+		}
+	}
+
+	private HashSet<Argument> set(List<Argument> near) {
+		return near == null ? new HashSet<Argument>() : new HashSet<Argument>(near);
+	}
+}
@@ -2,6 +2,8 @@ package edu.cmu.ml.praprolog.prove;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -26,4 +28,17 @@ public class SparseGraphComponentTest {
 		assertEquals("Theresa should have 1 sister\n",1,component.degree(s));
 	}
 
+	@Test
+	public void testFederated() {
+		String dir = "testcases/sparseGraph/family.sparse";
+		SparseGraphComponent once = SparseGraphComponent.load(dir);
+		SparseGraphComponent twice = SparseGraphComponent.load(Arrays.asList(dir,dir));
+		ProPPRLogicProgramState s = new ProPPRLogicProgramState(Goal.decompile("child,pam,-1"));
+		// edges aren't deduplicated across matrices: each of pam's 3 children
+		// is reached once per copy of the directory
+		assertEquals(3,once.degree(s));
+		assertEquals(2*once.degree(s),twice.degree(s));
+		assertEquals(2*once.outlinks(s).size(),twice.outlinks(s).size());
+	}
+
 }
@@ -0,0 +1,42 @@
+package edu.cmu.ml.praprolog.prove;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SparseMatrixIndexTest {
+	private static final String DIR="testcases/sparseGraph/family.sparse";
+
+	@Test
+	public void testBinary() throws IOException {
+		SparseGraphComponent component = SparseGraphComponent.load(DIR);
+		SparseConstantDictionary arg1 = component.dictionaries.get(new File(DIR,"per"));
+		SparseConstantDictionary arg2 = arg1;
+		SparseMatrixIndex text = new SparseMatrixIndex(DIR,"child_per_per",arg1,arg2);
+
+		File dir = File.createTempFile("family",".sparse");
+		dir.delete(); dir.mkdir();
+		File csr = new File(dir,"child_per_per"+SparseMatrixIndex.BINARY_EXTENSION);
+		try {
+			text.writeBinary(csr);
+			// load() should find the binary file on its own
+			SparseMatrixIndex binary = new SparseMatrixIndex(dir.getPath(),"child_per_per",arg1,arg2);
+			assertEquals(text.rows,binary.rows);
+			assertEquals(text.cols,binary.cols);
+			assertEquals(text.entries,binary.entries);
+			for (int i=0; i<arg1.size(); i++) {
+				String key = arg1.name(i);
+				ConstantArgument a = new ConstantArgument(key);
+				assertEquals(key,text.near(a),binary.near(a));
+				assertEquals(key,text.degree(a),binary.degree(a));
+			}
+			assertEquals(3,binary.degree(new ConstantArgument("pam")));
+		} finally {
+			csr.delete();
+			dir.delete();
+		}
+	}
+}
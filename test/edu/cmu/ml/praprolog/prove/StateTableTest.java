@@ -0,0 +1,64 @@
+package edu.cmu.ml.praprolog.prove;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class StateTableTest {
+
+	@Test
+	public void testIntern() {
+		StateTable table = new StateTable(2);
+		LogicProgramState a = new ProPPRLogicProgramState(Goal.decompile("isa,elsie,-1"));
+		LogicProgramState b = new ProPPRLogicProgramState(Goal.decompile("isa,daisy,-1"));
+		int ida = table.intern(a);
+		int idb = table.intern(b);
+		assertEquals(0,ida);
+		assertEquals(1,idb);
+		assertEquals("re-interning an equal state",ida,table.intern(new ProPPRLogicProgramState(Goal.decompile("isa,elsie,-1"))));
+		assertEquals(2,table.size());
+		assertEquals(StateTable.NO_ENTRY,table.getId(new ProPPRLogicProgramState(Goal.decompile("isa,bessie,-1"))));
+		assertFalse(table.hasDegree(ida));
+	}
+
+	@Test
+	public void testGrowAndMaps() {
+		StateTable table = new StateTable(2);
+		for (int i=0; i<10; i++) {
+			int id = table.intern(new ProPPRLogicProgramState(Goal.decompile("f,c"+i+",-1")));
+			table.setDegree(id, i+1);
+			table.incrementResidual(id, 0.5);
+			if (i % 2 == 0) table.incrementScore(id, 0.25);
+		}
+		assertEquals(10,table.size());
+		for (int i=0; i<10; i++) {
+			int id = table.getId(new ProPPRLogicProgramState(Goal.decompile("f,c"+i+",-1")));
+			assertEquals(i,id);
+			assertEquals(i+1,table.getDegree(id));
+			assertEquals(0.5,table.getResidual(id),1e-10);
+		}
+		Map<LogicProgramState,Double> p = table.scoreMap();
+		assertEquals(5,p.size());
+		assertEquals(5,table.numScored());
+		assertEquals(10,table.residualMap().size());
+	}
+
+	@Test
+	public void testResidualCounts() {
+		StateTable table = new StateTable();
+		int a = table.intern(new ProPPRLogicProgramState(Goal.decompile("f,a,-1")));
+		int b = table.intern(new ProPPRLogicProgramState(Goal.decompile("f,b,-1")));
+		table.setResidual(a, 1.0);
+		table.incrementResidual(b, 0.5);
+		table.incrementResidual(b, 0.5);
+		assertEquals(2,table.numResidual());
+		table.setResidual(a, 0);
+		assertEquals(1,table.numResidual());
+		table.setResidual(a, 0.25);
+		table.setResidual(b, 0);
+		assertEquals(1,table.numResidual());
+		assertEquals(2,table.peakResidual());
+	}
+}
@@ -2,8 +2,13 @@ package edu.cmu.ml.praprolog.prove;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
@@ -95,4 +100,56 @@ public class TuprologComponentTest {
 		}
 	}
 
+	@Test
+	public void testCache() throws Exception {
+		TuprologComponent tc = new TuprologComponent();
+		tc.addTheory("testcases/prolog/familyx.pl");
+		LogicProgramState state0 = new ProPPRLogicProgramState(Goal.decompile("sim,william,-1"));
+		List<Outlink> expected = tc.outlinks(state0);
+		// cache hits must still make children of the state asked about
+		List<Outlink> again = tc.outlinks(state0);
+		assertEquals(expected.size(), again.size());
+		for (int i=0; i<expected.size(); i++) {
+			assertNotSame(expected.get(i).getState(), again.get(i).getState());
+			assertEquals(expected.get(i).getState().asProPPR(), again.get(i).getState().asProPPR());
+		}
+	}
+
+	@Test
+	public void testThreads() throws Exception {
+		TuprologComponent serial = new TuprologComponent();
+		serial.addTheory("testcases/prolog/familyx.pl");
+		final LogicProgramState state0 = new ProPPRLogicProgramState(Goal.decompile("sim,william,-1"));
+		final List<Outlink> expected = serial.outlinks(state0);
+		final LogicProgramState state1 = expected.get(1).getState();
+		List<Outlink> expected1 = serial.outlinks(state1);
+		assertTrue(expected1.size() > 0);
+
+		// no cache, so that every call solves on an engine from the pool
+		final TuprologComponent tc = new TuprologComponent(2);
+		tc.setCacheCapacity(0);
+		tc.addTheory("testcases/prolog/familyx.pl");
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<List<Outlink>>> results = new ArrayList<Future<List<Outlink>>>();
+		for (int i=0; i<16; i++) {
+			final LogicProgramState state = (i%2==0) ? state0 : state1;
+			results.add(pool.submit(new Callable<List<Outlink>>() {
+				@Override
+				public List<Outlink> call() throws Exception {
+					tc.claim(state);
+					return tc.outlinks(state);
+				}
+			}));
+		}
+		pool.shutdown();
+		for (int i=0; i<results.size(); i++) {
+			List<Outlink> want = (i%2==0) ? expected : expected1;
+			List<Outlink> got = results.get(i).get();
+			assertEquals(want.size(), got.size());
+			for (int j=0; j<want.size(); j++)
+				assertEquals(want.get(j).getState().asProPPR(), got.get(j).getState().asProPPR());
+		}
+		assertTrue("at most 2 engines; made "+tc.getNumEngines(), tc.getNumEngines() <= 2);
+	}
+
 }
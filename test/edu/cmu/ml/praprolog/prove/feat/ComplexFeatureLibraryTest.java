@@ -3,6 +3,9 @@ package edu.cmu.ml.praprolog.prove.feat;
 import edu.cmu.ml.praprolog.prove.Component;
 import edu.cmu.ml.praprolog.prove.Goal;
 import edu.cmu.ml.praprolog.prove.LogicProgram;
+import edu.cmu.ml.praprolog.prove.LogicProgramException;
+import edu.cmu.ml.praprolog.prove.RenamingSubstitution;
+import edu.cmu.ml.praprolog.prove.Rule;
 import junit.framework.Assert;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
@@ -13,7 +16,9 @@ import org.junit.Test;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Malcolm Greaves
@@ -35,11 +40,12 @@ public class ComplexFeatureLibraryTest {
 				));
 		LogicProgram lp = new LogicProgram(new Component[0]);
 
-		ComplexFeatureLibrary.init(lp, r);
+		ComplexFeatureLibrary library = ComplexFeatureLibrary.init(lp, r);
 
 		r.close();
-		Assert.assertNotNull(ComplexFeatureLibrary.getFeature(functor));
-		Assert.assertNotNull(ComplexFeatureLibrary.getFeature(ComplexFeatureLibrary.ESCAPE_PREFIX + functor));
+		Assert.assertSame(library, lp.getComplexFeatureLibrary());
+		Assert.assertNotNull(library.getFeature(functor));
+		Assert.assertNotNull(library.getFeature(ComplexFeatureLibrary.ESCAPE_PREFIX + functor));
 	}
 
 	@Test
@@ -49,16 +55,52 @@ public class ComplexFeatureLibraryTest {
 				functor + "=edu.cmu.ml.praprolog.prove.feat.ComplexFeatureLibraryTest$TestArgumentLoad,a,b"
 				));
 
-		ComplexFeatureLibrary.init(new LogicProgram(new Component[0]), r);
+		ComplexFeatureLibrary library = ComplexFeatureLibrary.init(new LogicProgram(new Component[0]), r);
 		r.close();
-		Assert.assertNotNull(ComplexFeatureLibrary.getFeature(functor));
-		Assert.assertNotNull(ComplexFeatureLibrary.getFeature(ComplexFeatureLibrary.ESCAPE_PREFIX + functor));
+		Assert.assertNotNull(library.getFeature(functor));
+		Assert.assertNotNull(library.getFeature(ComplexFeatureLibrary.ESCAPE_PREFIX + functor));
 	}
 
 	@Test(expected = IllegalStateException.class)
-	public void failBeforeInitialization() {
-		ComplexFeatureLibrary._reset();
-		ComplexFeatureLibrary.getFeature("");
+	public void failBeforeInitialization() throws LogicProgramException {
+		Rule rule = new Rule(new Goal("p","x"), new Goal(ComplexFeatureLibrary.ESCAPE_PREFIX+"TestCounting","x"));
+		rule.featuresAsDict(new RenamingSubstitution(0), RenamingSubstitution.NOT_RENAMED, null);
+	}
+
+	@Test
+	public void testSeparatePrograms() throws Exception {
+		LogicProgram lp1 = new LogicProgram(new Component[0]), lp2 = new LogicProgram(new Component[0]);
+		ComplexFeatureLibrary lib1 = ComplexFeatureLibrary.init(lp1, new BufferedReader(new StringReader(
+				"TestCounting=edu.cmu.ml.praprolog.prove.feat.ComplexFeatureLibraryTest$TestCounting")));
+		ComplexFeatureLibrary lib2 = ComplexFeatureLibrary.init(lp2, new BufferedReader(new StringReader(
+				"Other=edu.cmu.ml.praprolog.prove.feat.ComplexFeatureLibraryTest$TestLoad")));
+		Assert.assertSame(lib1, lp1.getComplexFeatureLibrary());
+		Assert.assertSame(lib2, lp2.getComplexFeatureLibrary());
+		Assert.assertSame(lp1, lib1.getFeature("TestCounting").getLogicProgram());
+		Assert.assertNull(lib1.getFeature("Other"));
+		Assert.assertNull(lib2.getFeature("TestCounting"));
+	}
+
+	@Test
+	public void testMemo() throws Exception {
+		ComplexFeatureLibrary library = new ComplexFeatureLibrary(new LogicProgram(new Component[0]), new BufferedReader(new StringReader(
+				"TestCounting=edu.cmu.ml.praprolog.prove.feat.ComplexFeatureLibraryTest$TestCounting")));
+		TestCounting feature = (TestCounting) library.getFeature("TestCounting");
+		Rule rule = new Rule(new Goal("p","x"), new Goal(ComplexFeatureLibrary.ESCAPE_PREFIX+"TestCounting","x","y"));
+		Map<Goal,Double> first = null;
+		for (int i=0; i<5; i++) {
+			Map<Goal,Double> fd = rule.featuresAsDict(new RenamingSubstitution(0), RenamingSubstitution.NOT_RENAMED, library);
+			if (first == null) first = fd;
+			Assert.assertEquals(first, fd);
+		}
+		Assert.assertEquals(1.0, first.get(new Goal("counted","x","y")), 1e-10);
+		Assert.assertEquals(1, feature.calls.get());
+		Assert.assertEquals(1, feature.memoSize());
+
+		rule = new Rule(new Goal("p","x"), new Goal(ComplexFeatureLibrary.ESCAPE_PREFIX+"TestCounting","x","z"));
+		rule.featuresAsDict(new RenamingSubstitution(0), RenamingSubstitution.NOT_RENAMED, library);
+		Assert.assertEquals(2, feature.calls.get());
+		Assert.assertEquals(2, feature.memoSize());
 	}
 
 	@Test(expected = IllegalArgumentException.class)
@@ -88,9 +130,9 @@ public class ComplexFeatureLibraryTest {
 				functor +
 				"=edu.cmu.ml.praprolog.prove.feat.ComplexFeatureLibraryTest$TestLoad"));
 
-		ComplexFeatureLibrary.init(new LogicProgram(new Component[0]), r);
+		ComplexFeatureLibrary library = ComplexFeatureLibrary.init(new LogicProgram(new Component[0]), r);
 
-		ComplexFeatureLibrary.getFeature(null);
+		library.getFeature(null);
 	}
 
 	@Test(expected = IllegalArgumentException.class)
@@ -100,8 +142,8 @@ public class ComplexFeatureLibraryTest {
 				functor +
 				"=edu.cmu.ml.praprolog.prove.feat.ComplexFeatureLibraryTest$TestLoad"));
 
-		ComplexFeatureLibrary.init(new LogicProgram(new Component[0]), r);
-		ComplexFeatureLibrary.getFeature("");
+		ComplexFeatureLibrary library = ComplexFeatureLibrary.init(new LogicProgram(new Component[0]), r);
+		library.getFeature("");
 	}
 
 	static public class TestLoad extends ComplexFeature {
@@ -113,6 +155,20 @@ public class ComplexFeatureLibraryTest {
 		}
 	}
 
+	static public class TestCounting extends ComplexFeature {
+		final AtomicInteger calls = new AtomicInteger(0);
+
+		public TestCounting(LogicProgram lp, String[] args) { super(lp, args); }
+
+		@Override
+		protected Map<Goal, Double> featuresAsDict_h(Goal unifiedFeatInst) {
+			calls.incrementAndGet();
+			Map<Goal, Double> m = new HashMap<Goal, Double>();
+			m.put(new Goal("counted", unifiedFeatInst.getArgs()), 1.0);
+			return m;
+		}
+	}
+
 	static public class TestArgumentLoad extends ComplexFeature {
 
 		final String arg1, arg2;